@@ -0,0 +1,8 @@
+package android.annotation;
+
+/**
+ * JVM stand-in for {@code android.annotation.TargetApi}.
+ */
+public @interface TargetApi {
+    int value();
+}
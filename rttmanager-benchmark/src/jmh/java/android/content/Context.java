@@ -0,0 +1,16 @@
+package android.content;
+
+/**
+ * JVM stand-in for {@code android.content.Context}.
+ */
+public abstract class Context {
+
+    public abstract Object getSystemService(String name);
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return null;
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+    }
+}
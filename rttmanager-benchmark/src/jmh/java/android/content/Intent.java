@@ -0,0 +1,17 @@
+package android.content;
+
+/**
+ * JVM stand-in for {@code android.content.Intent}.
+ */
+public class Intent {
+
+    private final String action;
+
+    public Intent(final String action) {
+        this.action = action;
+    }
+
+    public String getAction() {
+        return action;
+    }
+}
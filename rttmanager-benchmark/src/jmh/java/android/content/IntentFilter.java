@@ -0,0 +1,10 @@
+package android.content;
+
+/**
+ * JVM stand-in for {@code android.content.IntentFilter}.
+ */
+public class IntentFilter {
+
+    public IntentFilter(final String action) {
+    }
+}
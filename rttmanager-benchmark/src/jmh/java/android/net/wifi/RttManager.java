@@ -0,0 +1,143 @@
+package android.net.wifi;
+
+/**
+ * JVM stand-in for the hidden {@code android.net.wifi.RttManager} with the same inner types and fields as the
+ * platform class. {@link #startRanging(RttParams[], RttListener)} answers synchronously with {@link #results}, so a
+ * benchmark measures the library and not the stand-in.
+ */
+public class RttManager {
+
+    public abstract static class ResponderCallback {
+        public abstract void onResponderEnableFailure(int reason);
+
+        public abstract void onResponderEnabled(ResponderConfig config);
+    }
+
+    public static class ResponderConfig {
+        public int centerFreq0;
+        public int centerFreq1;
+        public int channelWidth;
+        public int frequency;
+        public String macAddress = "";
+        public int preamble;
+    }
+
+    @Deprecated
+    public static class Capabilities {
+        public int supportedPeerType;
+        public int supportedType;
+    }
+
+    public static class RttCapabilities {
+        public int bwSupported;
+        public boolean lciSupported;
+        public boolean lcrSupported;
+        public int mcVersion;
+        public boolean oneSidedRttSupported;
+        public int preambleSupported;
+        public boolean responderSupported;
+        public boolean secureRttSupported;
+        public boolean supportedPeerType;
+        public boolean supportedType;
+        public boolean twoSided11McRttSupported;
+    }
+
+    public interface RttListener {
+        void onAborted();
+
+        void onFailure(int reason, String description);
+
+        void onSuccess(RttResult[] results);
+    }
+
+    public static class RttParams {
+        public boolean LCIRequest;
+        public boolean LCRRequest;
+        public int bandwidth;
+        public String bssid;
+        public int burstTimeout;
+        public int centerFreq0;
+        public int centerFreq1;
+        public int channelWidth;
+        public int deviceType;
+        public int frequency;
+        public int interval;
+        public int numRetriesPerFTMR;
+        public int numRetriesPerMeasurementFrame;
+        public int numSamplesPerBurst;
+        public int num_retries;
+        public int num_samples;
+        public int numberBurst;
+        public int preamble;
+        public int requestType;
+        public boolean secure;
+    }
+
+    public static class RttResult {
+        public WifiInformationElement LCI;
+        public WifiInformationElement LCR;
+        public String bssid;
+        public int burstDuration;
+        public int burstNumber;
+        public int distance;
+        public int distanceSpread;
+        public int distanceStandardDeviation;
+        public int frameNumberPerBurstPeer;
+        public int measurementFrameNumber;
+        public int measurementType;
+        public int negotiatedBurstNum;
+        public int requestType;
+        public int retryAfterDuration;
+        public int rssi;
+        public int rssiSpread;
+        public long rtt;
+        public long rttSpread;
+        public long rttStandardDeviation;
+        public int rxRate;
+        public boolean secure;
+        public int status;
+        public int successMeasurementFrameNumber;
+        public long ts;
+        public int txRate;
+    }
+
+    public static class WifiInformationElement {
+        public byte[] data;
+        public byte id;
+    }
+
+    /**
+     * Results reported to every listener passed to {@link #startRanging(RttParams[], RttListener)}.
+     */
+    public RttResult[] results = new RttResult[0];
+    /**
+     * Capabilities returned by {@link #getRttCapabilities()}.
+     */
+    public RttCapabilities rttCapabilities = new RttCapabilities();
+
+    public void disableResponder(ResponderCallback callback) {
+    }
+
+    public void enableResponder(ResponderCallback callback) {
+        callback.onResponderEnabled(new ResponderConfig());
+    }
+
+    @Deprecated
+    public Capabilities getCapabilities() {
+        return new Capabilities();
+    }
+
+    public RttCapabilities getRttCapabilities() {
+        return rttCapabilities;
+    }
+
+    public void startRanging(RttParams[] params, RttListener listener) {
+        if (params == null || params.length == 0 || listener == null) {
+            throw new IllegalArgumentException("params and listener must not be null or empty.");
+        }
+        listener.onSuccess(results);
+    }
+
+    public void stopRanging(RttListener listener) {
+    }
+}
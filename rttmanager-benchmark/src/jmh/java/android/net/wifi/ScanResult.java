@@ -0,0 +1,12 @@
+package android.net.wifi;
+
+/**
+ * JVM stand-in for {@code android.net.wifi.ScanResult}, only referenced by documentation of the library.
+ */
+public class ScanResult {
+    public String BSSID;
+    public int centerFreq0;
+    public int centerFreq1;
+    public int channelWidth;
+    public int frequency;
+}
@@ -0,0 +1,9 @@
+package android.net.wifi;
+
+/**
+ * JVM stand-in for {@code android.net.wifi.WifiManager}.
+ */
+public class WifiManager {
+
+    public static final String WIFI_STATE_CHANGED_ACTION = "android.net.wifi.WIFI_STATE_CHANGED";
+}
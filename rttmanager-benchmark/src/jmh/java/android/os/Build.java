@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.Build}, reporting Android N MR1.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = VERSION_CODES.N_MR1;
+    }
+
+    public static class VERSION_CODES {
+        public static final int M = 23;
+        public static final int N = 24;
+        public static final int N_MR1 = 25;
+    }
+}
@@ -0,0 +1,23 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.Parcel}. Parceling is not part of the benchmarks.
+ */
+public final class Parcel {
+
+    public int readInt() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String readString() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeInt(int val) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void writeString(String val) {
+        throw new UnsupportedOperationException();
+    }
+}
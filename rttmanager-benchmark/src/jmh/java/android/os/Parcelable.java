@@ -0,0 +1,17 @@
+package android.os;
+
+/**
+ * JVM stand-in for {@code android.os.Parcelable}.
+ */
+public interface Parcelable {
+
+    interface Creator<T> {
+        T createFromParcel(Parcel source);
+
+        T[] newArray(int size);
+    }
+
+    int describeContents();
+
+    void writeToParcel(Parcel dest, int flags);
+}
@@ -0,0 +1,7 @@
+package android.support.annotation;
+
+/**
+ * JVM stand-in for {@code android.support.annotation.NonNull}.
+ */
+public @interface NonNull {
+}
@@ -0,0 +1,31 @@
+package android.util;
+
+/**
+ * JVM stand-in for {@code android.util.Log}, which writes to {@link System#err}.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int e(String tag, String msg) {
+        return println("E", tag, msg);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println("E", tag, msg + '\n' + tr);
+    }
+
+    public static int w(String tag, String msg) {
+        return println("W", tag, msg);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println("W", tag, msg + '\n' + tr);
+    }
+
+    private static int println(String priority, String tag, String msg) {
+        System.err.println(priority + "/" + tag + ": " + msg);
+        return 0;
+    }
+}
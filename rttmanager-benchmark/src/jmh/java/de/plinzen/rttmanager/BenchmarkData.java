@@ -0,0 +1,51 @@
+package de.plinzen.rttmanager;
+
+import android.net.wifi.RttManager;
+
+/**
+ * Factories for the request and result objects used by the benchmarks.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    static RttManager.RttResult[] nativeResults(final int batchSize) {
+        final RttManager.RttResult[] results = new RttManager.RttResult[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            final RttManager.RttResult result = new RttManager.RttResult();
+            result.bssid = bssid(i);
+            result.status = RttManagerCompat.RTT_STATUS_SUCCESS;
+            result.requestType = RttManagerCompat.RTT_TYPE_TWO_SIDED;
+            result.measurementType = RttManagerCompat.RTT_TYPE_TWO_SIDED;
+            result.ts = 1000L * i;
+            result.rssi = -50 - i % 30;
+            result.distance = 100 * (i + 1);
+            result.distanceStandardDeviation = 50;
+            result.rtt = 6667L * (i + 1);
+            result.burstDuration = 20;
+            result.LCI = new RttManager.WifiInformationElement();
+            result.LCI.id = 0x08;
+            result.LCI.data = new byte[16];
+            results[i] = result;
+        }
+        return results;
+    }
+
+    static RttManagerCompat.RttParams[] params(final int batchSize) {
+        final RttManagerCompat.RttParams[] params = new RttManagerCompat.RttParams[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            final RttManagerCompat.RttParams param = new RttManagerCompat.RttParams();
+            param.bssid = bssid(i);
+            param.requestType = RttManagerCompat.RTT_TYPE_TWO_SIDED;
+            param.frequency = 5180 + 20 * (i % 8);
+            param.LCIRequest = true;
+            params[i] = param;
+        }
+        return params;
+    }
+
+    private static String bssid(final int index) {
+        return String.format("02:00:00:00:%02x:%02x", (index >> 8) & 0xff, index & 0xff);
+    }
+}
@@ -0,0 +1,35 @@
+package de.plinzen.rttmanager;
+
+import android.net.wifi.RttManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Conversion of the native {@code RttCapabilities}.
+ */
+@State(Scope.Benchmark)
+public class CapabilitiesBenchmark {
+
+    @Param({"direct", "reflection"})
+    public String converter;
+    private RttManager.RttCapabilities nativeCapabilities;
+
+    @Benchmark
+    public RttManagerCompat.RttCapabilities buildRttCapabilitiesFromNativeObject() {
+        return RttManagerCompatUtil.buildRttCapabilitiesFromNativeObject(nativeCapabilities);
+    }
+
+    @Setup
+    public void setUp() {
+        ConversionBenchmark.forceReflection(converter);
+        nativeCapabilities = new RttManager.RttCapabilities();
+        nativeCapabilities.twoSided11McRttSupported = true;
+        nativeCapabilities.lciSupported = true;
+        nativeCapabilities.bwSupported = RttManagerCompat.RTT_BW_20_SUPPORT | RttManagerCompat.RTT_BW_40_SUPPORT;
+        nativeCapabilities.preambleSupported = RttManagerCompat.PREAMBLE_HT;
+    }
+}
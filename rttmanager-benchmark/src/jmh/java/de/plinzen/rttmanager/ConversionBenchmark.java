@@ -0,0 +1,76 @@
+package de.plinzen.rttmanager;
+
+import android.net.wifi.RttManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Conversion of requests and results between the compat and the native types. Every parameter combination runs in
+ * its own fork, so the reflection fallback can be forced per run.
+ */
+@State(Scope.Benchmark)
+public class ConversionBenchmark {
+
+    @Param({"1", "10", "64"})
+    public int batchSize;
+    @Param({"direct", "reflection"})
+    public String converter;
+    private final RttResultBatch batch = new RttResultBatch();
+    private final RttResultBuffer buffer = new RttResultBuffer();
+    private RttManager.RttResult[] nativeResults;
+    private RttManagerCompat.RttParams[] params;
+
+    static void forceReflection(final String converter) {
+        if ("reflection".equals(converter)) {
+            final UnsupportedOperationException cause = new UnsupportedOperationException("benchmark");
+            DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_CAPABILITIES, cause);
+            DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_PARAMS, cause);
+            DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_RESPONDER_CONFIG, cause);
+            DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_RESULT, cause);
+        }
+    }
+
+    @Benchmark
+    public Object buildNativeRttParams() throws Exception {
+        return RttManagerCompatUtil.buildNativeRttParams(params);
+    }
+
+    @Benchmark
+    public RttManagerCompat.RttResult[] buildRttResultFromNativeObjects() {
+        return RttManagerCompatUtil.buildRttResultFromNativeObjects(nativeResults, null);
+    }
+
+    @Benchmark
+    public RttManagerCompat.RttResult[] buildRttResultFromNativeObjectsBuffered() {
+        return RttManagerCompatUtil.buildRttResultFromNativeObjects(nativeResults, buffer);
+    }
+
+    /**
+     * Reads the fields most consumers use, which is the case the lazy views are made for.
+     */
+    @Benchmark
+    public long buildLazyRttResults() {
+        long sum = 0;
+        for (LazyRttResult result : RttManagerCompatUtil.buildLazyRttResults(nativeResults)) {
+            sum += result.getBssid().length() + result.getDistance() + result.getStatus();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public RttResultBatch fillRttResultBatch() {
+        RttManagerCompatUtil.fillRttResultBatch(nativeResults, batch);
+        return batch;
+    }
+
+    @Setup
+    public void setUp() {
+        forceReflection(converter);
+        params = BenchmarkData.params(batchSize);
+        nativeResults = BenchmarkData.nativeResults(batchSize);
+    }
+}
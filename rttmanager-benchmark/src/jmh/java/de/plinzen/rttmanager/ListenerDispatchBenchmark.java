@@ -0,0 +1,71 @@
+package de.plinzen.rttmanager;
+
+import android.net.wifi.RttManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Field;
+
+/**
+ * Dispatch of native listener callbacks through the wrapper created by
+ * {@link RttManagerCompatUtil#wrapRttListener}, either the directly implemented native interface or the proxy
+ * fallback.
+ */
+@State(Scope.Benchmark)
+public class ListenerDispatchBenchmark {
+
+    @Param({"1", "10", "64"})
+    public int batchSize;
+    @Param({"native", "proxy"})
+    public String dispatch;
+    private RecordingListener listener;
+    private RttManager.RttResult[] nativeResults;
+    private RttManager.RttListener wrapper;
+
+    @Benchmark
+    public int onFailure() {
+        wrapper.onFailure(RttManagerCompat.REASON_INVALID_REQUEST, "benchmark");
+        return listener.lastReason;
+    }
+
+    @Benchmark
+    public RttManagerCompat.RttResult[] onSuccess() {
+        wrapper.onSuccess(nativeResults);
+        return listener.lastResults;
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("proxy".equals(dispatch)) {
+            final Field nativeSupported = RttManagerCompatUtil.class.getDeclaredField("nativeRttListenerSupported");
+            nativeSupported.setAccessible(true);
+            nativeSupported.setBoolean(null, false);
+        }
+        listener = new RecordingListener();
+        wrapper = (RttManager.RttListener) RttManagerCompatUtil.wrapRttListener(listener, null, null);
+        nativeResults = BenchmarkData.nativeResults(batchSize);
+    }
+
+    static final class RecordingListener implements RttManagerCompat.RttListener {
+        int lastReason;
+        RttManagerCompat.RttResult[] lastResults;
+
+        @Override
+        public void onAborted() {
+        }
+
+        @Override
+        public void onFailure(final int reason, final String description) {
+            lastReason = reason;
+        }
+
+        @Override
+        public void onSuccess(final RttManagerCompat.RttResult[] results) {
+            lastResults = results;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package de.plinzen.rttmanager;
+
+import android.content.Context;
+import android.net.wifi.RttManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Full round trip of {@link RttManagerCompat#startRanging(RttManagerCompat.RttParams[],
+ * RttManagerCompat.RttListener)}: parameter conversion, method dispatch into the native RttManager, listener
+ * wrapping and result conversion.
+ */
+@State(Scope.Benchmark)
+public class StartRangingBenchmark {
+
+    @Param({"1", "10", "64"})
+    public int batchSize;
+    private ListenerDispatchBenchmark.RecordingListener listener;
+    private RttManagerCompat.RttParams[] params;
+    private PreparedRanging prepared;
+    private RttManagerCompat rttManagerCompat;
+
+    @Setup
+    public void setUp() {
+        final RttManager rttManager = new RttManager();
+        rttManager.results = BenchmarkData.nativeResults(batchSize);
+        rttManagerCompat = new RttManagerCompat(new Context() {
+            @Override
+            public Object getSystemService(final String name) {
+                return rttManager;
+            }
+        });
+        rttManagerCompat.prewarm();
+        listener = new ListenerDispatchBenchmark.RecordingListener();
+        params = BenchmarkData.params(batchSize);
+        prepared = new PreparedRanging(params);
+    }
+
+    @Benchmark
+    public RttManagerCompat.RttResult[] startRanging() throws Throwable {
+        rttManagerCompat.startRanging(params, listener);
+        return listener.lastResults;
+    }
+
+    @Benchmark
+    public RttManagerCompat.RttResult[] startPreparedRanging() throws Throwable {
+        rttManagerCompat.startRanging(prepared, listener);
+        return listener.lastResults;
+    }
+}
@@ -0,0 +1,285 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Picks the access points to range in the next cycle. Given the positions of the anchors and the last position
+ * estimate, it selects the smallest subset whose geometric dilution of precision (GDOP) meets a target instead of
+ * ranging every known access point, which saves airtime and shortens a cycle.
+ * <p>
+ * The subset is built greedily: starting with no anchor, the anchor which lowers the GDOP of the subset most is added
+ * until the target is met and at least {@code dimension + 1} anchors are selected. The GDOP is
+ * {@code sqrt(trace((H^T H)^-1))}, where every row of {@code H} is the unit vector from an anchor to the estimated
+ * position. The selector is not thread safe.
+ */
+public class AnchorSelector {
+
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Added to the diagonal of {@code H^T H}, so the GDOP of subsets smaller than the dimension stays finite.
+     */
+    private static final double REGULARIZATION = 1e-6;
+    private final BssidIndex bssidIndex;
+    private final double[] candidateNormal = new double[9];
+    private final int dimension;
+    private final double[] scratch = new double[3];
+    private final double[] selectedNormal = new double[9];
+    private double[] anchorX = new double[INITIAL_CAPACITY];
+    private double[] anchorY = new double[INITIAL_CAPACITY];
+    private double[] anchorZ = new double[INITIAL_CAPACITY];
+    private RttManagerCompat.RttParams[] anchorParams = new RttManagerCompat.RttParams[INITIAL_CAPACITY];
+    private int[] candidates = new int[INITIAL_CAPACITY];
+    private double gdop = Double.NaN;
+    private int maxAnchors = Integer.MAX_VALUE;
+    private double maxRange = Double.MAX_VALUE;
+    private double[] unitX = new double[INITIAL_CAPACITY];
+    private double[] unitY = new double[INITIAL_CAPACITY];
+    private double[] unitZ = new double[INITIAL_CAPACITY];
+
+    /**
+     * @param dimension 2 for horizontal, 3 for three dimensional positioning, see {@link PositionSolver}
+     */
+    public AnchorSelector(final int dimension) {
+        this(new BssidIndex(), dimension);
+    }
+
+    /**
+     * @param bssidIndex index of the BSSIDs, may be shared with a {@link PositionSolver}
+     * @param dimension  2 for horizontal, 3 for three dimensional positioning, see {@link PositionSolver}
+     */
+    public AnchorSelector(@NonNull final BssidIndex bssidIndex, final int dimension) {
+        if (dimension != 2 && dimension != 3) {
+            throw new IllegalArgumentException("dimension must be 2 or 3.");
+        }
+        this.bssidIndex = bssidIndex;
+        this.dimension = dimension;
+    }
+
+    @NonNull
+    public BssidIndex getBssidIndex() {
+        return bssidIndex;
+    }
+
+    /**
+     * @return the GDOP of the last selection, {@link Double#NaN} if no position has been available
+     */
+    public double getGdop() {
+        return gdop;
+    }
+
+    public int getMaxAnchors() {
+        return maxAnchors;
+    }
+
+    /**
+     * @param maxAnchors upper limit of the anchors in a selection, for example the number of peers the device can
+     *                   range in one request. Default is no limit.
+     */
+    public void setMaxAnchors(final int maxAnchors) {
+        if (maxAnchors < 1) {
+            throw new IllegalArgumentException("maxAnchors must be positive.");
+        }
+        this.maxAnchors = maxAnchors;
+    }
+
+    public double getMaxRange() {
+        return maxRange;
+    }
+
+    /**
+     * @param maxRange anchors farther than this from the position in metres are not selected. Default is no limit.
+     */
+    public void setMaxRange(final double maxRange) {
+        this.maxRange = maxRange;
+    }
+
+    public void removeAnchor(@NonNull final String bssid) {
+        final int index = bssidIndex.find(bssid);
+        if (index >= 0 && index < anchorParams.length) {
+            anchorParams[index] = null;
+        }
+    }
+
+    /**
+     * Registers an anchor with the params to range it. The params are passed to the selection as they are, they are
+     * not copied.
+     *
+     * @param params params of the access point, {@code bssid} must be set
+     */
+    public void setAnchor(@NonNull final RttManagerCompat.RttParams params, final double x, final double y,
+            final double z) {
+        final int index = bssidIndex.intern(params.bssid);
+        if (index >= anchorParams.length) {
+            int capacity = anchorParams.length;
+            while (capacity <= index) {
+                capacity *= 2;
+            }
+            anchorParams = Arrays.copyOf(anchorParams, capacity);
+            anchorX = Arrays.copyOf(anchorX, capacity);
+            anchorY = Arrays.copyOf(anchorY, capacity);
+            anchorZ = Arrays.copyOf(anchorZ, capacity);
+        }
+        anchorParams[index] = params;
+        anchorX[index] = x;
+        anchorY[index] = y;
+        anchorZ[index] = z;
+    }
+
+    /**
+     * Selects the anchors for the next cycle around the given position.
+     *
+     * @param position   last fix, if it is not valid all anchors are selected, but at most
+     *                   {@link #getMaxAnchors()}
+     * @param targetGdop the GDOP to reach, typical values are between 1.5 and 3
+     * @return the params of the selected anchors, to be passed to
+     * {@link RttManagerCompat#startRanging(RttManagerCompat.RttParams[], RttManagerCompat.RttListener)}
+     */
+    @NonNull
+    public RttManagerCompat.RttParams[] select(@NonNull final PositionSolver.Position position,
+            final double targetGdop) {
+        if (!position.isValid()) {
+            return selectAll();
+        }
+        return select(position.getX(), position.getY(), position.getZ(), targetGdop);
+    }
+
+    /**
+     * Selects the anchors for the next cycle around the given position in metres, see
+     * {@link #select(PositionSolver.Position, double)}.
+     */
+    @NonNull
+    public RttManagerCompat.RttParams[] select(final double x, final double y, final double z,
+            final double targetGdop) {
+        final int candidateCount = collectCandidates(x, y, z);
+        Arrays.fill(selectedNormal, 0);
+        int selectedCount = 0;
+        gdop = Double.POSITIVE_INFINITY;
+        final int limit = Math.min(candidateCount, maxAnchors);
+        while (selectedCount < limit && (selectedCount <= dimension || gdop > targetGdop)) {
+            int best = -1;
+            double bestGdop = Double.POSITIVE_INFINITY;
+            for (int i = selectedCount; i < candidateCount; i++) {
+                final double candidateGdop = gdopWith(i);
+                if (candidateGdop < bestGdop) {
+                    best = i;
+                    bestGdop = candidateGdop;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            addToNormal(selectedNormal, best);
+            // selected candidates are moved to the front of the array
+            final int swap = candidates[selectedCount];
+            candidates[selectedCount] = candidates[best];
+            candidates[best] = swap;
+            swapUnitVectors(selectedCount, best);
+            selectedCount++;
+            gdop = bestGdop;
+        }
+        final RttManagerCompat.RttParams[] selection = new RttManagerCompat.RttParams[selectedCount];
+        for (int i = 0; i < selectedCount; i++) {
+            selection[i] = anchorParams[candidates[i]];
+        }
+        return selection;
+    }
+
+    private void addToNormal(@NonNull final double[] normal, final int candidate) {
+        for (int row = 0; row < dimension; row++) {
+            for (int column = 0; column < dimension; column++) {
+                normal[row * dimension + column] += unit(candidate, row) * unit(candidate, column);
+            }
+        }
+    }
+
+    /**
+     * Collects the anchors in range of the position together with their unit vectors.
+     *
+     * @return the number of candidates
+     */
+    private int collectCandidates(final double x, final double y, final double z) {
+        if (candidates.length < anchorParams.length) {
+            candidates = new int[anchorParams.length];
+            unitX = new double[anchorParams.length];
+            unitY = new double[anchorParams.length];
+            unitZ = new double[anchorParams.length];
+        }
+        int count = 0;
+        for (int index = 0; index < anchorParams.length; index++) {
+            if (anchorParams[index] == null) {
+                continue;
+            }
+            final double dx = x - anchorX[index];
+            final double dy = y - anchorY[index];
+            final double dz = z - anchorZ[index];
+            final double range = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (range > maxRange) {
+                continue;
+            }
+            candidates[count] = index;
+            if (range < 1e-9) {
+                unitX[count] = 0;
+                unitY[count] = 0;
+                unitZ[count] = 0;
+            } else {
+                unitX[count] = dx / range;
+                unitY[count] = dy / range;
+                unitZ[count] = dz / range;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the GDOP of the selected anchors together with the given candidate
+     */
+    private double gdopWith(final int candidate) {
+        System.arraycopy(selectedNormal, 0, candidateNormal, 0, dimension * dimension);
+        addToNormal(candidateNormal, candidate);
+        for (int i = 0; i < dimension; i++) {
+            candidateNormal[i * dimension + i] += REGULARIZATION;
+        }
+        if (!LinearAlgebra.cholesky(candidateNormal, dimension)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.sqrt(LinearAlgebra.inverseTrace(candidateNormal, dimension, scratch));
+    }
+
+    @NonNull
+    private RttManagerCompat.RttParams[] selectAll() {
+        gdop = Double.NaN;
+        int count = 0;
+        for (RttManagerCompat.RttParams params : anchorParams) {
+            if (params != null) {
+                count++;
+            }
+        }
+        final RttManagerCompat.RttParams[] selection = new RttManagerCompat.RttParams[Math.min(count, maxAnchors)];
+        count = 0;
+        for (int i = 0; i < anchorParams.length && count < selection.length; i++) {
+            if (anchorParams[i] != null) {
+                selection[count++] = anchorParams[i];
+            }
+        }
+        return selection;
+    }
+
+    private void swapUnitVectors(final int first, final int second) {
+        double swap = unitX[first];
+        unitX[first] = unitX[second];
+        unitX[second] = swap;
+        swap = unitY[first];
+        unitY[first] = unitY[second];
+        unitY[second] = swap;
+        swap = unitZ[first];
+        unitZ[first] = unitZ[second];
+        unitZ[second] = swap;
+    }
+
+    private double unit(final int candidate, final int axis) {
+        return axis == 0 ? unitX[candidate] : axis == 1 ? unitY[candidate] : unitZ[candidate];
+    }
+}
@@ -0,0 +1,56 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns BSSIDs to dense indices, starting with 0 in order of their first appearance. An index never changes, so it
+ * can be used to address per access point state in arrays across many {@link RttResultBatch}es.
+ */
+public final class BssidIndex {
+
+    private final List<String> bssids = new ArrayList<>();
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    /**
+     * @return the index of the BSSID or -1 if it has not been interned yet.
+     */
+    public synchronized int find(@Nullable final String bssid) {
+        final Integer index = indices.get(bssid);
+        return index != null ? index : -1;
+    }
+
+    @Nullable
+    public synchronized String getBssid(final int index) {
+        return bssids.get(index);
+    }
+
+    /**
+     * @return the index of the BSSID, a new index is assigned to unknown BSSIDs.
+     */
+    public synchronized int intern(@Nullable final String bssid) {
+        final Integer index = indices.get(bssid);
+        if (index != null) {
+            return index;
+        }
+        final int newIndex = bssids.size();
+        bssids.add(bssid);
+        indices.put(bssid, newIndex);
+        return newIndex;
+    }
+
+    public synchronized int size() {
+        return bssids.size();
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return "BssidIndex" + bssids;
+    }
+}
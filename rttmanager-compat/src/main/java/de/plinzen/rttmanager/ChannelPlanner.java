@@ -0,0 +1,313 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splits the peers of a sweep into batches which stay on one channel, so the radio does not switch channels within
+ * a request. Mixing channels in one request prolongs the bursts and yields
+ * {@link RttManagerCompat#RTT_STATUS_FAIL_AP_ON_DIFF_CHANNEL}.
+ * <p>
+ * Params are grouped by {@code frequency}, {@code centerFreq0} and {@code channelWidth}. Groups larger than
+ * {@link #setMaxBatchSize(int)} are split. The planner learns the average {@code burstDuration} per peer of every
+ * group from the results passed to {@link #learn(RttManagerCompat.RttResult[])}. With it, groups are also split to
+ * keep the expected duration of a batch below {@link #setMaxBatchDuration(int)}, and the batches are ordered shortest
+ * first, so the results of the sweep arrive as early as possible. Batches of unknown duration come last.
+ */
+public class ChannelPlanner {
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 10;
+    /**
+     * Weight of a new burst duration in the moving average of its group.
+     */
+    private static final double LEARNING_RATE = 0.3;
+    private static final String TAG = ChannelPlanner.class.getSimpleName();
+    private final Map<String, Long> bssidGroups = new HashMap<>();
+    private final Map<Long, Double> burstDurations = new HashMap<>();
+    private int maxBatchDuration = Integer.MAX_VALUE;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /**
+     * @return the channel group of the params, equal for params on the same channel
+     */
+    static long groupKey(@NonNull final RttManagerCompat.RttParams params) {
+        return ((long) params.frequency << 32) | ((long) (params.centerFreq0 & 0xFFFFFF) << 8)
+                | (params.channelWidth & 0xFF);
+    }
+
+    /**
+     * @return the learned average burst duration of a peer on the channel of the params in ms, {@link Double#NaN}
+     * if nothing has been learned for the channel yet
+     */
+    public synchronized double getExpectedBurstDuration(@NonNull final RttManagerCompat.RttParams params) {
+        final Double duration = burstDurations.get(groupKey(params));
+        return duration != null ? duration : Double.NaN;
+    }
+
+    public synchronized int getMaxBatchDuration() {
+        return maxBatchDuration;
+    }
+
+    /**
+     * @param maxBatchDuration upper limit of the expected duration of a batch in ms. Default is no limit.
+     */
+    public synchronized void setMaxBatchDuration(final int maxBatchDuration) {
+        if (maxBatchDuration < 1) {
+            throw new IllegalArgumentException("maxBatchDuration must be positive.");
+        }
+        this.maxBatchDuration = maxBatchDuration;
+    }
+
+    public synchronized int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize upper limit of the peers in a batch, default is {@link #DEFAULT_MAX_BATCH_SIZE}
+     */
+    public synchronized void setMaxBatchSize(final int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive.");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Learns the burst durations of the channel groups from the successful results of a batch of the last
+     * {@link #plan(RttManagerCompat.RttParams[])}.
+     */
+    public synchronized void learn(@Nullable final RttManagerCompat.RttResult[] results) {
+        if (results == null) {
+            return;
+        }
+        for (RttManagerCompat.RttResult result : results) {
+            if (result == null) {
+                continue;
+            }
+            final Long group = bssidGroups.get(result.bssid);
+            if (group != null) {
+                learn(group, result);
+            }
+        }
+    }
+
+    /**
+     * @return the batches to range one after another, every batch contains peers of a single channel
+     */
+    @NonNull
+    public synchronized RttManagerCompat.RttParams[][] plan(@NonNull final RttManagerCompat.RttParams[] params) {
+        // only the peers of the last plan are kept, so the map does not grow with every BSSID ever seen
+        bssidGroups.clear();
+        final Map<Long, List<RttManagerCompat.RttParams>> groups = new LinkedHashMap<>();
+        for (RttManagerCompat.RttParams param : params) {
+            final long key = groupKey(param);
+            List<RttManagerCompat.RttParams> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(param);
+            bssidGroups.put(param.bssid, key);
+        }
+
+        final List<Batch> batches = new ArrayList<>();
+        for (Map.Entry<Long, List<RttManagerCompat.RttParams>> group : groups.entrySet()) {
+            final Double duration = burstDurations.get(group.getKey());
+            int batchSize = maxBatchSize;
+            if (duration != null && duration > 0) {
+                batchSize = (int) Math.max(1, Math.min(batchSize, maxBatchDuration / duration));
+            }
+            final List<RttManagerCompat.RttParams> peers = group.getValue();
+            for (int from = 0; from < peers.size(); from += batchSize) {
+                final int to = Math.min(from + batchSize, peers.size());
+                batches.add(new Batch(peers.subList(from, to), duration == null ? Double.NaN : duration * (to - from)));
+            }
+        }
+        Collections.sort(batches, new Comparator<Batch>() {
+            @Override
+            public int compare(final Batch first, final Batch second) {
+                // NaN, the unknown durations, is sorted last
+                return Double.compare(first.expectedDuration, second.expectedDuration);
+            }
+        });
+
+        final RttManagerCompat.RttParams[][] plan = new RttManagerCompat.RttParams[batches.size()][];
+        for (int i = 0; i < plan.length; i++) {
+            plan[i] = batches.get(i).params;
+        }
+        return plan;
+    }
+
+    /**
+     * Ranges all params in planned batches, one after another. The listener receives the results of every batch in
+     * a separate {@link RttManagerCompat.RttListener#onSuccess(RttManagerCompat.RttResult[])} call and the results
+     * are learned before. A failure or abort ends the sweep. Without params, the listener receives an empty result
+     * right away.
+     * <p>
+     * The sweep is done once the results of the last batch are delivered, or once it failed, was aborted or stopped.
+     * {@link Sweep#isDone()} is {@code true} already while the listener receives the results of the last batch. No
+     * lock is held while a batch is started, so a failure reported from within {@code startRanging} reaches the
+     * listener on the calling thread, possibly before this method returns.
+     *
+     * @return the running sweep, call {@link Sweep#stop()} to stop it
+     */
+    @NonNull
+    public Sweep sweep(@NonNull final RttManagerCompat rttManager, @NonNull final RttManagerCompat.RttParams[] params,
+            @NonNull final RttManagerCompat.RttListener listener) throws Throwable {
+        final Sweep sweep = new Sweep(rttManager, plan(params), listener);
+        if (!sweep.startNext() && sweep.finish()) {
+            listener.onSuccess(new RttManagerCompat.RttResult[0]);
+        }
+        return sweep;
+    }
+
+    /**
+     * Learns the burst duration of the result for the channel group, if the result is successful.
+     */
+    private synchronized void learn(final long group, @NonNull final RttManagerCompat.RttResult result) {
+        if (result.status != RttManagerCompat.RTT_STATUS_SUCCESS || result.burstDuration <= 0) {
+            return;
+        }
+        final Double duration = burstDurations.get(group);
+        burstDurations.put(group, duration == null ? result.burstDuration
+                : duration + LEARNING_RATE * (result.burstDuration - duration));
+    }
+
+    private static final class Batch {
+        private final double expectedDuration;
+        private final RttManagerCompat.RttParams[] params;
+
+        private Batch(@NonNull final List<RttManagerCompat.RttParams> params, final double expectedDuration) {
+            this.params = params.toArray(new RttManagerCompat.RttParams[params.size()]);
+            this.expectedDuration = expectedDuration;
+        }
+    }
+
+    /**
+     * A running {@link #sweep(RttManagerCompat, RttManagerCompat.RttParams[], RttManagerCompat.RttListener)}. It is
+     * the listener of the batch in flight.
+     */
+    public final class Sweep implements RttManagerCompat.RttListener {
+        private final RttManagerCompat.RttParams[][] batches;
+        private final RttManagerCompat.RttListener listener;
+        private final RttManagerCompat rttManager;
+        private boolean done;
+        private int next;
+
+        private Sweep(@NonNull final RttManagerCompat rttManager,
+                @NonNull final RttManagerCompat.RttParams[][] batches,
+                @NonNull final RttManagerCompat.RttListener listener) {
+            this.rttManager = rttManager;
+            this.batches = batches;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onAborted() {
+            if (finish()) {
+                listener.onAborted();
+            }
+        }
+
+        @Override
+        public void onFailure(final int reason, final String description) {
+            if (finish()) {
+                listener.onFailure(reason, description);
+            }
+        }
+
+        /**
+         * @return {@code true} once the results of the last batch are delivered, or the sweep failed, was aborted or
+         * stopped
+         */
+        public synchronized boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public void onSuccess(final RttManagerCompat.RttResult[] results) {
+            final long group;
+            final boolean last;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                // every batch stays on one channel, so its group is the group of any of its peers
+                group = groupKey(batches[next - 1][0]);
+                last = next >= batches.length;
+                done = last;
+            }
+            if (results != null) {
+                for (RttManagerCompat.RttResult result : results) {
+                    if (result != null) {
+                        learn(group, result);
+                    }
+                }
+            }
+            listener.onSuccess(results);
+            if (last) {
+                return;
+            }
+            try {
+                if (!startNext()) {
+                    finish();
+                }
+            } catch (Throwable e) {
+                Log.e(TAG, e.getMessage(), e);
+                if (finish()) {
+                    listener.onFailure(RttManagerCompat.REASON_UNSPECIFIED, e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Stops the sweep. The batch in flight is stopped and no further batch is started.
+         */
+        public void stop() {
+            if (finish()) {
+                rttManager.stopRanging(this);
+            }
+        }
+
+        /**
+         * @return true if the sweep was running before
+         */
+        private synchronized boolean finish() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            return true;
+        }
+
+        /**
+         * Starts the next batch. The lock is not held while starting, the platform may call back synchronously. A
+         * batch which has been started after a concurrent {@link #stop()} is stopped again.
+         *
+         * @return true if a batch has been started
+         */
+        private boolean startNext() throws Throwable {
+            final RttManagerCompat.RttParams[] batch;
+            synchronized (this) {
+                if (done || next >= batches.length) {
+                    return false;
+                }
+                batch = batches[next++];
+            }
+            rttManager.startRanging(batch, this);
+            if (isDone()) {
+                rttManager.stopRanging(this);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Ranges any number of peers with a {@link RttManagerCompat}, although the driver only accepts a limited number of
+ * peers per request.
+ * <p>
+ * Each request passed to {@link #startRanging(RttManagerCompat.RttParams[], RttManagerCompat.RttListener)} is split
+ * into chunks of at most {@code maxPeersPerRequest} peers. Only one chunk is handed to the platform at a time, the
+ * next chunk is started as soon as the previous one completed, before its results are processed. Requests of
+ * several callers are queued and served in order.
+ * <p>
+ * The results of all chunks are merged and delivered with a single {@link RttManagerCompat.RttListener#onSuccess}
+ * call. If a chunk fails, its peers are reported with {@link RttManagerCompat#RTT_STATUS_FAILURE}. Only if every
+ * chunk of a request failed, {@link RttManagerCompat.RttListener#onFailure} is called with the last failure.
+ */
+public class ChunkedRangingScheduler {
+
+    /**
+     * Number of peers per request accepted by most 802.11mc drivers.
+     */
+    public static final int DEFAULT_MAX_PEERS_PER_REQUEST = 10;
+    private static final String TAG = ChunkedRangingScheduler.class.getSimpleName();
+    private final Object lock = new Object();
+    private final int maxPeersPerRequest;
+    private final ArrayDeque<Job> pendingJobs = new ArrayDeque<>();
+    private final RttManagerCompat rttManager;
+    private Job activeJob;
+    private boolean chunkInFlight;
+    private boolean dispatching;
+
+    public ChunkedRangingScheduler(@NonNull final RttManagerCompat rttManager) {
+        this(rttManager, DEFAULT_MAX_PEERS_PER_REQUEST);
+    }
+
+    public ChunkedRangingScheduler(@NonNull final RttManagerCompat rttManager, final int maxPeersPerRequest) {
+        if (maxPeersPerRequest < 1) {
+            throw new IllegalArgumentException("maxPeersPerRequest must be positive.");
+        }
+        this.rttManager = rttManager;
+        this.maxPeersPerRequest = maxPeersPerRequest;
+    }
+
+    /**
+     * Queues a ranging request for any number of peers.
+     *
+     * @param params   -- RTT request Parameters
+     * @param listener -- Call back to inform the merged RTT result
+     * @throws IllegalArgumentException when params are null or empty or listener is null
+     */
+    public void startRanging(final RttManagerCompat.RttParams[] params, final RttManagerCompat.RttListener listener) {
+        if (params == null || params.length == 0) {
+            throw new IllegalArgumentException("params is null or empty.");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener is not allowed to be null.");
+        }
+        synchronized (lock) {
+            pendingJobs.add(new Job(params, listener));
+        }
+        dispatchNextChunk();
+    }
+
+    /**
+     * Cancels all queued and running requests of the given listener. The listener is not called anymore.
+     */
+    public void stopRanging(final RttManagerCompat.RttListener listener) {
+        if (listener == null) {
+            return;
+        }
+        Job stoppedJob = null;
+        synchronized (lock) {
+            final Iterator<Job> it = pendingJobs.iterator();
+            while (it.hasNext()) {
+                if (it.next().listener == listener) {
+                    it.remove();
+                }
+            }
+            if (activeJob != null && activeJob.listener == listener) {
+                if (chunkInFlight) {
+                    stoppedJob = activeJob;
+                }
+                activeJob = null;
+                chunkInFlight = false;
+            }
+        }
+        if (stoppedJob != null) {
+            rttManager.stopRanging(stoppedJob.chunkListener);
+        }
+        dispatchNextChunk();
+    }
+
+    private void dispatchNextChunk() {
+        synchronized (lock) {
+            // callbacks delivered during a dispatch, also synchronous failures, are picked up by the running loop
+            if (dispatching) {
+                return;
+            }
+            dispatching = true;
+        }
+        while (true) {
+            final Job job;
+            final RttManagerCompat.RttParams[] chunk;
+            synchronized (lock) {
+                if (!chunkInFlight && activeJob == null) {
+                    activeJob = pendingJobs.poll();
+                }
+                if (chunkInFlight || activeJob == null) {
+                    dispatching = false;
+                    return;
+                }
+                job = activeJob;
+                chunk = job.nextChunk();
+                chunkInFlight = true;
+            }
+            try {
+                rttManager.startRanging(chunk, job.chunkListener);
+            } catch (Throwable e) {
+                Log.e(TAG, e.getMessage(), e);
+                // reports the chunk as failed, the loop continues with the next one
+                job.chunkListener.onFailure(RttManagerCompat.REASON_UNSPECIFIED, e.getMessage());
+            }
+        }
+    }
+
+    private final class Job {
+        private final ChunkListener chunkListener = new ChunkListener(this);
+        private final RttManagerCompat.RttListener listener;
+        private final RttManagerCompat.RttParams[] params;
+        private final RttManagerCompat.RttResult[] results;
+        private int chunkStart;
+        private int chunkEnd;
+        private String failureDescription;
+        private int failureReason;
+        private int resultCount;
+        private int successfulChunks;
+
+        private Job(@NonNull final RttManagerCompat.RttParams[] params,
+                @NonNull final RttManagerCompat.RttListener listener) {
+            this.params = params;
+            this.listener = listener;
+            results = new RttManagerCompat.RttResult[params.length];
+        }
+
+        private void addFailedChunk(final int reason, final String description) {
+            failureReason = reason;
+            failureDescription = description;
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                final RttManagerCompat.RttResult result = new RttManagerCompat.RttResult();
+                result.bssid = params[i].bssid;
+                result.requestType = params[i].requestType;
+                result.status = RttManagerCompat.RTT_STATUS_FAILURE;
+                results[resultCount++] = result;
+            }
+        }
+
+        private void addResults(final RttManagerCompat.RttResult[] chunkResults) {
+            successfulChunks++;
+            if (chunkResults == null) {
+                return;
+            }
+            final int count = Math.min(chunkResults.length, results.length - resultCount);
+            System.arraycopy(chunkResults, 0, results, resultCount, count);
+            resultCount += count;
+        }
+
+        private void deliver() {
+            if (successfulChunks == 0) {
+                listener.onFailure(failureReason, failureDescription);
+            } else if (resultCount == results.length) {
+                listener.onSuccess(results);
+            } else {
+                listener.onSuccess(Arrays.copyOf(results, resultCount));
+            }
+        }
+
+        private boolean isComplete() {
+            return chunkEnd == params.length;
+        }
+
+        private RttManagerCompat.RttParams[] nextChunk() {
+            chunkStart = chunkEnd;
+            chunkEnd = Math.min(params.length, chunkStart + maxPeersPerRequest);
+            if (chunkStart == 0 && chunkEnd == params.length) {
+                return params;
+            }
+            return Arrays.copyOfRange(params, chunkStart, chunkEnd);
+        }
+    }
+
+    private final class ChunkListener implements RttManagerCompat.RttListener {
+        private final Job job;
+
+        private ChunkListener(@NonNull final Job job) {
+            this.job = job;
+        }
+
+        @Override
+        public void onAborted() {
+            synchronized (lock) {
+                if (!isActiveChunk()) {
+                    return;
+                }
+                activeJob = null;
+                chunkInFlight = false;
+            }
+            dispatchNextChunk();
+            job.listener.onAborted();
+        }
+
+        @Override
+        public void onFailure(final int reason, final String description) {
+            final boolean complete;
+            synchronized (lock) {
+                if (!isActiveChunk()) {
+                    return;
+                }
+                job.addFailedChunk(reason, description);
+                complete = finishChunk();
+            }
+            dispatchNextChunk();
+            if (complete) {
+                job.deliver();
+            }
+        }
+
+        @Override
+        public void onSuccess(final RttManagerCompat.RttResult[] results) {
+            final boolean complete;
+            synchronized (lock) {
+                if (!isActiveChunk()) {
+                    return;
+                }
+                job.addResults(results);
+                complete = finishChunk();
+            }
+            // start the next chunk before the results are processed to keep the radio busy
+            dispatchNextChunk();
+            if (complete) {
+                job.deliver();
+            }
+        }
+
+        private boolean finishChunk() {
+            chunkInFlight = false;
+            if (job.isComplete()) {
+                activeJob = null;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean isActiveChunk() {
+            return activeJob == job && chunkInFlight;
+        }
+    }
+}
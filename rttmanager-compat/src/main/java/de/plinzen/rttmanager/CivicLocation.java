@@ -0,0 +1,84 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Civic address of an access point, decoded from the location civic subelement of a LCR report (IEEE 802.11-2016
+ * 9.4.2.22.13). The subelement consists of a two letter country code followed by the civic address elements of
+ * RFC 4776 as type, length, value triples. Use {@link LocationInformationDecoder} to obtain instances.
+ * <p>
+ * The elements are not copied, every lookup reads them in place from the original payload.
+ */
+public final class CivicLocation {
+
+    public static final int CA_TYPE_BUILDING = 25;
+    public static final int CA_TYPE_CITY = 3;
+    public static final int CA_TYPE_COUNTY = 2;
+    public static final int CA_TYPE_FLOOR = 27;
+    public static final int CA_TYPE_HOUSE_NUMBER = 19;
+    public static final int CA_TYPE_LANGUAGE = 0;
+    public static final int CA_TYPE_NAME = 23;
+    public static final int CA_TYPE_POSTAL_CODE = 24;
+    public static final int CA_TYPE_ROAD = 34;
+    public static final int CA_TYPE_ROOM = 28;
+    public static final int CA_TYPE_STATE = 1;
+    public static final int CA_TYPE_STREET = 6;
+    public static final int CA_TYPE_UNIT = 26;
+    private static final int COUNTRY_CODE_LENGTH = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private final ByteBuffer buffer;
+    private final int end;
+    private final int start;
+
+    /**
+     * @param start offset of the country code in the buffer
+     * @param end   offset behind the last civic address element
+     */
+    CivicLocation(@NonNull final ByteBuffer buffer, final int start, final int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the two letter country code, e.g. "DE"
+     */
+    @NonNull
+    public String getCountryCode() {
+        return new String(buffer.array(), buffer.arrayOffset() + start, COUNTRY_CODE_LENGTH, UTF_8);
+    }
+
+    /**
+     * @param caType type of the civic address element, e.g. {@link #CA_TYPE_CITY}
+     * @return the value of the first element of the type or {@code null} if the address does not contain it
+     */
+    @Nullable
+    public String getValue(final int caType) {
+        int position = start + COUNTRY_CODE_LENGTH;
+        while (position + 2 <= end) {
+            final int type = buffer.get(position) & 0xFF;
+            final int length = buffer.get(position + 1) & 0xFF;
+            if (position + 2 + length > end) {
+                return null;
+            }
+            if (type == caType) {
+                return new String(buffer.array(), buffer.arrayOffset() + position + 2, length, UTF_8);
+            }
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    public boolean hasValue(final int caType) {
+        return getValue(caType) != null;
+    }
+
+    @Override
+    public String toString() {
+        return "CivicLocation{countryCode=" + getCountryCode() + ", city=" + getValue(CA_TYPE_CITY) + "}";
+    }
+}
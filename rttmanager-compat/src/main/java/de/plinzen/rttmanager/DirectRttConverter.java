@@ -0,0 +1,313 @@
+package de.plinzen.rttmanager;
+
+import android.net.wifi.RttManager;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Converts between the hidden {@link RttManager} types and their {@link RttManagerCompat} counterparts with plain
+ * field access. The classes are compiled against the stubs of the rttmanager-stubs module and linked against the
+ * platform implementation at runtime.
+ * <p>
+ * A vendor ROM might have changed the layout of the native classes, which results in a {@link LinkageError} on the
+ * first access of a missing field. Therefore each converter is probed once with an empty native object before it is
+ * used. If the probe fails, {@link #isAvailable(int)} returns {@code false} and the caller has to fall back to the
+ * reflection based conversion of {@link RttManagerCompatUtil}.
+ */
+final class DirectRttConverter {
+
+    static final int TYPE_CAPABILITIES = 0;
+    static final int TYPE_PARAMS = 1;
+    static final int TYPE_RESPONDER_CONFIG = 3;
+    static final int TYPE_RESULT = 2;
+    private static final int STATE_AVAILABLE = 1;
+    private static final int STATE_UNAVAILABLE = 2;
+    private static final int STATE_UNKNOWN = 0;
+    private static final String TAG = DirectRttConverter.class.getSimpleName();
+    private static final AtomicIntegerArray STATES = new AtomicIntegerArray(4);
+
+    private DirectRttConverter() {
+    }
+
+    static RttManager.RttParams[] buildNativeRttParams(@NonNull final RttManagerCompat.RttParams[] params) {
+        final RttManager.RttParams[] nativeParams = new RttManager.RttParams[params.length];
+        for (int i = 0; i < params.length; i++) {
+            final RttManager.RttParams nativeParam = new RttManager.RttParams();
+            copyRttParams(params[i], nativeParam);
+            nativeParams[i] = nativeParam;
+        }
+        return nativeParams;
+    }
+
+    static RttManagerCompat.ResponderConfig buildResponderConfig(
+            @NonNull final RttManager.ResponderConfig nativeConfig) {
+        final RttManagerCompat.ResponderConfig config = new RttManagerCompat.ResponderConfig();
+        config.centerFreq0 = nativeConfig.centerFreq0;
+        config.centerFreq1 = nativeConfig.centerFreq1;
+        config.macAddress = nativeConfig.macAddress;
+        config.frequency = nativeConfig.frequency;
+        config.channelWidth = nativeConfig.channelWidth;
+        config.preamble = nativeConfig.preamble;
+        return config;
+    }
+
+    static RttManagerCompat.RttCapabilities buildRttCapabilities(
+            @NonNull final RttManager.RttCapabilities nativeCapabilities) {
+        final RttManagerCompat.RttCapabilities capabilities = new RttManagerCompat.RttCapabilities();
+        capabilities.supportedType = nativeCapabilities.supportedType;
+        capabilities.supportedPeerType = nativeCapabilities.supportedPeerType;
+        capabilities.oneSidedRttSupported = nativeCapabilities.oneSidedRttSupported;
+        capabilities.twoSided11McRttSupported = nativeCapabilities.twoSided11McRttSupported;
+        capabilities.lciSupported = nativeCapabilities.lciSupported;
+        capabilities.lcrSupported = nativeCapabilities.lcrSupported;
+        capabilities.preambleSupported = nativeCapabilities.preambleSupported;
+        capabilities.bwSupported = nativeCapabilities.bwSupported;
+        capabilities.responderSupported = nativeCapabilities.responderSupported;
+
+        // secureRttSupported and mcVersion were introduced with Android N
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            capabilities.secureRttSupported = nativeCapabilities.secureRttSupported;
+            capabilities.mcVersion = nativeCapabilities.mcVersion;
+        }
+        return capabilities;
+    }
+
+    static RttManagerCompat.RttResult[] buildRttResults(@NonNull final RttManager.RttResult[] nativeResults,
+            @Nullable final RttResultBuffer buffer) {
+        if (buffer != null) {
+            final RttManagerCompat.RttResult[] results = buffer.obtain(nativeResults.length);
+            for (int i = 0; i < results.length; i++) {
+                // the pooled elements are kept by the buffer even if the result has no LCI or LCR
+                results[i].LCI = buffer.lci(i);
+                results[i].LCR = buffer.lcr(i);
+                copyRttResult(nativeResults[i], results[i]);
+            }
+            return results;
+        }
+        final RttManagerCompat.RttResult[] results = new RttManagerCompat.RttResult[nativeResults.length];
+        for (int i = 0; i < results.length; i++) {
+            final RttManagerCompat.RttResult result = new RttManagerCompat.RttResult();
+            copyRttResult(nativeResults[i], result);
+            results[i] = result;
+        }
+        return results;
+    }
+
+    static void copyRttParams(@NonNull final RttManagerCompat.RttParams rttParam,
+            @NonNull final RttManager.RttParams nativeParam) {
+        nativeParam.deviceType = rttParam.deviceType;
+        nativeParam.requestType = rttParam.requestType;
+        nativeParam.bssid = rttParam.bssid;
+        nativeParam.frequency = rttParam.frequency;
+        nativeParam.channelWidth = rttParam.channelWidth;
+        nativeParam.centerFreq0 = rttParam.centerFreq0;
+        nativeParam.centerFreq1 = rttParam.centerFreq1;
+        nativeParam.num_samples = rttParam.num_samples;
+        nativeParam.num_retries = rttParam.num_retries;
+        nativeParam.numberBurst = rttParam.numberBurst;
+        nativeParam.interval = rttParam.interval;
+        nativeParam.numSamplesPerBurst = rttParam.numSamplesPerBurst;
+        nativeParam.numRetriesPerMeasurementFrame = rttParam.numRetriesPerMeasurementFrame;
+        nativeParam.numRetriesPerFTMR = rttParam.numRetriesPerFTMR;
+        nativeParam.LCIRequest = rttParam.LCIRequest;
+        nativeParam.LCRRequest = rttParam.LCRRequest;
+        nativeParam.burstTimeout = rttParam.burstTimeout;
+        nativeParam.preamble = rttParam.preamble;
+        nativeParam.bandwidth = rttParam.bandwidth;
+
+        // secure was introduced with Android N
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            nativeParam.secure = rttParam.secure;
+        }
+    }
+
+    static void copyRttResult(@NonNull final RttManager.RttResult nativeResult,
+            @NonNull final RttManagerCompat.RttResult result) {
+        result.bssid = nativeResult.bssid;
+        result.burstNumber = nativeResult.burstNumber;
+        result.measurementFrameNumber = nativeResult.measurementFrameNumber;
+        result.successMeasurementFrameNumber = nativeResult.successMeasurementFrameNumber;
+        result.frameNumberPerBurstPeer = nativeResult.frameNumberPerBurstPeer;
+        result.status = nativeResult.status;
+        result.requestType = nativeResult.requestType;
+        result.measurementType = nativeResult.measurementType;
+        result.retryAfterDuration = nativeResult.retryAfterDuration;
+        result.ts = nativeResult.ts;
+        result.rssi = nativeResult.rssi;
+        result.rssiSpread = nativeResult.rssiSpread;
+        result.txRate = nativeResult.txRate;
+        result.rxRate = nativeResult.rxRate;
+        result.rtt = nativeResult.rtt;
+        result.rttStandardDeviation = nativeResult.rttStandardDeviation;
+        result.rttSpread = nativeResult.rttSpread;
+        result.distance = nativeResult.distance;
+        result.distanceStandardDeviation = nativeResult.distanceStandardDeviation;
+        result.distanceSpread = nativeResult.distanceSpread;
+        result.burstDuration = nativeResult.burstDuration;
+        result.negotiatedBurstNum = nativeResult.negotiatedBurstNum;
+        result.LCI = copyWifiInformationElement(nativeResult.LCI, result.LCI);
+        result.LCR = copyWifiInformationElement(nativeResult.LCR, result.LCR);
+
+        // secure was introduced with Android N
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            result.secure = nativeResult.secure;
+        }
+    }
+
+    static void fillRttResultBatch(@NonNull final RttManager.RttResult[] nativeResults,
+            @NonNull final RttResultBatch batch) {
+        batch.reset(nativeResults.length);
+        for (int i = 0; i < nativeResults.length; i++) {
+            final RttManager.RttResult nativeResult = nativeResults[i];
+            batch.set(i, nativeResult.bssid, nativeResult.status, nativeResult.distance,
+                    nativeResult.distanceStandardDeviation, nativeResult.rssi, nativeResult.ts, nativeResult.rtt,
+                    nativeResult.rttStandardDeviation);
+        }
+    }
+
+    static boolean isAvailable(final int type) {
+        final int state = STATES.get(type);
+        if (state != STATE_UNKNOWN) {
+            return state == STATE_AVAILABLE;
+        }
+        try {
+            probe(type);
+            STATES.compareAndSet(type, STATE_UNKNOWN, STATE_AVAILABLE);
+        } catch (LinkageError | RuntimeException e) {
+            markUnavailable(type, e);
+        }
+        return STATES.get(type) == STATE_AVAILABLE;
+    }
+
+    static void markUnavailable(final int type, @NonNull final Throwable cause) {
+        if (STATES.getAndSet(type, STATE_UNAVAILABLE) != STATE_UNAVAILABLE) {
+            Log.w(TAG, "Direct conversion of native type " + type + " is not supported, falling back to reflection: "
+                    + cause);
+        }
+    }
+
+    static String readResultBssid(@NonNull final Object nativeResult) {
+        return ((RttManager.RttResult) nativeResult).bssid;
+    }
+
+    static boolean readResultBoolean(@NonNull final Object nativeResult, final int field) {
+        if (field != LazyRttResult.FIELD_SECURE) {
+            throw new IllegalArgumentException("Unknown boolean field " + field);
+        }
+        // secure was introduced with Android N
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && ((RttManager.RttResult) nativeResult).secure;
+    }
+
+    static RttManagerCompat.WifiInformationElement readResultElement(@NonNull final Object nativeResult,
+            final int field) {
+        final RttManager.RttResult result = (RttManager.RttResult) nativeResult;
+        switch (field) {
+            case LazyRttResult.FIELD_LCI:
+                return copyWifiInformationElement(result.LCI, null);
+            case LazyRttResult.FIELD_LCR:
+                return copyWifiInformationElement(result.LCR, null);
+            default:
+                throw new IllegalArgumentException("Unknown element field " + field);
+        }
+    }
+
+    static int readResultInt(@NonNull final Object nativeResult, final int field) {
+        final RttManager.RttResult result = (RttManager.RttResult) nativeResult;
+        switch (field) {
+            case LazyRttResult.FIELD_BURST_NUMBER:
+                return result.burstNumber;
+            case LazyRttResult.FIELD_MEASUREMENT_FRAME_NUMBER:
+                return result.measurementFrameNumber;
+            case LazyRttResult.FIELD_SUCCESS_MEASUREMENT_FRAME_NUMBER:
+                return result.successMeasurementFrameNumber;
+            case LazyRttResult.FIELD_FRAME_NUMBER_PER_BURST_PEER:
+                return result.frameNumberPerBurstPeer;
+            case LazyRttResult.FIELD_STATUS:
+                return result.status;
+            case LazyRttResult.FIELD_REQUEST_TYPE:
+                return result.requestType;
+            case LazyRttResult.FIELD_MEASUREMENT_TYPE:
+                return result.measurementType;
+            case LazyRttResult.FIELD_RETRY_AFTER_DURATION:
+                return result.retryAfterDuration;
+            case LazyRttResult.FIELD_RSSI:
+                return result.rssi;
+            case LazyRttResult.FIELD_RSSI_SPREAD:
+                return result.rssiSpread;
+            case LazyRttResult.FIELD_TX_RATE:
+                return result.txRate;
+            case LazyRttResult.FIELD_RX_RATE:
+                return result.rxRate;
+            case LazyRttResult.FIELD_DISTANCE:
+                return result.distance;
+            case LazyRttResult.FIELD_DISTANCE_STANDARD_DEVIATION:
+                return result.distanceStandardDeviation;
+            case LazyRttResult.FIELD_DISTANCE_SPREAD:
+                return result.distanceSpread;
+            case LazyRttResult.FIELD_BURST_DURATION:
+                return result.burstDuration;
+            case LazyRttResult.FIELD_NEGOTIATED_BURST_NUM:
+                return result.negotiatedBurstNum;
+            default:
+                throw new IllegalArgumentException("Unknown int field " + field);
+        }
+    }
+
+    static long readResultLong(@NonNull final Object nativeResult, final int field) {
+        final RttManager.RttResult result = (RttManager.RttResult) nativeResult;
+        switch (field) {
+            case LazyRttResult.FIELD_TS:
+                return result.ts;
+            case LazyRttResult.FIELD_RTT:
+                return result.rtt;
+            case LazyRttResult.FIELD_RTT_STANDARD_DEVIATION:
+                return result.rttStandardDeviation;
+            case LazyRttResult.FIELD_RTT_SPREAD:
+                return result.rttSpread;
+            default:
+                throw new IllegalArgumentException("Unknown long field " + field);
+        }
+    }
+
+    /**
+     * @param element element of a reused result, which is overwritten instead of allocating a new one
+     */
+    private static RttManagerCompat.WifiInformationElement copyWifiInformationElement(
+            @Nullable final RttManager.WifiInformationElement nativeElement,
+            @Nullable final RttManagerCompat.WifiInformationElement element) {
+        if (nativeElement == null) {
+            return null;
+        }
+        if (element == null) {
+            return copyWifiInformationElement(nativeElement, new RttManagerCompat.WifiInformationElement());
+        }
+        element.id = nativeElement.id;
+        element.data = nativeElement.data;
+        return element;
+    }
+
+    private static void probe(final int type) {
+        switch (type) {
+            case TYPE_CAPABILITIES:
+                buildRttCapabilities(new RttManager.RttCapabilities());
+                break;
+            case TYPE_PARAMS:
+                copyRttParams(new RttManagerCompat.RttParams(), new RttManager.RttParams());
+                break;
+            case TYPE_RESPONDER_CONFIG:
+                buildResponderConfig(new RttManager.ResponderConfig());
+                break;
+            case TYPE_RESULT:
+                final RttManager.RttResult nativeResult = new RttManager.RttResult();
+                nativeResult.LCI = new RttManager.WifiInformationElement();
+                copyRttResult(nativeResult, new RttManagerCompat.RttResult());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown native type " + type);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Smooths the ranged distance of every BSSID with a one dimensional constant velocity Kalman filter. The state of a
+ * BSSID is its distance in cm and its radial velocity in cm/s, the measurement is {@code distance} with
+ * {@code distanceStandardDeviation} squared as variance, timed by {@code ts}. Only results with
+ * {@link RttManagerCompat#RTT_STATUS_SUCCESS} are applied.
+ * <p>
+ * The state of all access points is kept in primitive arrays addressed by the index of the BSSID in a
+ * {@link BssidIndex}, so updates do not allocate once the arrays have grown to the number of tracked BSSIDs. The
+ * filter is not thread safe, update and read it from the thread which delivers the results.
+ */
+public class DistanceFilter {
+
+    /**
+     * Default spectral density of the white noise acceleration in cm^2/s^3, fits a walking user.
+     */
+    public static final double DEFAULT_ACCELERATION_NOISE = 2500;
+    /**
+     * Standard deviation in cm assumed for results which do not report one.
+     */
+    private static final int DEFAULT_STANDARD_DEVIATION = 100;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final double INITIAL_VELOCITY_VARIANCE = 200 * 200;
+    private static final double MICROS_PER_SECOND = 1000000;
+    private static final int MIN_STANDARD_DEVIATION = 10;
+    private final double accelerationNoise;
+    private final BssidIndex bssidIndex;
+    private double[] distances = new double[INITIAL_CAPACITY];
+    private boolean[] initialized = new boolean[INITIAL_CAPACITY];
+    private double[] p00 = new double[INITIAL_CAPACITY];
+    private double[] p01 = new double[INITIAL_CAPACITY];
+    private double[] p11 = new double[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private double[] velocities = new double[INITIAL_CAPACITY];
+
+    public DistanceFilter() {
+        this(new BssidIndex(), DEFAULT_ACCELERATION_NOISE);
+    }
+
+    /**
+     * @param bssidIndex        index of the BSSIDs, share it with a {@link RttResultBatch} to update with batches
+     *                          without lookups
+     * @param accelerationNoise spectral density of the white noise acceleration in cm^2/s^3, higher values follow
+     *                          movements faster but smooth less
+     */
+    public DistanceFilter(@NonNull final BssidIndex bssidIndex, final double accelerationNoise) {
+        if (accelerationNoise < 0) {
+            throw new IllegalArgumentException("accelerationNoise must not be negative.");
+        }
+        this.bssidIndex = bssidIndex;
+        this.accelerationNoise = accelerationNoise;
+    }
+
+    private static double measurementVariance(final int distanceStandardDeviation) {
+        final int standardDeviation = distanceStandardDeviation <= 0 ? DEFAULT_STANDARD_DEVIATION
+                : Math.max(distanceStandardDeviation, MIN_STANDARD_DEVIATION);
+        return (double) standardDeviation * standardDeviation;
+    }
+
+    @NonNull
+    public BssidIndex getBssidIndex() {
+        return bssidIndex;
+    }
+
+    /**
+     * @return the smoothed distance in cm or {@link Double#NaN} if the BSSID is not tracked
+     */
+    public double getDistance(@NonNull final String bssid) {
+        return getDistance(bssidIndex.find(bssid));
+    }
+
+    /**
+     * @param index index of the BSSID in {@link #getBssidIndex()}
+     * @return the smoothed distance in cm or {@link Double#NaN} if the BSSID is not tracked
+     */
+    public double getDistance(final int index) {
+        return isTracked(index) ? distances[index] : Double.NaN;
+    }
+
+    /**
+     * @return the variance of the smoothed distance in cm^2 or {@link Double#NaN} if the BSSID is not tracked
+     */
+    public double getDistanceVariance(@NonNull final String bssid) {
+        final int index = bssidIndex.find(bssid);
+        return isTracked(index) ? p00[index] : Double.NaN;
+    }
+
+    /**
+     * @return the radial velocity in cm/s, positive if the distance grows, or {@link Double#NaN} if the BSSID is not
+     * tracked
+     */
+    public double getVelocity(@NonNull final String bssid) {
+        return getVelocity(bssidIndex.find(bssid));
+    }
+
+    /**
+     * @param index index of the BSSID in {@link #getBssidIndex()}
+     * @return the radial velocity in cm/s or {@link Double#NaN} if the BSSID is not tracked
+     */
+    public double getVelocity(final int index) {
+        return isTracked(index) ? velocities[index] : Double.NaN;
+    }
+
+    /**
+     * Forgets the state of the BSSID, the next result starts a new track.
+     */
+    public void reset(@NonNull final String bssid) {
+        final int index = bssidIndex.find(bssid);
+        if (isTracked(index)) {
+            initialized[index] = false;
+        }
+    }
+
+    /**
+     * Applies all successful results of a ranging request.
+     */
+    public void update(@Nullable final RttManagerCompat.RttResult[] results) {
+        if (results == null) {
+            return;
+        }
+        for (RttManagerCompat.RttResult result : results) {
+            update(result);
+        }
+    }
+
+    /**
+     * @return {@code true} if the result has been applied, {@code false} if it has not been successful
+     */
+    public boolean update(@NonNull final RttManagerCompat.RttResult result) {
+        if (result.status != RttManagerCompat.RTT_STATUS_SUCCESS) {
+            return false;
+        }
+        update(bssidIndex.intern(result.bssid), result.ts, result.distance, result.distanceStandardDeviation);
+        return true;
+    }
+
+    /**
+     * Applies all successful results of a batch. The BSSID indices of the batch are used directly if it shares the
+     * {@link BssidIndex} of the filter.
+     */
+    public void update(@NonNull final RttResultBatch batch) {
+        final boolean sharedIndex = batch.getBssidIndex() == bssidIndex;
+        final int[] bssids = batch.getBssids();
+        final int[] statuses = batch.getStatuses();
+        final long[] batchTimestamps = batch.getTimestamps();
+        final int[] batchDistances = batch.getDistances();
+        final int[] standardDeviations = batch.getDistanceStandardDeviations();
+        for (int i = 0; i < batch.size(); i++) {
+            if (statuses[i] == RttManagerCompat.RTT_STATUS_SUCCESS) {
+                final int index = sharedIndex ? bssids[i]
+                        : bssidIndex.intern(batch.getBssidIndex().getBssid(bssids[i]));
+                update(index, batchTimestamps[i], batchDistances[i], standardDeviations[i]);
+            }
+        }
+    }
+
+    /**
+     * Applies a single measurement.
+     *
+     * @param index                     index of the BSSID in {@link #getBssidIndex()}
+     * @param ts                        time of the measurement in microseconds
+     * @param distance                  measured distance in cm
+     * @param distanceStandardDeviation standard deviation of the measurement in cm, 0 if unknown
+     */
+    public void update(final int index, final long ts, final int distance, final int distanceStandardDeviation) {
+        ensureCapacity(index);
+        final double variance = measurementVariance(distanceStandardDeviation);
+        if (!initialized[index]) {
+            distances[index] = distance;
+            velocities[index] = 0;
+            p00[index] = variance;
+            p01[index] = 0;
+            p11[index] = INITIAL_VELOCITY_VARIANCE;
+            timestamps[index] = ts;
+            initialized[index] = true;
+            return;
+        }
+
+        // predict, results delivered out of order are applied without moving the state
+        final double dt = Math.max(0, ts - timestamps[index]) / MICROS_PER_SECOND;
+        double covariance00 = p00[index];
+        double covariance01 = p01[index];
+        double covariance11 = p11[index];
+        if (dt > 0) {
+            final double dt2 = dt * dt;
+            distances[index] += velocities[index] * dt;
+            covariance00 += dt * (2 * covariance01 + dt * covariance11) + accelerationNoise * dt2 * dt / 3;
+            covariance01 += dt * covariance11 + accelerationNoise * dt2 / 2;
+            covariance11 += accelerationNoise * dt;
+            timestamps[index] = ts;
+        }
+
+        // correct
+        final double innovationVariance = covariance00 + variance;
+        final double gain0 = covariance00 / innovationVariance;
+        final double gain1 = covariance01 / innovationVariance;
+        final double innovation = distance - distances[index];
+        distances[index] += gain0 * innovation;
+        velocities[index] += gain1 * innovation;
+        p00[index] = (1 - gain0) * covariance00;
+        p01[index] = (1 - gain0) * covariance01;
+        p11[index] = covariance11 - gain1 * covariance01;
+    }
+
+    private void ensureCapacity(final int index) {
+        if (index < distances.length) {
+            return;
+        }
+        int capacity = distances.length;
+        while (capacity <= index) {
+            capacity *= 2;
+        }
+        distances = Arrays.copyOf(distances, capacity);
+        initialized = Arrays.copyOf(initialized, capacity);
+        p00 = Arrays.copyOf(p00, capacity);
+        p01 = Arrays.copyOf(p01, capacity);
+        p11 = Arrays.copyOf(p11, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        velocities = Arrays.copyOf(velocities, capacity);
+    }
+
+    private boolean isTracked(final int index) {
+        return index >= 0 && index < initialized.length && initialized[index];
+    }
+}
@@ -0,0 +1,13 @@
+package de.plinzen.rttmanager;
+
+/**
+ * Listener of a ranging request which receives the results as {@link LazyRttResult} views, see
+ * {@link RttManagerCompat#startRangingLazy(RttManagerCompat.RttParams[], LazyRttListener)}.
+ */
+public interface LazyRttListener {
+    void onAborted();
+
+    void onFailure(int reason, String description);
+
+    void onSuccess(LazyRttResult[] results);
+}
@@ -0,0 +1,52 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Adapts a {@link LazyRttListener} to the {@link RttManagerCompat.RttListener} expected by the backends. The native
+ * listeners hand the native results to the adapter, which wraps them in {@link LazyRttResult} views. Results of
+ * other backends are wrapped after they have been converted.
+ */
+final class LazyRttListenerAdapter implements RttManagerCompat.RttListener, NativeResultsConsumer {
+
+    private final LazyRttListener lazyListener;
+    private final NativeCallbackRegistry<LazyRttListener, LazyRttListenerAdapter> registry;
+
+    LazyRttListenerAdapter(@NonNull final LazyRttListener lazyListener,
+            @NonNull final NativeCallbackRegistry<LazyRttListener, LazyRttListenerAdapter> registry) {
+        this.lazyListener = lazyListener;
+        this.registry = registry;
+    }
+
+    @Override
+    public void onAborted() {
+        registry.unregister(lazyListener, this);
+        lazyListener.onAborted();
+    }
+
+    @Override
+    public void onFailure(final int reason, final String description) {
+        registry.unregister(lazyListener, this);
+        lazyListener.onFailure(reason, description);
+    }
+
+    @Override
+    public void onNativeSuccess(@Nullable final Object nativeResults) {
+        registry.unregister(lazyListener, this);
+        lazyListener.onSuccess(RttManagerCompatUtil.buildLazyRttResults(nativeResults));
+    }
+
+    @Override
+    public void onSuccess(final RttManagerCompat.RttResult[] results) {
+        registry.unregister(lazyListener, this);
+        LazyRttResult[] lazyResults = null;
+        if (results != null) {
+            lazyResults = new LazyRttResult[results.length];
+            for (int i = 0; i < results.length; i++) {
+                lazyResults[i] = new LazyRttResult(results[i]);
+            }
+        }
+        lazyListener.onSuccess(lazyResults);
+    }
+}
@@ -0,0 +1,401 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Read-only view of a ranging result which wraps the native result object and converts a field only when it is read
+ * for the first time. Every later read returns the memoized value. The cost of a callback therefore scales with the
+ * fields which are actually used instead of the size of the native schema.
+ * <p>
+ * The getters correspond to the fields of {@link RttManagerCompat.RttResult}, {@link #toRttResult()} converts all
+ * of them at once. A view is not thread safe, convert it before handing it to another thread.
+ */
+public final class LazyRttResult {
+
+    static final int FIELD_BSSID = 0;
+    static final int FIELD_BURST_NUMBER = 1;
+    static final int FIELD_MEASUREMENT_FRAME_NUMBER = 2;
+    static final int FIELD_SUCCESS_MEASUREMENT_FRAME_NUMBER = 3;
+    static final int FIELD_FRAME_NUMBER_PER_BURST_PEER = 4;
+    static final int FIELD_STATUS = 5;
+    static final int FIELD_REQUEST_TYPE = 6;
+    static final int FIELD_MEASUREMENT_TYPE = 7;
+    static final int FIELD_RETRY_AFTER_DURATION = 8;
+    static final int FIELD_TS = 9;
+    static final int FIELD_RSSI = 10;
+    static final int FIELD_RSSI_SPREAD = 11;
+    static final int FIELD_TX_RATE = 12;
+    static final int FIELD_RX_RATE = 13;
+    static final int FIELD_RTT = 14;
+    static final int FIELD_RTT_STANDARD_DEVIATION = 15;
+    static final int FIELD_RTT_SPREAD = 16;
+    static final int FIELD_DISTANCE = 17;
+    static final int FIELD_DISTANCE_STANDARD_DEVIATION = 18;
+    static final int FIELD_DISTANCE_SPREAD = 19;
+    static final int FIELD_BURST_DURATION = 20;
+    static final int FIELD_NEGOTIATED_BURST_NUM = 21;
+    static final int FIELD_SECURE = 22;
+    static final int FIELD_LCI = 23;
+    static final int FIELD_LCR = 24;
+    static final String[] FIELD_NAMES = {
+            "bssid", "burstNumber", "measurementFrameNumber", "successMeasurementFrameNumber",
+            "frameNumberPerBurstPeer", "status", "requestType", "measurementType", "retryAfterDuration", "ts", "rssi",
+            "rssiSpread", "txRate", "rxRate", "rtt", "rttStandardDeviation", "rttSpread", "distance",
+            "distanceStandardDeviation", "distanceSpread", "burstDuration", "negotiatedBurstNum", "secure", "LCI",
+            "LCR"};
+    private static final int ALL_FIELDS = (1 << FIELD_NAMES.length) - 1;
+    private final Object nativeResult;
+    private RttManagerCompat.WifiInformationElement LCI;
+    private RttManagerCompat.WifiInformationElement LCR;
+    private String bssid;
+    private int burstDuration;
+    private int burstNumber;
+    private int distance;
+    private int distanceSpread;
+    private int distanceStandardDeviation;
+    private int frameNumberPerBurstPeer;
+    private int measurementFrameNumber;
+    private int measurementType;
+    private int negotiatedBurstNum;
+    private int requestType;
+    private int retryAfterDuration;
+    private int rssi;
+    private int rssiSpread;
+    private long rtt;
+    private long rttSpread;
+    private long rttStandardDeviation;
+    private int rxRate;
+    private boolean secure;
+    private int status;
+    private int successMeasurementFrameNumber;
+    private long ts;
+    private int txRate;
+    private int loaded;
+    private NativeFieldTable table;
+
+    /**
+     * @param direct whether the native result can be read with {@link DirectRttConverter}
+     */
+    LazyRttResult(@NonNull final Object nativeResult, final boolean direct) {
+        this.nativeResult = nativeResult;
+        if (!direct) {
+            table = NativeFieldTable.forClass(nativeResult.getClass());
+        }
+    }
+
+    /**
+     * Creates a view of an already converted result, e.g. of a backend which does not deliver native results.
+     */
+    LazyRttResult(@NonNull final RttManagerCompat.RttResult result) {
+        nativeResult = null;
+        loaded = ALL_FIELDS;
+        bssid = result.bssid;
+        burstNumber = result.burstNumber;
+        measurementFrameNumber = result.measurementFrameNumber;
+        successMeasurementFrameNumber = result.successMeasurementFrameNumber;
+        frameNumberPerBurstPeer = result.frameNumberPerBurstPeer;
+        status = result.status;
+        requestType = result.requestType;
+        measurementType = result.measurementType;
+        retryAfterDuration = result.retryAfterDuration;
+        ts = result.ts;
+        rssi = result.rssi;
+        rssiSpread = result.rssiSpread;
+        txRate = result.txRate;
+        rxRate = result.rxRate;
+        rtt = result.rtt;
+        rttStandardDeviation = result.rttStandardDeviation;
+        rttSpread = result.rttSpread;
+        distance = result.distance;
+        distanceStandardDeviation = result.distanceStandardDeviation;
+        distanceSpread = result.distanceSpread;
+        burstDuration = result.burstDuration;
+        negotiatedBurstNum = result.negotiatedBurstNum;
+        secure = result.secure;
+        LCI = result.LCI;
+        LCR = result.LCR;
+    }
+
+    @Nullable
+    public String getBssid() {
+        if (!isLoaded(FIELD_BSSID)) {
+            bssid = readBssid(FIELD_BSSID);
+        }
+        return bssid;
+    }
+
+    public int getBurstDuration() {
+        if (!isLoaded(FIELD_BURST_DURATION)) {
+            burstDuration = readInt(FIELD_BURST_DURATION);
+        }
+        return burstDuration;
+    }
+
+    public int getBurstNumber() {
+        if (!isLoaded(FIELD_BURST_NUMBER)) {
+            burstNumber = readInt(FIELD_BURST_NUMBER);
+        }
+        return burstNumber;
+    }
+
+    public int getDistance() {
+        if (!isLoaded(FIELD_DISTANCE)) {
+            distance = readInt(FIELD_DISTANCE);
+        }
+        return distance;
+    }
+
+    public int getDistanceSpread() {
+        if (!isLoaded(FIELD_DISTANCE_SPREAD)) {
+            distanceSpread = readInt(FIELD_DISTANCE_SPREAD);
+        }
+        return distanceSpread;
+    }
+
+    public int getDistanceStandardDeviation() {
+        if (!isLoaded(FIELD_DISTANCE_STANDARD_DEVIATION)) {
+            distanceStandardDeviation = readInt(FIELD_DISTANCE_STANDARD_DEVIATION);
+        }
+        return distanceStandardDeviation;
+    }
+
+    public int getFrameNumberPerBurstPeer() {
+        if (!isLoaded(FIELD_FRAME_NUMBER_PER_BURST_PEER)) {
+            frameNumberPerBurstPeer = readInt(FIELD_FRAME_NUMBER_PER_BURST_PEER);
+        }
+        return frameNumberPerBurstPeer;
+    }
+
+    @Nullable
+    public RttManagerCompat.WifiInformationElement getLCI() {
+        if (!isLoaded(FIELD_LCI)) {
+            LCI = readElement(FIELD_LCI);
+        }
+        return LCI;
+    }
+
+    @Nullable
+    public RttManagerCompat.WifiInformationElement getLCR() {
+        if (!isLoaded(FIELD_LCR)) {
+            LCR = readElement(FIELD_LCR);
+        }
+        return LCR;
+    }
+
+    public int getMeasurementFrameNumber() {
+        if (!isLoaded(FIELD_MEASUREMENT_FRAME_NUMBER)) {
+            measurementFrameNumber = readInt(FIELD_MEASUREMENT_FRAME_NUMBER);
+        }
+        return measurementFrameNumber;
+    }
+
+    public int getMeasurementType() {
+        if (!isLoaded(FIELD_MEASUREMENT_TYPE)) {
+            measurementType = readInt(FIELD_MEASUREMENT_TYPE);
+        }
+        return measurementType;
+    }
+
+    public int getNegotiatedBurstNum() {
+        if (!isLoaded(FIELD_NEGOTIATED_BURST_NUM)) {
+            negotiatedBurstNum = readInt(FIELD_NEGOTIATED_BURST_NUM);
+        }
+        return negotiatedBurstNum;
+    }
+
+    public int getRequestType() {
+        if (!isLoaded(FIELD_REQUEST_TYPE)) {
+            requestType = readInt(FIELD_REQUEST_TYPE);
+        }
+        return requestType;
+    }
+
+    public int getRetryAfterDuration() {
+        if (!isLoaded(FIELD_RETRY_AFTER_DURATION)) {
+            retryAfterDuration = readInt(FIELD_RETRY_AFTER_DURATION);
+        }
+        return retryAfterDuration;
+    }
+
+    public int getRssi() {
+        if (!isLoaded(FIELD_RSSI)) {
+            rssi = readInt(FIELD_RSSI);
+        }
+        return rssi;
+    }
+
+    public int getRssiSpread() {
+        if (!isLoaded(FIELD_RSSI_SPREAD)) {
+            rssiSpread = readInt(FIELD_RSSI_SPREAD);
+        }
+        return rssiSpread;
+    }
+
+    public long getRtt() {
+        if (!isLoaded(FIELD_RTT)) {
+            rtt = readLong(FIELD_RTT);
+        }
+        return rtt;
+    }
+
+    public long getRttSpread() {
+        if (!isLoaded(FIELD_RTT_SPREAD)) {
+            rttSpread = readLong(FIELD_RTT_SPREAD);
+        }
+        return rttSpread;
+    }
+
+    public long getRttStandardDeviation() {
+        if (!isLoaded(FIELD_RTT_STANDARD_DEVIATION)) {
+            rttStandardDeviation = readLong(FIELD_RTT_STANDARD_DEVIATION);
+        }
+        return rttStandardDeviation;
+    }
+
+    public int getRxRate() {
+        if (!isLoaded(FIELD_RX_RATE)) {
+            rxRate = readInt(FIELD_RX_RATE);
+        }
+        return rxRate;
+    }
+
+    public int getStatus() {
+        if (!isLoaded(FIELD_STATUS)) {
+            status = readInt(FIELD_STATUS);
+        }
+        return status;
+    }
+
+    public int getSuccessMeasurementFrameNumber() {
+        if (!isLoaded(FIELD_SUCCESS_MEASUREMENT_FRAME_NUMBER)) {
+            successMeasurementFrameNumber = readInt(FIELD_SUCCESS_MEASUREMENT_FRAME_NUMBER);
+        }
+        return successMeasurementFrameNumber;
+    }
+
+    public long getTs() {
+        if (!isLoaded(FIELD_TS)) {
+            ts = readLong(FIELD_TS);
+        }
+        return ts;
+    }
+
+    public int getTxRate() {
+        if (!isLoaded(FIELD_TX_RATE)) {
+            txRate = readInt(FIELD_TX_RATE);
+        }
+        return txRate;
+    }
+
+    public boolean isSecure() {
+        if (!isLoaded(FIELD_SECURE)) {
+            secure = readBoolean(FIELD_SECURE);
+        }
+        return secure;
+    }
+
+    /**
+     * @return a {@link RttManagerCompat.RttResult} with all fields converted
+     */
+    @NonNull
+    public RttManagerCompat.RttResult toRttResult() {
+        final RttManagerCompat.RttResult result = new RttManagerCompat.RttResult();
+        result.bssid = getBssid();
+        result.burstNumber = getBurstNumber();
+        result.measurementFrameNumber = getMeasurementFrameNumber();
+        result.successMeasurementFrameNumber = getSuccessMeasurementFrameNumber();
+        result.frameNumberPerBurstPeer = getFrameNumberPerBurstPeer();
+        result.status = getStatus();
+        result.requestType = getRequestType();
+        result.measurementType = getMeasurementType();
+        result.retryAfterDuration = getRetryAfterDuration();
+        result.ts = getTs();
+        result.rssi = getRssi();
+        result.rssiSpread = getRssiSpread();
+        result.txRate = getTxRate();
+        result.rxRate = getRxRate();
+        result.rtt = getRtt();
+        result.rttStandardDeviation = getRttStandardDeviation();
+        result.rttSpread = getRttSpread();
+        result.distance = getDistance();
+        result.distanceStandardDeviation = getDistanceStandardDeviation();
+        result.distanceSpread = getDistanceSpread();
+        result.burstDuration = getBurstDuration();
+        result.negotiatedBurstNum = getNegotiatedBurstNum();
+        result.secure = isSecure();
+        result.LCI = getLCI();
+        result.LCR = getLCR();
+        return result;
+    }
+
+    private boolean isLoaded(final int field) {
+        final int bit = 1 << field;
+        if ((loaded & bit) != 0) {
+            return true;
+        }
+        loaded |= bit;
+        return false;
+    }
+
+    private String readBssid(final int field) {
+        if (table == null) {
+            try {
+                return DirectRttConverter.readResultBssid(nativeResult);
+            } catch (LinkageError e) {
+                fallBackToReflection(e);
+            }
+        }
+        return RttManagerCompatUtil.readObject(table, nativeResult, FIELD_NAMES[field]);
+    }
+
+    private boolean readBoolean(final int field) {
+        if (table == null) {
+            try {
+                return DirectRttConverter.readResultBoolean(nativeResult, field);
+            } catch (LinkageError e) {
+                fallBackToReflection(e);
+            }
+        }
+        return RttManagerCompatUtil.readBoolean(table, nativeResult, FIELD_NAMES[field]);
+    }
+
+    private RttManagerCompat.WifiInformationElement readElement(final int field) {
+        if (table == null) {
+            try {
+                return DirectRttConverter.readResultElement(nativeResult, field);
+            } catch (LinkageError e) {
+                fallBackToReflection(e);
+            }
+        }
+        return RttManagerCompatUtil.copyWifiInformationElementFromNativeObject(
+                RttManagerCompatUtil.readObject(table, nativeResult, FIELD_NAMES[field]), null);
+    }
+
+    private int readInt(final int field) {
+        if (table == null) {
+            try {
+                return DirectRttConverter.readResultInt(nativeResult, field);
+            } catch (LinkageError e) {
+                fallBackToReflection(e);
+            }
+        }
+        return RttManagerCompatUtil.readInt(table, nativeResult, FIELD_NAMES[field]);
+    }
+
+    private long readLong(final int field) {
+        if (table == null) {
+            try {
+                return DirectRttConverter.readResultLong(nativeResult, field);
+            } catch (LinkageError e) {
+                fallBackToReflection(e);
+            }
+        }
+        return RttManagerCompatUtil.readLong(table, nativeResult, FIELD_NAMES[field]);
+    }
+
+    private void fallBackToReflection(@NonNull final LinkageError cause) {
+        DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_RESULT, cause);
+        table = NativeFieldTable.forClass(nativeResult.getClass());
+    }
+}
@@ -0,0 +1,78 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Dense linear algebra for the small symmetric systems of the positioning code. Matrices are row major
+ * {@code double[]} of size {@code n * n}, all results are written into arrays of the caller.
+ */
+final class LinearAlgebra {
+
+    private LinearAlgebra() {
+    }
+
+    /**
+     * Replaces the lower triangle of the symmetric positive definite matrix {@code a} with its Cholesky factor.
+     *
+     * @return {@code false} if the matrix is not positive definite
+     */
+    static boolean cholesky(@NonNull final double[] a, final int n) {
+        for (int j = 0; j < n; j++) {
+            double diagonal = a[j * n + j];
+            for (int k = 0; k < j; k++) {
+                diagonal -= a[j * n + k] * a[j * n + k];
+            }
+            if (diagonal <= 0 || Double.isNaN(diagonal)) {
+                return false;
+            }
+            final double root = Math.sqrt(diagonal);
+            a[j * n + j] = root;
+            for (int i = j + 1; i < n; i++) {
+                double value = a[i * n + j];
+                for (int k = 0; k < j; k++) {
+                    value -= a[i * n + k] * a[j * n + k];
+                }
+                a[i * n + j] = value / root;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solves {@code L L^T x = b} with the factor computed by {@link #cholesky(double[], int)}. {@code b} and
+     * {@code x} may be the same array.
+     */
+    static void choleskySolve(@NonNull final double[] factor, final int n, @NonNull final double[] b,
+            @NonNull final double[] x) {
+        for (int i = 0; i < n; i++) {
+            double value = b[i];
+            for (int k = 0; k < i; k++) {
+                value -= factor[i * n + k] * x[k];
+            }
+            x[i] = value / factor[i * n + i];
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            double value = x[i];
+            for (int k = i + 1; k < n; k++) {
+                value -= factor[k * n + i] * x[k];
+            }
+            x[i] = value / factor[i * n + i];
+        }
+    }
+
+    /**
+     * @param scratch array of at least {@code n} elements
+     * @return the trace of the inverse of the matrix with the given Cholesky factor
+     */
+    static double inverseTrace(@NonNull final double[] factor, final int n, @NonNull final double[] scratch) {
+        double trace = 0;
+        for (int column = 0; column < n; column++) {
+            for (int i = 0; i < n; i++) {
+                scratch[i] = i == column ? 1 : 0;
+            }
+            choleskySolve(factor, n, scratch, scratch);
+            trace += scratch[column];
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,126 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Geospatial location of an access point, decoded from the 16 octet LCI subelement of a LCI report (IEEE 802.11-2016
+ * 9.4.2.22.10, bit layout of RFC 6225). Use {@link LocationInformationDecoder} to obtain instances.
+ */
+public final class LocationConfigurationInformation {
+
+    public static final int ALTITUDE_TYPE_FLOORS = 2;
+    public static final int ALTITUDE_TYPE_METERS = 1;
+    public static final int ALTITUDE_TYPE_UNKNOWN = 0;
+    public static final int DATUM_NAD83_MLLW = 3;
+    public static final int DATUM_NAD83_NAVD88 = 2;
+    public static final int DATUM_WGS84 = 1;
+    static final int LENGTH = 16;
+    private static final int ALTITUDE_FRACTION_BITS = 8;
+    private static final int ANGLE_FRACTION_BITS = 25;
+    private final double altitude;
+    private final int altitudeType;
+    private final int altitudeUncertainty;
+    private final int datum;
+    private final double latitude;
+    private final int latitudeUncertainty;
+    private final double longitude;
+    private final int longitudeUncertainty;
+
+    /**
+     * Reads the fields in place from the LCI subelement body at {@code offset}.
+     */
+    LocationConfigurationInformation(@NonNull final ByteBuffer buffer, final int offset) {
+        final ByteBuffer littleEndian = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final long low = littleEndian.getLong(offset);
+        final long high = littleEndian.getLong(offset + 8);
+        latitudeUncertainty = (int) bits(low, high, 0, 6);
+        latitude = signed(bits(low, high, 6, 34), 34) / (double) (1L << ANGLE_FRACTION_BITS);
+        longitudeUncertainty = (int) bits(low, high, 40, 6);
+        longitude = signed(bits(low, high, 46, 34), 34) / (double) (1L << ANGLE_FRACTION_BITS);
+        altitudeType = (int) bits(low, high, 80, 4);
+        altitudeUncertainty = (int) bits(low, high, 84, 6);
+        altitude = signed(bits(low, high, 90, 30), 30) / (double) (1L << ALTITUDE_FRACTION_BITS);
+        datum = (int) bits(low, high, 120, 3);
+    }
+
+    private static long bits(final long low, final long high, final int start, final int length) {
+        final long value;
+        if (start >= 64) {
+            value = high >>> (start - 64);
+        } else if (start + length <= 64) {
+            value = low >>> start;
+        } else {
+            value = (low >>> start) | (high << (64 - start));
+        }
+        return value & ((1L << length) - 1);
+    }
+
+    private static long signed(final long value, final int length) {
+        return (value << (64 - length)) >> (64 - length);
+    }
+
+    /**
+     * @return the altitude in meters or floors, see {@link #getAltitudeType()}
+     */
+    public double getAltitude() {
+        return altitude;
+    }
+
+    /**
+     * @return one of the {@code ALTITUDE_TYPE_*} constants
+     */
+    public int getAltitudeType() {
+        return altitudeType;
+    }
+
+    /**
+     * @return the uncertainty of the altitude in meters or {@link Double#NaN} if it is unknown
+     */
+    public double getAltitudeUncertainty() {
+        return altitudeUncertainty == 0 ? Double.NaN : Math.pow(2, 21 - altitudeUncertainty);
+    }
+
+    /**
+     * @return one of the {@code DATUM_*} constants
+     */
+    public int getDatum() {
+        return datum;
+    }
+
+    /**
+     * @return the latitude in degrees
+     */
+    public double getLatitude() {
+        return latitude;
+    }
+
+    /**
+     * @return the uncertainty of the latitude in degrees or {@link Double#NaN} if it is unknown
+     */
+    public double getLatitudeUncertainty() {
+        return latitudeUncertainty == 0 ? Double.NaN : Math.pow(2, 8 - latitudeUncertainty);
+    }
+
+    /**
+     * @return the longitude in degrees
+     */
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return the uncertainty of the longitude in degrees or {@link Double#NaN} if it is unknown
+     */
+    public double getLongitudeUncertainty() {
+        return longitudeUncertainty == 0 ? Double.NaN : Math.pow(2, 8 - longitudeUncertainty);
+    }
+
+    @Override
+    public String toString() {
+        return "LocationConfigurationInformation{latitude=" + latitude + ", longitude=" + longitude + ", altitude="
+                + altitude + ", altitudeType=" + altitudeType + ", datum=" + datum + "}";
+    }
+}
@@ -0,0 +1,247 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decodes the LCI and LCR information elements of {@link RttManagerCompat.RttResult}s. The payload is read in place
+ * through a {@link ByteBuffer} view of {@link RttManagerCompat.WifiInformationElement#data}, without intermediate
+ * copies.
+ * <p>
+ * The decoded elements are cached per access point, for the most recently decoded {@code capacity} access points. As
+ * long as an access point reports the same payload, the cached element is returned without parsing it again. The
+ * cache keeps a copy of the payload, so callers may reuse their arrays.
+ * <p>
+ * An element with the id of a Measurement Report element starts with the header of the report (token, mode and
+ * type), any other element directly with the subelements.
+ */
+public class LocationInformationDecoder {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    /**
+     * Information Element ID of an invalid element, see {@link RttManagerCompat.WifiInformationElement#id}.
+     */
+    private static final byte ELEMENT_ID_INVALID = (byte) 0xFF;
+    /**
+     * Information Element ID of a Measurement Report element, IEEE 802.11-2016 9.4.2.22.
+     */
+    private static final byte ELEMENT_ID_MEASUREMENT_REPORT = 39;
+    private static final int MEASUREMENT_TYPE_LCI = 8;
+    private static final int MEASUREMENT_TYPE_LOCATION_CIVIC = 11;
+    private static final int REPORT_HEADER_LENGTH = 3;
+    private static final int SUBELEMENT_ID_LCI = 0;
+    private static final int SUBELEMENT_ID_LOCATION_CIVIC = 0;
+    private final Map<String, CacheEntry> cache;
+
+    public LocationInformationDecoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of access points whose decoded elements are cached
+     */
+    public LocationInformationDecoder(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive.");
+        }
+        cache = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Decodes a LCI element without caching.
+     *
+     * @return the location or {@code null} if the element is missing, invalid or does not contain a LCI subelement
+     */
+    @Nullable
+    public static LocationConfigurationInformation parseLci(
+            @Nullable final RttManagerCompat.WifiInformationElement element) {
+        return isValid(element) ? parseLci(element.data, hasReportHeader(element)) : null;
+    }
+
+    /**
+     * Decodes a LCI payload without caching.
+     *
+     * @param reportHeader {@code true} if the payload starts with the header of a measurement report
+     * @return the location or {@code null} if the payload does not contain a LCI subelement
+     */
+    @Nullable
+    public static LocationConfigurationInformation parseLci(@Nullable final byte[] data, final boolean reportHeader) {
+        if (data == null) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        int position = skipReportHeader(buffer, reportHeader, MEASUREMENT_TYPE_LCI);
+        if (position < 0) {
+            return null;
+        }
+        while (position + 2 <= buffer.limit()) {
+            final int id = buffer.get(position) & 0xFF;
+            final int length = buffer.get(position + 1) & 0xFF;
+            if (position + 2 + length > buffer.limit()) {
+                return null;
+            }
+            if (id == SUBELEMENT_ID_LCI && length >= LocationConfigurationInformation.LENGTH) {
+                return new LocationConfigurationInformation(buffer, position + 2);
+            }
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    /**
+     * Decodes a LCR element without caching.
+     *
+     * @return the civic address or {@code null} if the element is missing, invalid or does not contain a location
+     * civic subelement
+     */
+    @Nullable
+    public static CivicLocation parseLcr(@Nullable final RttManagerCompat.WifiInformationElement element) {
+        return isValid(element) ? parseLcr(element.data, hasReportHeader(element)) : null;
+    }
+
+    /**
+     * Decodes a LCR payload without caching. The civic address reads the payload in place, it must not be modified
+     * while the address is in use.
+     *
+     * @param reportHeader {@code true} if the payload starts with the header of a measurement report
+     * @return the civic address or {@code null} if the payload does not contain a location civic subelement
+     */
+    @Nullable
+    public static CivicLocation parseLcr(@Nullable final byte[] data, final boolean reportHeader) {
+        if (data == null) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        int position = skipReportHeader(buffer, reportHeader, MEASUREMENT_TYPE_LOCATION_CIVIC);
+        // civic location type, only the IETF RFC 4776 format (0) is supported
+        if (position < 0 || position >= buffer.limit() || buffer.get(position) != 0) {
+            return null;
+        }
+        position++;
+        while (position + 2 <= buffer.limit()) {
+            final int id = buffer.get(position) & 0xFF;
+            final int length = buffer.get(position + 1) & 0xFF;
+            if (position + 2 + length > buffer.limit()) {
+                return null;
+            }
+            if (id == SUBELEMENT_ID_LOCATION_CIVIC && length >= 2) {
+                return new CivicLocation(buffer, position + 2, position + 2 + length);
+            }
+            position += 2 + length;
+        }
+        return null;
+    }
+
+    private static boolean hasReportHeader(@NonNull final RttManagerCompat.WifiInformationElement element) {
+        return element.id == ELEMENT_ID_MEASUREMENT_REPORT;
+    }
+
+    /**
+     * @return the position of the first subelement or -1 if the report is of another measurement type
+     */
+    private static int skipReportHeader(@NonNull final ByteBuffer buffer, final boolean reportHeader,
+            final int measurementType) {
+        if (!reportHeader) {
+            return 0;
+        }
+        return buffer.limit() >= REPORT_HEADER_LENGTH && buffer.get(REPORT_HEADER_LENGTH - 1) == measurementType
+                ? REPORT_HEADER_LENGTH : -1;
+    }
+
+    private static boolean isValid(@Nullable final RttManagerCompat.WifiInformationElement element) {
+        return element != null && element.id != ELEMENT_ID_INVALID && element.data != null;
+    }
+
+    /**
+     * Drops all cached elements.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Decodes the LCI element of the access point, or returns the cached location if the payload is unchanged.
+     *
+     * @return the location or {@code null} if the element is missing, invalid or can not be decoded
+     */
+    @Nullable
+    public synchronized LocationConfigurationInformation decodeLci(@NonNull final String bssid,
+            @Nullable final RttManagerCompat.WifiInformationElement element) {
+        if (!isValid(element)) {
+            return null;
+        }
+        final CacheEntry entry = getEntry(bssid);
+        if (entry.lciId != element.id || !Arrays.equals(entry.lciData, element.data)) {
+            entry.lciId = element.id;
+            entry.lciData = element.data.clone();
+            // the cached element may keep a view of the payload, so it is parsed from the owned copy
+            entry.lci = parseLci(entry.lciData, hasReportHeader(element));
+        }
+        return entry.lci;
+    }
+
+    /**
+     * Decodes the LCI element of the result, see {@link #decodeLci(String, RttManagerCompat.WifiInformationElement)}.
+     */
+    @Nullable
+    public LocationConfigurationInformation decodeLci(@NonNull final RttManagerCompat.RttResult result) {
+        return result.bssid == null ? parseLci(result.LCI) : decodeLci(result.bssid, result.LCI);
+    }
+
+    /**
+     * Decodes the LCR element of the access point, or returns the cached address if the payload is unchanged.
+     *
+     * @return the civic address or {@code null} if the element is missing, invalid or can not be decoded
+     */
+    @Nullable
+    public synchronized CivicLocation decodeLcr(@NonNull final String bssid,
+            @Nullable final RttManagerCompat.WifiInformationElement element) {
+        if (!isValid(element)) {
+            return null;
+        }
+        final CacheEntry entry = getEntry(bssid);
+        if (entry.lcrId != element.id || !Arrays.equals(entry.lcrData, element.data)) {
+            entry.lcrId = element.id;
+            entry.lcrData = element.data.clone();
+            // the cached element may keep a view of the payload, so it is parsed from the owned copy
+            entry.lcr = parseLcr(entry.lcrData, hasReportHeader(element));
+        }
+        return entry.lcr;
+    }
+
+    /**
+     * Decodes the LCR element of the result, see {@link #decodeLcr(String, RttManagerCompat.WifiInformationElement)}.
+     */
+    @Nullable
+    public CivicLocation decodeLcr(@NonNull final RttManagerCompat.RttResult result) {
+        return result.bssid == null ? parseLcr(result.LCR) : decodeLcr(result.bssid, result.LCR);
+    }
+
+    private CacheEntry getEntry(@NonNull final String bssid) {
+        CacheEntry entry = cache.get(bssid);
+        if (entry == null) {
+            entry = new CacheEntry();
+            cache.put(bssid, entry);
+        }
+        return entry;
+    }
+
+    private static final class CacheEntry {
+        private LocationConfigurationInformation lci;
+        private byte[] lciData;
+        private byte lciId;
+        private CivicLocation lcr;
+        private byte[] lcrData;
+        private byte lcrId;
+    }
+}
@@ -0,0 +1,61 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe mapping of a compat listener or callback to the native wrapper which has been handed to the
+ * platform. Keys are compared by identity, so listeners overriding {@link Object#equals(Object)} can not be
+ * confused. All operations are constant time.
+ *
+ * @param <K> type of the compat listener
+ * @param <V> type of the native wrapper
+ */
+final class NativeCallbackRegistry<K, V> {
+
+    private final Map<K, V> entries = new IdentityHashMap<>();
+
+    @Nullable
+    synchronized V get(@NonNull final K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Registers the given wrapper for the key. A previously registered wrapper of the same key is replaced.
+     *
+     * @return the replaced wrapper or {@code null}
+     */
+    @Nullable
+    synchronized V register(@NonNull final K key, @NonNull final V wrapper) {
+        return entries.put(key, wrapper);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes the wrapper of the given key.
+     *
+     * @return the removed wrapper or {@code null} if none was registered
+     */
+    @Nullable
+    synchronized V unregister(@NonNull final K key) {
+        return entries.remove(key);
+    }
+
+    /**
+     * Removes the mapping only if the key is still mapped to the given wrapper. Used by the wrappers themselves
+     * after a terminal callback, so a wrapper registered again for the same key in the meantime is kept.
+     */
+    synchronized boolean unregister(@NonNull final K key, @NonNull final V wrapper) {
+        if (entries.get(key) != wrapper) {
+            return false;
+        }
+        entries.remove(key);
+        return true;
+    }
+}
@@ -0,0 +1,125 @@
+package de.plinzen.rttmanager;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-class cache of the reflective {@link Field} handles used to read and write the hidden
+ * {@code android.net.wifi.RttManager} types. Every field is resolved via {@link Class#getDeclaredField(String)}
+ * only once per native class and reused afterwards.
+ * <p>
+ * The fields the library maps for a native class are probed all at once when its table is created, missing fields
+ * are logged a single time. Lookups of missing fields return {@code null} without throwing, so the converters can
+ * skip fields which the current platform version or vendor ROM does not provide.
+ */
+final class NativeFieldTable {
+
+    static final String CLASS_CAPABILITIES = "android.net.wifi.RttManager$Capabilities";
+    static final String CLASS_RESPONDER_CONFIG = "android.net.wifi.RttManager$ResponderConfig";
+    static final String CLASS_RTT_CAPABILITIES = "android.net.wifi.RttManager$RttCapabilities";
+    static final String CLASS_WIFI_INFORMATION_ELEMENT = "android.net.wifi.RttManager$WifiInformationElement";
+    private static final Map<String, String[]> SCHEMAS = new HashMap<>();
+    private static final String TAG = NativeFieldTable.class.getSimpleName();
+    private static final ConcurrentMap<Class<?>, NativeFieldTable> TABLES = new ConcurrentHashMap<>();
+
+    static {
+        SCHEMAS.put(CLASS_CAPABILITIES, new String[]{"supportedType", "supportedPeerType"});
+        SCHEMAS.put(CLASS_RESPONDER_CONFIG, new String[]{"macAddress", "frequency", "centerFreq0", "centerFreq1",
+                "channelWidth", "preamble"});
+        SCHEMAS.put(CLASS_RTT_CAPABILITIES, new String[]{"supportedType", "supportedPeerType",
+                "oneSidedRttSupported", "twoSided11McRttSupported", "lciSupported", "lcrSupported",
+                "preambleSupported", "bwSupported", "responderSupported", "secureRttSupported", "mcVersion"});
+        SCHEMAS.put(RttManagerCompatUtil.CLASS_RTT_PARAMS, new String[]{"deviceType", "requestType", "secure",
+                "bssid", "frequency", "channelWidth", "centerFreq0", "centerFreq1", "num_samples", "num_retries",
+                "numberBurst", "interval", "numSamplesPerBurst", "numRetriesPerMeasurementFrame",
+                "numRetriesPerFTMR", "LCIRequest", "LCRRequest", "burstTimeout", "preamble", "bandwidth"});
+        SCHEMAS.put(RttManagerCompatUtil.CLASS_RTT_RESULT, LazyRttResult.FIELD_NAMES);
+        SCHEMAS.put(CLASS_WIFI_INFORMATION_ELEMENT, new String[]{"id", "data"});
+    }
+
+    private final ConcurrentMap<String, Field> fields = new ConcurrentHashMap<>();
+    private final Set<String> missingFields = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Class<?> nativeClass;
+
+    private NativeFieldTable(@NonNull final Class<?> nativeClass) {
+        this.nativeClass = nativeClass;
+        final String[] knownSchema = SCHEMAS.get(nativeClass.getName());
+        final String[] schema = knownSchema != null ? knownSchema : new String[0];
+        final List<String> missing = new ArrayList<>();
+        for (String fieldName : schema) {
+            try {
+                final Field field = nativeClass.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                fields.put(fieldName, field);
+            } catch (NoSuchFieldException e) {
+                missingFields.add(fieldName);
+                missing.add(fieldName);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Log.w(TAG, nativeClass.getName() + " of SDK " + Build.VERSION.SDK_INT + " misses the fields " + missing
+                    + ", they are skipped.");
+        }
+    }
+
+    static NativeFieldTable forClass(@NonNull final Class<?> nativeClass) {
+        NativeFieldTable table = TABLES.get(nativeClass);
+        if (table == null) {
+            final NativeFieldTable newTable = new NativeFieldTable(nativeClass);
+            table = TABLES.putIfAbsent(nativeClass, newTable);
+            if (table == null) {
+                table = newTable;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Creates the tables of all native classes known to the library, which probes their fields up front.
+     */
+    static void probe() {
+        for (String className : SCHEMAS.keySet()) {
+            try {
+                forClass(Class.forName(className));
+            } catch (ClassNotFoundException e) {
+                Log.w(TAG, className + " is not available on SDK " + Build.VERSION.SDK_INT + ".");
+            }
+        }
+    }
+
+    /**
+     * @return the field or {@code null} if the native class does not declare it.
+     */
+    @Nullable
+    Field find(@NonNull final String fieldName) {
+        final Field field = fields.get(fieldName);
+        if (field != null || missingFields.contains(fieldName)) {
+            return field;
+        }
+        // fields outside of the schema are resolved on first use
+        try {
+            final Field resolved = nativeClass.getDeclaredField(fieldName);
+            resolved.setAccessible(true);
+            fields.put(fieldName, resolved);
+            return resolved;
+        } catch (NoSuchFieldException e) {
+            if (missingFields.add(fieldName)) {
+                Log.w(TAG, nativeClass.getName() + " of SDK " + Build.VERSION.SDK_INT + " misses the field "
+                        + fieldName + ", it is skipped.");
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package de.plinzen.rttmanager;
+
+import android.net.wifi.RttManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Concrete subclass of the abstract native {@link RttManager.ResponderCallback} which forwards the callbacks to a
+ * {@link RttManagerCompat.ResponderCallback}. The native callback is an abstract class and no interface, so it can
+ * not be bridged with a {@link java.lang.reflect.Proxy}.
+ * <p>
+ * If enabling the responder fails, the callback removes itself from its registry, since there is nothing left to
+ * disable.
+ */
+final class NativeResponderCallback extends RttManager.ResponderCallback implements
+        RttManagerCompat.ResponderCallbackWrapper {
+
+    private final NativeCallbackRegistry<RttManagerCompat.ResponderCallback,
+            RttManagerCompat.ResponderCallbackWrapper> registry;
+    private final RttManagerCompat.ResponderCallback responderCallback;
+
+    NativeResponderCallback(@NonNull final RttManagerCompat.ResponderCallback responderCallback,
+            @Nullable final NativeCallbackRegistry<RttManagerCompat.ResponderCallback,
+                    RttManagerCompat.ResponderCallbackWrapper> registry) {
+        this.responderCallback = responderCallback;
+        this.registry = registry;
+    }
+
+    @Override
+    public RttManagerCompat.ResponderCallback getResponderCallback() {
+        return responderCallback;
+    }
+
+    @Override
+    public void onResponderEnableFailure(final int reason) {
+        if (registry != null) {
+            registry.unregister(responderCallback, this);
+        }
+        responderCallback.onResponderEnableFailure(reason);
+    }
+
+    @Override
+    public void onResponderEnabled(final RttManager.ResponderConfig config) {
+        responderCallback.onResponderEnabled(RttManagerCompatUtil.buildResponderConfigFromNativeObjects(config));
+    }
+}
@@ -0,0 +1,17 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Implemented by internal {@link RttManagerCompat.RttListener}s which convert the native results themselves. The
+ * native listeners pass the unconverted results to {@link #onNativeSuccess(Object)} instead of calling
+ * {@link RttManagerCompat.RttListener#onSuccess(RttManagerCompat.RttResult[])}, see
+ * {@link RttManagerCompatUtil#deliverNativeResults}.
+ */
+interface NativeResultsConsumer {
+
+    /**
+     * @param nativeResults array of the native {@code RttResult} objects
+     */
+    void onNativeSuccess(@Nullable Object nativeResults);
+}
@@ -0,0 +1,59 @@
+package de.plinzen.rttmanager;
+
+import android.net.wifi.RttManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Bridges the callbacks of the native {@link RttManager.RttListener} to a {@link RttManagerCompat.RttListener}.
+ * The native interface is implemented directly, so a callback is a plain virtual call without reflection, argument
+ * arrays or boxing.
+ * <p>
+ * The listener removes itself from its registry before a terminal callback is delivered, since the platform drops
+ * the listener after {@code onSuccess}, {@code onFailure} or {@code onAborted}.
+ * <p>
+ * If a {@link RttResultBuffer} is given, the results are copied into the objects of the buffer.
+ */
+final class NativeRttListener implements RttManager.RttListener, RttManagerCompat.RttListenerWrapper {
+
+    private final RttResultBuffer buffer;
+    private final NativeCallbackRegistry<RttManagerCompat.RttListener, RttManagerCompat.RttListenerWrapper> registry;
+    private final RttManagerCompat.RttListener rttListener;
+
+    NativeRttListener(@NonNull final RttManagerCompat.RttListener rttListener,
+            @Nullable final NativeCallbackRegistry<RttManagerCompat.RttListener,
+                    RttManagerCompat.RttListenerWrapper> registry, @Nullable final RttResultBuffer buffer) {
+        this.rttListener = rttListener;
+        this.registry = registry;
+        this.buffer = buffer;
+    }
+
+    @Override
+    public RttManagerCompat.RttListener getRttListenerCompat() {
+        return rttListener;
+    }
+
+    @Override
+    public void onAborted() {
+        unregister();
+        rttListener.onAborted();
+    }
+
+    @Override
+    public void onFailure(final int reason, final String description) {
+        unregister();
+        rttListener.onFailure(reason, description);
+    }
+
+    @Override
+    public void onSuccess(final RttManager.RttResult[] results) {
+        unregister();
+        RttManagerCompatUtil.deliverNativeResults(rttListener, results, buffer);
+    }
+
+    private void unregister() {
+        if (registry != null) {
+            registry.unregister(rttListener, this);
+        }
+    }
+}
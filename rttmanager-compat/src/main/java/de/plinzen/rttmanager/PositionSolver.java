@@ -0,0 +1,418 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Computes the position of the device from the ranged distances to access points with known positions, the anchors.
+ * The position minimizes the weighted squared range residuals with the Levenberg-Marquardt method. Every measurement
+ * is weighted by the inverse variance of its {@code distanceStandardDeviation}. Only results with
+ * {@link RttManagerCompat#RTT_STATUS_SUCCESS} from BSSIDs with an anchor are used.
+ * <p>
+ * Anchors and positions are in metres in any local cartesian frame. With two dimensions only x and y are solved, the
+ * height of the device is fixed to {@link #setHeight(double)} while the ranges stay three dimensional.
+ * <p>
+ * Anchors are stored in primitive arrays addressed by the index of the BSSID in a {@link BssidIndex} and the solver
+ * works on preallocated arrays, so a fix does not allocate once the arrays have grown to the number of anchors and
+ * measurements. The solver is not thread safe.
+ */
+public class PositionSolver {
+
+    /**
+     * Standard deviation in cm assumed for results which do not report one.
+     */
+    private static final int DEFAULT_STANDARD_DEVIATION = 100;
+    private static final double INITIAL_DAMPING = 1e-3;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final double MAX_DAMPING = 1e10;
+    private static final int MAX_ITERATIONS = 20;
+    private static final int MIN_STANDARD_DEVIATION = 10;
+    /**
+     * Step length in metres below which the solution counts as converged.
+     */
+    private static final double TOLERANCE = 1e-4;
+    private final BssidIndex bssidIndex;
+    private final double[] candidate = new double[3];
+    private final int dimension;
+    private final double[] factor = new double[9];
+    private final double[] gradient = new double[3];
+    private final double[] normal = new double[9];
+    private final double[] point = new double[3];
+    private final double[] step = new double[3];
+    private double[] anchorX = new double[INITIAL_CAPACITY];
+    private double[] anchorY = new double[INITIAL_CAPACITY];
+    private double[] anchorZ = new double[INITIAL_CAPACITY];
+    private boolean[] anchored = new boolean[INITIAL_CAPACITY];
+    private double height;
+    private double[] measuredDistances = new double[INITIAL_CAPACITY];
+    private int measurementCount;
+    private double[] measurementX = new double[INITIAL_CAPACITY];
+    private double[] measurementY = new double[INITIAL_CAPACITY];
+    private double[] measurementZ = new double[INITIAL_CAPACITY];
+    private double[] weights = new double[INITIAL_CAPACITY];
+
+    /**
+     * @param dimension 2 to solve x and y, 3 to solve x, y and z
+     */
+    public PositionSolver(final int dimension) {
+        this(new BssidIndex(), dimension);
+    }
+
+    /**
+     * @param bssidIndex index of the BSSIDs, share it with a {@link RttResultBatch} to solve batches without lookups
+     * @param dimension  2 to solve x and y, 3 to solve x, y and z
+     */
+    public PositionSolver(@NonNull final BssidIndex bssidIndex, final int dimension) {
+        if (dimension != 2 && dimension != 3) {
+            throw new IllegalArgumentException("dimension must be 2 or 3.");
+        }
+        this.bssidIndex = bssidIndex;
+        this.dimension = dimension;
+    }
+
+    /**
+     * @return the weight of a measurement, the inverse of its variance in m^-2
+     */
+    static double weight(final int distanceStandardDeviation) {
+        final double standardDeviation = (distanceStandardDeviation <= 0 ? DEFAULT_STANDARD_DEVIATION
+                : Math.max(distanceStandardDeviation, MIN_STANDARD_DEVIATION)) / 100.0;
+        return 1 / (standardDeviation * standardDeviation);
+    }
+
+    @NonNull
+    public BssidIndex getBssidIndex() {
+        return bssidIndex;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * @param height height of the device in metres, used for two dimensional fixes, default is 0
+     */
+    public void setHeight(final double height) {
+        this.height = height;
+    }
+
+    public boolean hasAnchor(@NonNull final String bssid) {
+        return isAnchored(bssidIndex.find(bssid));
+    }
+
+    public void removeAnchor(@NonNull final String bssid) {
+        final int index = bssidIndex.find(bssid);
+        if (isAnchored(index)) {
+            anchored[index] = false;
+        }
+    }
+
+    /**
+     * Sets the position of the access point with the given BSSID in metres.
+     */
+    public void setAnchor(@NonNull final String bssid, final double x, final double y, final double z) {
+        final int index = bssidIndex.intern(bssid);
+        ensureAnchorCapacity(index);
+        anchorX[index] = x;
+        anchorY[index] = y;
+        anchorZ[index] = z;
+        anchored[index] = true;
+    }
+
+    /**
+     * Solves the position from the results of a ranging request, see
+     * {@link RttManagerCompat.RttListener#onSuccess(RttManagerCompat.RttResult[])}.
+     *
+     * @param position receives the fix. If it holds a valid fix, it is used as initial guess, otherwise the weighted
+     *                 centroid of the ranged anchors.
+     * @return {@code false} if less than {@code dimension + 1} usable measurements are available or the solver failed,
+     * the position is invalid then
+     */
+    public boolean solve(@NonNull final RttManagerCompat.RttResult[] results, @NonNull final Position position) {
+        measurementCount = 0;
+        for (RttManagerCompat.RttResult result : results) {
+            if (result.status == RttManagerCompat.RTT_STATUS_SUCCESS) {
+                addMeasurement(bssidIndex.find(result.bssid), result.distance, result.distanceStandardDeviation);
+            }
+        }
+        return solve(position);
+    }
+
+    /**
+     * Solves the position from the results of a batch, see {@link #solve(RttManagerCompat.RttResult[], Position)}.
+     * The BSSID indices of the batch are used directly if it shares the {@link BssidIndex} of the solver.
+     */
+    public boolean solve(@NonNull final RttResultBatch batch, @NonNull final Position position) {
+        final boolean sharedIndex = batch.getBssidIndex() == bssidIndex;
+        final int[] bssids = batch.getBssids();
+        final int[] statuses = batch.getStatuses();
+        final int[] distances = batch.getDistances();
+        final int[] standardDeviations = batch.getDistanceStandardDeviations();
+        measurementCount = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            if (statuses[i] == RttManagerCompat.RTT_STATUS_SUCCESS) {
+                final int index = sharedIndex ? bssids[i]
+                        : bssidIndex.find(batch.getBssidIndex().getBssid(bssids[i]));
+                addMeasurement(index, distances[i], standardDeviations[i]);
+            }
+        }
+        return solve(position);
+    }
+
+    private void addMeasurement(final int index, final int distance, final int distanceStandardDeviation) {
+        if (!isAnchored(index)) {
+            return;
+        }
+        if (measurementCount == measuredDistances.length) {
+            final int capacity = measurementCount * 2;
+            measuredDistances = Arrays.copyOf(measuredDistances, capacity);
+            measurementX = Arrays.copyOf(measurementX, capacity);
+            measurementY = Arrays.copyOf(measurementY, capacity);
+            measurementZ = Arrays.copyOf(measurementZ, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+        }
+        measuredDistances[measurementCount] = distance / 100.0;
+        measurementX[measurementCount] = anchorX[index];
+        measurementY[measurementCount] = anchorY[index];
+        measurementZ[measurementCount] = anchorZ[index];
+        weights[measurementCount] = weight(distanceStandardDeviation);
+        measurementCount++;
+    }
+
+    /**
+     * @return the weighted sum of the squared residuals at {@code p}
+     */
+    private double cost(@NonNull final double[] p) {
+        double cost = 0;
+        for (int i = 0; i < measurementCount; i++) {
+            final double residual = range(p, i) - measuredDistances[i];
+            cost += weights[i] * residual * residual;
+        }
+        return cost;
+    }
+
+    private void ensureAnchorCapacity(final int index) {
+        if (index < anchored.length) {
+            return;
+        }
+        int capacity = anchored.length;
+        while (capacity <= index) {
+            capacity *= 2;
+        }
+        anchorX = Arrays.copyOf(anchorX, capacity);
+        anchorY = Arrays.copyOf(anchorY, capacity);
+        anchorZ = Arrays.copyOf(anchorZ, capacity);
+        anchored = Arrays.copyOf(anchored, capacity);
+    }
+
+    private void initialGuess(@NonNull final Position position) {
+        if (position.valid) {
+            point[0] = position.x;
+            point[1] = position.y;
+            point[2] = dimension == 3 ? position.z : height;
+            return;
+        }
+        double x = 0;
+        double y = 0;
+        double z = 0;
+        double weightSum = 0;
+        for (int i = 0; i < measurementCount; i++) {
+            x += weights[i] * measurementX[i];
+            y += weights[i] * measurementY[i];
+            z += weights[i] * measurementZ[i];
+            weightSum += weights[i];
+        }
+        point[0] = x / weightSum;
+        point[1] = y / weightSum;
+        // the centroid of anchors mounted at one height is a saddle point, start below them
+        point[2] = dimension == 3 ? z / weightSum - 1 : height;
+    }
+
+    private boolean isAnchored(final int index) {
+        return index >= 0 && index < anchored.length && anchored[index];
+    }
+
+    /**
+     * Builds the normal matrix {@code J^T W J} and the gradient {@code J^T W r} at the current point.
+     */
+    private void linearize() {
+        Arrays.fill(normal, 0);
+        Arrays.fill(gradient, 0);
+        for (int i = 0; i < measurementCount; i++) {
+            final double range = range(point, i);
+            if (range < 1e-9) {
+                continue;
+            }
+            final double residual = range - measuredDistances[i];
+            final double jx = (point[0] - measurementX[i]) / range;
+            final double jy = (point[1] - measurementY[i]) / range;
+            final double jz = (point[2] - measurementZ[i]) / range;
+            for (int row = 0; row < dimension; row++) {
+                final double jRow = row == 0 ? jx : row == 1 ? jy : jz;
+                gradient[row] += weights[i] * jRow * residual;
+                for (int column = 0; column < dimension; column++) {
+                    final double jColumn = column == 0 ? jx : column == 1 ? jy : jz;
+                    normal[row * dimension + column] += weights[i] * jRow * jColumn;
+                }
+            }
+        }
+    }
+
+    private double range(@NonNull final double[] p, final int measurement) {
+        final double dx = p[0] - measurementX[measurement];
+        final double dy = p[1] - measurementY[measurement];
+        final double dz = p[2] - measurementZ[measurement];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private boolean solve(@NonNull final Position position) {
+        if (measurementCount <= dimension) {
+            position.invalidate(measurementCount);
+            return false;
+        }
+        initialGuess(position);
+        double cost = cost(point);
+        double damping = INITIAL_DAMPING;
+        int iterations = 0;
+        boolean converged = false;
+        while (iterations < MAX_ITERATIONS && !converged) {
+            iterations++;
+            linearize();
+            boolean improved = false;
+            while (!improved && damping < MAX_DAMPING) {
+                System.arraycopy(normal, 0, factor, 0, dimension * dimension);
+                for (int i = 0; i < dimension; i++) {
+                    factor[i * dimension + i] += damping * (normal[i * dimension + i] + 1e-12);
+                }
+                if (!LinearAlgebra.cholesky(factor, dimension)) {
+                    damping *= 10;
+                    continue;
+                }
+                LinearAlgebra.choleskySolve(factor, dimension, gradient, step);
+                double stepLength = 0;
+                for (int i = 0; i < 3; i++) {
+                    final double delta = i < dimension ? -step[i] : 0;
+                    candidate[i] = point[i] + delta;
+                    stepLength += delta * delta;
+                }
+                final double candidateCost = cost(candidate);
+                if (candidateCost <= cost) {
+                    System.arraycopy(candidate, 0, point, 0, 3);
+                    converged = Math.sqrt(stepLength) < TOLERANCE || cost - candidateCost < 1e-12 * cost;
+                    cost = candidateCost;
+                    damping = Math.max(damping / 10, 1e-12);
+                    improved = true;
+                } else {
+                    damping *= 10;
+                }
+            }
+            converged |= !improved;
+        }
+
+        // the covariance of the fix is the inverse of the undamped normal matrix at the solution
+        linearize();
+        System.arraycopy(normal, 0, factor, 0, dimension * dimension);
+        if (!LinearAlgebra.cholesky(factor, dimension)) {
+            position.invalidate(measurementCount);
+            return false;
+        }
+        position.x = point[0];
+        position.y = point[1];
+        position.z = point[2];
+        position.accuracy = Math.sqrt(LinearAlgebra.inverseTrace(factor, dimension, step));
+        position.iterations = iterations;
+        position.measurementCount = measurementCount;
+        position.residual = Math.sqrt(cost / measurementCount);
+        position.valid = true;
+        return true;
+    }
+
+    /**
+     * A fix of {@link PositionSolver}, reuse it for consecutive fixes.
+     */
+    public static final class Position {
+        private double accuracy;
+        private int iterations;
+        private int measurementCount;
+        private double residual;
+        private boolean valid;
+        private double x;
+        private double y;
+        private double z;
+
+        /**
+         * @return the standard deviation of the position in metres, derived from the geometry and the measurement
+         * weights
+         */
+        public double getAccuracy() {
+            return accuracy;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        /**
+         * @return the number of measurements the fix is based on
+         */
+        public int getMeasurementCount() {
+            return measurementCount;
+        }
+
+        /**
+         * @return the root mean square of the weighted range residuals, around 1 if the reported standard deviations
+         * match the actual errors
+         */
+        public double getResidual() {
+            return residual;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getZ() {
+            return z;
+        }
+
+        /**
+         * Marks the position as invalid, so the next fix starts from the centroid of the anchors.
+         */
+        public void invalidate() {
+            valid = false;
+        }
+
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Sets the position, for example as initial guess of the next fix.
+         */
+        public void set(final double x, final double y, final double z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            valid = true;
+        }
+
+        @Override
+        public String toString() {
+            return "Position{x=" + x + ", y=" + y + ", z=" + z + ", accuracy=" + accuracy + ", valid=" + valid + "}";
+        }
+
+        private void invalidate(final int measurementCount) {
+            this.measurementCount = measurementCount;
+            iterations = 0;
+            valid = false;
+        }
+    }
+}
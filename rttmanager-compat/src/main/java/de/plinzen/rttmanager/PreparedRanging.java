@@ -0,0 +1,86 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A ranging request which is prepared once and started many times, e.g. every cycle of a periodic ranging of a fixed
+ * set of anchors, see {@link RttManagerCompat#startRanging(PreparedRanging, RttManagerCompat.RttListener)}.
+ * <p>
+ * The native params are built on the first start only. Before every later start the params are compared with a
+ * snapshot of the last started values. Only params which have been changed in the meantime are written to their
+ * native counterparts, an unchanged request is started without any conversion. The params may be modified between
+ * two starts, {@link #setParams(RttManagerCompat.RttParams[])} replaces the whole peer set.
+ */
+public final class PreparedRanging {
+
+    private Object nativeParams;
+    private RttManagerCompat.RttParams[] params;
+    private RttManagerCompat.RttParams[] snapshot;
+
+    public PreparedRanging(@NonNull final RttManagerCompat.RttParams[] params) {
+        this.params = params;
+    }
+
+    private static boolean isChanged(@NonNull final RttManagerCompat.RttParams param,
+            @NonNull final RttManagerCompat.RttParams last) {
+        return param.deviceType != last.deviceType
+                || param.requestType != last.requestType
+                || param.secure != last.secure
+                || !equals(param.bssid, last.bssid)
+                || param.frequency != last.frequency
+                || param.channelWidth != last.channelWidth
+                || param.centerFreq0 != last.centerFreq0
+                || param.centerFreq1 != last.centerFreq1
+                || param.num_samples != last.num_samples
+                || param.num_retries != last.num_retries
+                || param.numberBurst != last.numberBurst
+                || param.interval != last.interval
+                || param.numSamplesPerBurst != last.numSamplesPerBurst
+                || param.numRetriesPerMeasurementFrame != last.numRetriesPerMeasurementFrame
+                || param.numRetriesPerFTMR != last.numRetriesPerFTMR
+                || param.LCIRequest != last.LCIRequest
+                || param.LCRRequest != last.LCRRequest
+                || param.burstTimeout != last.burstTimeout
+                || param.preamble != last.preamble
+                || param.bandwidth != last.bandwidth;
+    }
+
+    private static boolean equals(@Nullable final String a, @Nullable final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @NonNull
+    public synchronized RttManagerCompat.RttParams[] getParams() {
+        return params;
+    }
+
+    /**
+     * Replaces the peer set. The native params are built again on the next start if the number of peers changed.
+     */
+    public synchronized void setParams(@NonNull final RttManagerCompat.RttParams[] params) {
+        this.params = params;
+    }
+
+    /**
+     * @return the native params, updated to the current values of the params
+     */
+    synchronized Object materialize() throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+        if (nativeParams == null || snapshot.length != params.length) {
+            nativeParams = RttManagerCompatUtil.buildNativeRttParams(params);
+            snapshot = new RttManagerCompat.RttParams[params.length];
+            for (int i = 0; i < params.length; i++) {
+                snapshot[i] = new RttManagerCompat.RttParams();
+                RttManagerCompatUtil.copyRttParams(params[i], snapshot[i]);
+            }
+            return nativeParams;
+        }
+        for (int i = 0; i < params.length; i++) {
+            if (isChanged(params[i], snapshot[i])) {
+                RttManagerCompatUtil.updateNativeRttParam(nativeParams, i, params[i]);
+                RttManagerCompatUtil.copyRttParams(params[i], snapshot[i]);
+            }
+        }
+        return nativeParams;
+    }
+}
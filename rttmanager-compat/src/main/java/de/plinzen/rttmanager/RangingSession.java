@@ -0,0 +1,265 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Continuous ranging of a fixed set of peers at a target rate.
+ * <p>
+ * The session starts a ranging cycle on a fixed-rate timer, so the rate does not drift with the duration of the
+ * requests. A cycle is skipped, not queued, while the previous cycle is still running, either because the hardware
+ * has not reported yet or because the listener is still processing the last results. Skipped cycles are counted and
+ * can be read with {@link #getDroppedCycles()}. A cycle which has not completed after {@code cycleTimeout} is stopped,
+ * so a lost callback does not stall the session. Every cycle is ranged with its own listener, so late callbacks of a
+ * stopped cycle are ignored.
+ * <p>
+ * Results are delivered to the {@link RttManagerCompat.RttListener} on the thread of the platform callback.
+ */
+public class RangingSession {
+
+    private static final int CYCLE_TIMEOUT_PERIODS = 10;
+    private static final String TAG = RangingSession.class.getSimpleName();
+    private final long cycleTimeoutNanos;
+    private final RttManagerCompat.RttListener listener;
+    private final boolean ownsExecutor;
+    private final long periodNanos;
+    private final RttManagerCompat rttManager;
+    private long completedCycles;
+    private CycleListener cycle;
+    private long cycleStartNanos;
+    private long droppedCycles;
+    private ScheduledExecutorService executor;
+    private RttManagerCompat.RttParams[] peers;
+    private long sessionStartNanos;
+    private ScheduledFuture<?> timer;
+
+    /**
+     * @param rate target rate of ranging cycles per second
+     */
+    public RangingSession(@NonNull final RttManagerCompat rttManager, @NonNull final RttManagerCompat.RttParams[] peers,
+            final double rate, @NonNull final RttManagerCompat.RttListener listener) {
+        this(rttManager, peers, rate, listener, null, true);
+    }
+
+    /**
+     * @param rate     target rate of ranging cycles per second
+     * @param executor executor of the cycle timer, it is not shut down by the session
+     */
+    public RangingSession(@NonNull final RttManagerCompat rttManager, @NonNull final RttManagerCompat.RttParams[] peers,
+            final double rate, @NonNull final RttManagerCompat.RttListener listener,
+            @NonNull final ScheduledExecutorService executor) {
+        this(rttManager, peers, rate, listener, executor, false);
+    }
+
+    private RangingSession(@NonNull final RttManagerCompat rttManager,
+            @NonNull final RttManagerCompat.RttParams[] peers, final double rate,
+            @NonNull final RttManagerCompat.RttListener listener, final ScheduledExecutorService executor,
+            final boolean ownsExecutor) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive.");
+        }
+        this.rttManager = rttManager;
+        this.peers = peers;
+        this.listener = listener;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        periodNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        cycleTimeoutNanos = CYCLE_TIMEOUT_PERIODS * periodNanos;
+    }
+
+    private static ScheduledExecutorService createExecutor() {
+        return new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                final Thread thread = new Thread(runnable, RangingSession.class.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return completed cycles per second since the session was started.
+     */
+    public synchronized double getAchievedRate() {
+        if (sessionStartNanos == 0) {
+            return 0;
+        }
+        final long elapsed = System.nanoTime() - sessionStartNanos;
+        return elapsed <= 0 ? 0 : completedCycles * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    public synchronized long getCompletedCycles() {
+        return completedCycles;
+    }
+
+    /**
+     * @return number of cycles which have been skipped, timed out, failed or aborted since the session was started.
+     */
+    public synchronized long getDroppedCycles() {
+        return droppedCycles;
+    }
+
+    public synchronized boolean isRunning() {
+        return timer != null;
+    }
+
+    /**
+     * Replaces the ranged peers, starting with the next cycle.
+     */
+    public synchronized void setPeers(@NonNull final RttManagerCompat.RttParams[] peers) {
+        this.peers = peers;
+    }
+
+    /**
+     * Starts the session, a stopped session can be started again.
+     */
+    public synchronized void start() {
+        if (timer != null) {
+            return;
+        }
+        // an owned executor is shut down by stop(), every run gets a new one
+        if (ownsExecutor) {
+            executor = createExecutor();
+        }
+        completedCycles = 0;
+        droppedCycles = 0;
+        sessionStartNanos = System.nanoTime();
+        timer = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                onTick();
+            }
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the session and the running cycle. Results of the running cycle are not delivered anymore.
+     */
+    public void stop() {
+        final ScheduledExecutorService stoppedExecutor;
+        final CycleListener stoppedCycle;
+        synchronized (this) {
+            if (timer == null) {
+                return;
+            }
+            timer.cancel(false);
+            timer = null;
+            stoppedCycle = cycle;
+            cycle = null;
+            stoppedExecutor = executor;
+        }
+        if (stoppedCycle != null) {
+            rttManager.stopRanging(stoppedCycle);
+        }
+        if (ownsExecutor) {
+            stoppedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @param success {@code true} if the cycle delivered results, only those count as completed
+     * @return {@code false} if the cycle is not the running one anymore or has finished already
+     */
+    private synchronized boolean finishCycle(@NonNull final CycleListener finished, final boolean success) {
+        if (cycle != finished || finished.done) {
+            return false;
+        }
+        finished.done = true;
+        if (success) {
+            completedCycles++;
+        } else {
+            droppedCycles++;
+        }
+        return true;
+    }
+
+    private void onTick() {
+        final RttManagerCompat.RttParams[] cyclePeers;
+        final CycleListener timedOutCycle;
+        final CycleListener newCycle;
+        synchronized (this) {
+            if (timer == null) {
+                return;
+            }
+            final long now = System.nanoTime();
+            timedOutCycle = cycle;
+            if (timedOutCycle != null) {
+                droppedCycles++;
+                if (now - cycleStartNanos < cycleTimeoutNanos) {
+                    return;
+                }
+            }
+            newCycle = new CycleListener();
+            cycle = newCycle;
+            cycleStartNanos = now;
+            cyclePeers = peers;
+        }
+        if (timedOutCycle != null) {
+            Log.w(TAG, "Ranging cycle timed out, restarting.");
+            rttManager.stopRanging(timedOutCycle);
+        }
+        try {
+            rttManager.startRanging(cyclePeers, newCycle);
+        } catch (Throwable e) {
+            Log.e(TAG, e.getMessage(), e);
+            if (finishCycle(newCycle, false)) {
+                releaseCycle(newCycle);
+                listener.onFailure(RttManagerCompat.REASON_UNSPECIFIED, e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void releaseCycle(@NonNull final CycleListener released) {
+        if (cycle == released) {
+            cycle = null;
+        }
+    }
+
+    /**
+     * Listener of a single cycle. Callbacks of a cycle which is not the running one anymore are ignored.
+     */
+    private final class CycleListener implements RttManagerCompat.RttListener {
+        private boolean done;
+
+        @Override
+        public void onAborted() {
+            if (finishCycle(this, false)) {
+                try {
+                    listener.onAborted();
+                } finally {
+                    releaseCycle(this);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(final int reason, final String description) {
+            if (finishCycle(this, false)) {
+                try {
+                    listener.onFailure(reason, description);
+                } finally {
+                    releaseCycle(this);
+                }
+            }
+        }
+
+        @Override
+        public void onSuccess(final RttManagerCompat.RttResult[] results) {
+            if (finishCycle(this, true)) {
+                // the cycle stays busy while the listener processes the results, so slow consumers skip cycles
+                try {
+                    listener.onSuccess(results);
+                } finally {
+                    releaseCycle(this);
+                }
+            }
+        }
+    }
+}
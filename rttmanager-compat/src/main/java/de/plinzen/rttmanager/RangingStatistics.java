@@ -0,0 +1,417 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Streaming statistics of the ranged distances per BSSID with constant memory per access point: mean and variance
+ * (Welford), an exponentially weighted moving average, the median (P-square estimator of Jain and Chlamtac),
+ * minimum and maximum, and the number of results per {@code RTT_STATUS_*} value. Only results with
+ * {@link RttManagerCompat#RTT_STATUS_SUCCESS} contribute to the distance statistics.
+ * <p>
+ * The statistics of all access points are stored in one primitive array, addressed by the index of the BSSID in a
+ * {@link BssidIndex}. Results have to be added by a single thread, usually the thread of the ranging callbacks, which
+ * does not take any locks. Any other thread can read consistent copies with
+ * {@link #getStatistics(String, Statistics)}. Each access point is guarded by a sequence counter, so a reader which
+ * overlaps with an update retries instead of blocking the writer.
+ */
+public class RangingStatistics {
+
+    /**
+     * Default weight of a new sample in the moving average.
+     */
+    public static final double DEFAULT_EWMA_ALPHA = 0.2;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int MARKERS = 5;
+    private static final int OFFSET_EWMA = 3;
+    private static final int OFFSET_M2 = 2;
+    private static final int OFFSET_MARKER_HEIGHTS = 6;
+    private static final int OFFSET_MARKER_POSITIONS = OFFSET_MARKER_HEIGHTS + MARKERS;
+    private static final int OFFSET_MAX = 5;
+    private static final int OFFSET_MEAN = 1;
+    private static final int OFFSET_MIN = 4;
+    private static final int OFFSET_SAMPLES = 0;
+    private static final int OFFSET_STATUS_COUNTS = OFFSET_MARKER_POSITIONS + MARKERS;
+    /**
+     * One counter per {@code RTT_STATUS_*} value and a last one for unknown values.
+     */
+    private static final int STATUS_SLOTS = RttManagerCompat.RTT_STATUS_FAIL_FTM_PARAM_OVERRIDE + 2;
+    private static final int STRIDE = OFFSET_STATUS_COUNTS + STATUS_SLOTS;
+    private final BssidIndex bssidIndex;
+    private final double ewmaAlpha;
+    private final Map<String, Integer> writerIndices = new HashMap<>();
+    private final double[] writerHeights = new double[MARKERS];
+    private final long[] writerPositions = new long[MARKERS];
+    private volatile Storage storage = new Storage(INITIAL_CAPACITY);
+
+    public RangingStatistics() {
+        this(new BssidIndex(), DEFAULT_EWMA_ALPHA);
+    }
+
+    /**
+     * @param bssidIndex index of the BSSIDs, share it with a {@link RttResultBatch} to add batches without lookups
+     * @param ewmaAlpha  weight of a new sample in the moving average, between 0 and 1
+     */
+    public RangingStatistics(@NonNull final BssidIndex bssidIndex, final double ewmaAlpha) {
+        if (ewmaAlpha <= 0 || ewmaAlpha > 1) {
+            throw new IllegalArgumentException("ewmaAlpha must be in (0, 1].");
+        }
+        this.bssidIndex = bssidIndex;
+        this.ewmaAlpha = ewmaAlpha;
+    }
+
+    private static double parabolic(@NonNull final double[] q, @NonNull final long[] n, final int i, final int d) {
+        return q[i] + d / (double) (n[i + 1] - n[i - 1]) * ((n[i] - n[i - 1] + d) * (q[i + 1] - q[i])
+                / (n[i + 1] - n[i]) + (n[i + 1] - n[i] - d) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+    }
+
+    /**
+     * Adds all results of a ranging request. Must only be called by the writing thread.
+     */
+    public void add(@Nullable final RttManagerCompat.RttResult[] results) {
+        if (results == null) {
+            return;
+        }
+        for (RttManagerCompat.RttResult result : results) {
+            add(result);
+        }
+    }
+
+    /**
+     * Adds a single result. Must only be called by the writing thread.
+     */
+    public void add(@NonNull final RttManagerCompat.RttResult result) {
+        update(indexOf(result.bssid), result.status, result.distance);
+    }
+
+    /**
+     * Adds all results of a batch. The BSSID indices of the batch are used directly if it shares the
+     * {@link BssidIndex} of the statistics. Must only be called by the writing thread.
+     */
+    public void add(@NonNull final RttResultBatch batch) {
+        final boolean sharedIndex = batch.getBssidIndex() == bssidIndex;
+        final int[] bssids = batch.getBssids();
+        final int[] statuses = batch.getStatuses();
+        final int[] distances = batch.getDistances();
+        for (int i = 0; i < batch.size(); i++) {
+            final int index = sharedIndex ? bssids[i] : indexOf(batch.getBssidIndex().getBssid(bssids[i]));
+            update(index, statuses[i], distances[i]);
+        }
+    }
+
+    @NonNull
+    public BssidIndex getBssidIndex() {
+        return bssidIndex;
+    }
+
+    /**
+     * @return a copy of the statistics of the BSSID or {@code null} if no result of it has been added yet
+     */
+    @Nullable
+    public Statistics getStatistics(@NonNull final String bssid) {
+        final Statistics statistics = new Statistics();
+        return getStatistics(bssid, statistics) ? statistics : null;
+    }
+
+    /**
+     * Copies the statistics of the BSSID into the given object, which can be reused for many reads. Can be called
+     * from any thread.
+     *
+     * @return {@code false} if no result of the BSSID has been added yet
+     */
+    public boolean getStatistics(@NonNull final String bssid, @NonNull final Statistics statistics) {
+        final int index = bssidIndex.find(bssid);
+        if (index < 0) {
+            return false;
+        }
+        while (true) {
+            final Storage current = storage;
+            if (index >= current.capacity) {
+                return false;
+            }
+            final int sequence = current.sequences.get(index);
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            statistics.read(current.values, index * STRIDE);
+            if (current.sequences.get(index) == sequence) {
+                statistics.bssid = bssid;
+                return statistics.results > 0;
+            }
+        }
+    }
+
+    private void addSample(@NonNull final AtomicLongArray values, final int base, final int distance) {
+        final long samples = values.get(base + OFFSET_SAMPLES) + 1;
+        values.set(base + OFFSET_SAMPLES, samples);
+
+        final double mean = Double.longBitsToDouble(values.get(base + OFFSET_MEAN));
+        final double delta = distance - mean;
+        final double newMean = mean + delta / samples;
+        setDouble(values, base + OFFSET_MEAN, newMean);
+        setDouble(values, base + OFFSET_M2,
+                Double.longBitsToDouble(values.get(base + OFFSET_M2)) + delta * (distance - newMean));
+
+        if (samples == 1) {
+            setDouble(values, base + OFFSET_EWMA, distance);
+            values.set(base + OFFSET_MIN, distance);
+            values.set(base + OFFSET_MAX, distance);
+        } else {
+            final double ewma = Double.longBitsToDouble(values.get(base + OFFSET_EWMA));
+            setDouble(values, base + OFFSET_EWMA, ewma + ewmaAlpha * (distance - ewma));
+            values.set(base + OFFSET_MIN, Math.min(values.get(base + OFFSET_MIN), distance));
+            values.set(base + OFFSET_MAX, Math.max(values.get(base + OFFSET_MAX), distance));
+        }
+        updateMedian(values, base, samples, distance);
+    }
+
+    private Storage ensureCapacity(final int index) {
+        final Storage current = storage;
+        if (index < current.capacity) {
+            return current;
+        }
+        int capacity = current.capacity;
+        while (capacity <= index) {
+            capacity *= 2;
+        }
+        final Storage grown = new Storage(capacity);
+        for (int i = 0; i < current.capacity * STRIDE; i++) {
+            grown.values.set(i, current.values.get(i));
+        }
+        for (int i = 0; i < current.capacity; i++) {
+            grown.sequences.set(i, current.sequences.get(i));
+        }
+        storage = grown;
+        return grown;
+    }
+
+    private int indexOf(@Nullable final String bssid) {
+        final Integer index = writerIndices.get(bssid);
+        if (index != null) {
+            return index;
+        }
+        final int newIndex = bssidIndex.intern(bssid);
+        writerIndices.put(bssid, newIndex);
+        return newIndex;
+    }
+
+    private void setDouble(@NonNull final AtomicLongArray values, final int offset, final double value) {
+        values.set(offset, Double.doubleToRawLongBits(value));
+    }
+
+    private void update(final int index, final int status, final int distance) {
+        final Storage current = ensureCapacity(index);
+        final AtomicLongArray values = current.values;
+        final int base = index * STRIDE;
+        final int sequence = current.sequences.get(index);
+        current.sequences.set(index, sequence + 1);
+
+        final int statusSlot = status >= 0 && status < STATUS_SLOTS - 1 ? status : STATUS_SLOTS - 1;
+        values.set(base + OFFSET_STATUS_COUNTS + statusSlot, values.get(base + OFFSET_STATUS_COUNTS + statusSlot) + 1);
+        if (status == RttManagerCompat.RTT_STATUS_SUCCESS) {
+            addSample(values, base, distance);
+        }
+
+        current.sequences.set(index, sequence + 2);
+    }
+
+    private void updateMedian(@NonNull final AtomicLongArray values, final int base, final long samples,
+            final int distance) {
+        final double[] q = writerHeights;
+        final long[] n = writerPositions;
+        // the first samples are collected as they are, the markers are initialized with the fifth one
+        if (samples <= MARKERS) {
+            setDouble(values, base + OFFSET_MARKER_HEIGHTS + (int) samples - 1, distance);
+            if (samples == MARKERS) {
+                for (int i = 0; i < MARKERS; i++) {
+                    q[i] = Double.longBitsToDouble(values.get(base + OFFSET_MARKER_HEIGHTS + i));
+                }
+                Arrays.sort(q);
+                for (int i = 0; i < MARKERS; i++) {
+                    setDouble(values, base + OFFSET_MARKER_HEIGHTS + i, q[i]);
+                    values.set(base + OFFSET_MARKER_POSITIONS + i, i + 1);
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < MARKERS; i++) {
+            q[i] = Double.longBitsToDouble(values.get(base + OFFSET_MARKER_HEIGHTS + i));
+            n[i] = values.get(base + OFFSET_MARKER_POSITIONS + i);
+        }
+        final int k;
+        if (distance < q[0]) {
+            q[0] = distance;
+            k = 0;
+        } else if (distance >= q[4]) {
+            q[4] = Math.max(q[4], distance);
+            k = 3;
+        } else {
+            int cell = 0;
+            while (distance >= q[cell + 1]) {
+                cell++;
+            }
+            k = cell;
+        }
+        for (int i = k + 1; i < MARKERS; i++) {
+            n[i]++;
+        }
+        // desired positions of the markers for the median: 1, (n-1)/4, (n-1)/2, 3(n-1)/4 and n, counted from 1
+        for (int i = 1; i < MARKERS - 1; i++) {
+            final double desired = 1 + (samples - 1) * i / 4.0;
+            final double d = desired - n[i];
+            if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+                final int step = d > 0 ? 1 : -1;
+                final double candidate = parabolic(q, n, i, step);
+                if (q[i - 1] < candidate && candidate < q[i + 1]) {
+                    q[i] = candidate;
+                } else {
+                    q[i] = q[i] + step * (q[i + step] - q[i]) / (n[i + step] - n[i]);
+                }
+                n[i] += step;
+            }
+        }
+        for (int i = 0; i < MARKERS; i++) {
+            setDouble(values, base + OFFSET_MARKER_HEIGHTS + i, q[i]);
+            values.set(base + OFFSET_MARKER_POSITIONS + i, n[i]);
+        }
+    }
+
+    private static final class Storage {
+        private final int capacity;
+        private final AtomicIntegerArray sequences;
+        private final AtomicLongArray values;
+
+        private Storage(final int capacity) {
+            this.capacity = capacity;
+            sequences = new AtomicIntegerArray(capacity);
+            values = new AtomicLongArray(capacity * STRIDE);
+        }
+    }
+
+    /**
+     * Copy of the statistics of a single BSSID, distances in cm.
+     */
+    public static final class Statistics {
+        private final double[] heights = new double[MARKERS];
+        private final long[] statusCounts = new long[STATUS_SLOTS];
+        private String bssid;
+        private double ewma;
+        private double m2;
+        private int max;
+        private double mean;
+        private double median;
+        private int min;
+        private long results;
+        private long samples;
+
+        public String getBssid() {
+            return bssid;
+        }
+
+        /**
+         * @return the exponentially weighted moving average of the distance
+         */
+        public double getEwma() {
+            return ewma;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return the estimated median of the distance, exact for up to five samples
+         */
+        public double getMedian() {
+            return median;
+        }
+
+        public int getMin() {
+            return min;
+        }
+
+        /**
+         * @return the number of results of any status
+         */
+        public long getResultCount() {
+            return results;
+        }
+
+        /**
+         * @return the number of successful results, which contribute to the distance statistics
+         */
+        public long getSampleCount() {
+            return samples;
+        }
+
+        public double getStandardDeviation() {
+            return Math.sqrt(getVariance());
+        }
+
+        /**
+         * @param status one of the {@code RTT_STATUS_*} values of {@link RttManagerCompat}
+         * @return the number of results with the status
+         */
+        public long getStatusCount(final int status) {
+            return status >= 0 && status < STATUS_SLOTS - 1 ? statusCounts[status] : statusCounts[STATUS_SLOTS - 1];
+        }
+
+        /**
+         * @return the share of results with {@link RttManagerCompat#RTT_STATUS_SUCCESS}
+         */
+        public double getSuccessRate() {
+            return results == 0 ? 0 : statusCounts[RttManagerCompat.RTT_STATUS_SUCCESS] / (double) results;
+        }
+
+        /**
+         * @return the sample variance of the distance
+         */
+        public double getVariance() {
+            return samples > 1 ? m2 / (samples - 1) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics{bssid=" + bssid + ", samples=" + samples + ", mean=" + mean + ", median=" + median
+                    + ", ewma=" + ewma + ", successRate=" + getSuccessRate() + "}";
+        }
+
+        private void read(@NonNull final AtomicLongArray values, final int base) {
+            samples = values.get(base + OFFSET_SAMPLES);
+            mean = Double.longBitsToDouble(values.get(base + OFFSET_MEAN));
+            m2 = Double.longBitsToDouble(values.get(base + OFFSET_M2));
+            ewma = Double.longBitsToDouble(values.get(base + OFFSET_EWMA));
+            min = (int) values.get(base + OFFSET_MIN);
+            max = (int) values.get(base + OFFSET_MAX);
+            results = 0;
+            for (int i = 0; i < STATUS_SLOTS; i++) {
+                statusCounts[i] = values.get(base + OFFSET_STATUS_COUNTS + i);
+                results += statusCounts[i];
+            }
+            final int markers = (int) Math.min(samples, MARKERS);
+            for (int i = 0; i < markers; i++) {
+                heights[i] = Double.longBitsToDouble(values.get(base + OFFSET_MARKER_HEIGHTS + i));
+            }
+            if (samples > MARKERS) {
+                median = heights[2];
+            } else if (markers > 0) {
+                Arrays.sort(heights, 0, markers);
+                median = markers % 2 == 1 ? heights[markers / 2]
+                        : (heights[markers / 2 - 1] + heights[markers / 2]) / 2;
+            } else {
+                median = 0;
+            }
+        }
+    }
+}
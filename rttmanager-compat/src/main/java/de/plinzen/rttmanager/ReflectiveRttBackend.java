@@ -0,0 +1,202 @@
+package de.plinzen.rttmanager;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Default {@link RttBackend}, which forwards all calls to the hidden {@code android.net.wifi.RttManager} of the
+ * platform via reflection.
+ */
+public class ReflectiveRttBackend implements RttBackend {
+    private static final String TAG = ReflectiveRttBackend.class.getSimpleName();
+    private static final String WIFI_RTT_SERVICE = "rttmanager";
+    private final NativeCallbackRegistry<RttManagerCompat.ResponderCallback,
+            RttManagerCompat.ResponderCallbackWrapper> nativeResponderCallbacks;
+    private final NativeCallbackRegistry<RttManagerCompat.RttListener, RttManagerCompat.RttListenerWrapper>
+            nativeRttListeners;
+    private final Object rttManager;
+    private final Class<?> rttManagerClass;
+    private volatile RttManagerMethods rttManagerMethods;
+
+    @SuppressWarnings("WrongConstant")
+    public ReflectiveRttBackend(Context context) {
+        this.rttManager = context.getSystemService(WIFI_RTT_SERVICE);
+        rttManagerClass = rttManager.getClass();
+        nativeRttListeners = new NativeCallbackRegistry<>();
+        nativeResponderCallbacks = new NativeCallbackRegistry<>();
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    @Override
+    public void disableResponder(RttManagerCompat.ResponderCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback is not allowed to be null.");
+        }
+        final RttManagerCompat.ResponderCallbackWrapper selectedNativeCallback = nativeResponderCallbacks.unregister(
+                callback);
+        if (selectedNativeCallback == null) {
+            return;
+        }
+
+        try {
+            getRttManagerMethods().disableResponder().invoke(rttManager, selectedNativeCallback);
+        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException | ClassNotFoundException
+                e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.N)
+    @Override
+    public void enableResponder(RttManagerCompat.ResponderCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback is not allowed to be null.");
+        }
+        try {
+            final Method enableResponderMethod = getRttManagerMethods().enableResponder();
+            final RttManagerCompat.ResponderCallbackWrapper nativeCallback = RttManagerCompatUtil
+                    .wrapResponderCallback(callback, nativeResponderCallbacks);
+            nativeResponderCallbacks.register(callback, nativeCallback);
+            try {
+                enableResponderMethod.invoke(rttManager, nativeCallback);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                nativeResponderCallbacks.unregister(callback, nativeCallback);
+                throw e;
+            }
+        } catch (ClassNotFoundException | IllegalAccessException | NoSuchMethodException |
+                InvocationTargetException e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+
+    @Deprecated
+    @Override
+    public RttManagerCompat.Capabilities getCapabilities() {
+        try {
+            final Object nativeCapabilities = getRttManagerMethods().getCapabilities().invoke(rttManager);
+            return RttManagerCompatUtil.buildCapabilitiesFromNativeObject(nativeCapabilities);
+        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException | ClassNotFoundException
+                e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    @Override
+    public void prewarm() {
+        try {
+            getRttManagerMethods();
+            RttManagerCompatUtil.prewarm();
+        } catch (ClassNotFoundException e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public RttManagerCompat.RttCapabilities getRttCapabilities() {
+        try {
+            final Object nativeCapabilities = getRttManagerMethods().getRttCapabilities().invoke(rttManager);
+            return RttManagerCompatUtil.buildRttCapabilitiesFromNativeObject(nativeCapabilities);
+        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException | ClassNotFoundException
+                e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    @Override
+    public void startRanging(final RttManagerCompat.RttParams[] params,
+            final RttManagerCompat.RttListener listener) throws Throwable {
+        startRanging(params, listener, null);
+    }
+
+    @Override
+    public void startRanging(final RttManagerCompat.RttParams[] params, final RttManagerCompat.RttListener listener,
+            final RttResultBuffer buffer) throws Throwable {
+        try {
+            startNativeRanging(RttManagerCompatUtil.buildNativeRttParams(params), listener, buffer);
+        } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
+            reportFailure(listener, e);
+        }
+    }
+
+    @Override
+    public void startRanging(final PreparedRanging prepared, final RttManagerCompat.RttListener listener,
+            final RttResultBuffer buffer) throws Throwable {
+        // the platform reads the native params during the call, they must not be patched meanwhile
+        synchronized (prepared) {
+            try {
+                startNativeRanging(prepared.materialize(), listener, buffer);
+            } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
+                reportFailure(listener, e);
+            }
+        }
+    }
+
+    @Override
+    public void stopRanging(final RttManagerCompat.RttListener listener) {
+        if (listener == null) {
+            return;
+        }
+        final RttManagerCompat.RttListenerWrapper selectedNativeListener = nativeRttListeners.unregister(listener);
+        if (selectedNativeListener == null) {
+            return;
+        }
+        try {
+            getRttManagerMethods().stopRanging().invoke(rttManager, selectedNativeListener);
+        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException | ClassNotFoundException
+                e) {
+            Log.e(TAG, e.getMessage(), e);
+        }
+    }
+
+    private void startNativeRanging(final Object nativeParams, final RttManagerCompat.RttListener listener,
+            final RttResultBuffer buffer) throws Throwable {
+        try {
+            final Method startRangingMethod = getRttManagerMethods().startRanging();
+            final RttManagerCompat.RttListenerWrapper nativeListener = RttManagerCompatUtil.wrapRttListener(listener,
+                    nativeRttListeners, buffer);
+            // register before the request is started, the platform may report the result on another thread at once
+            if (nativeListener != null) {
+                nativeRttListeners.register(listener, nativeListener);
+            }
+            try {
+                startRangingMethod.invoke(rttManager, nativeParams, nativeListener);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                if (nativeListener != null) {
+                    nativeRttListeners.unregister(listener, nativeListener);
+                }
+                throw e;
+            }
+        } catch (ClassNotFoundException | IllegalAccessException | NoSuchMethodException e) {
+            reportFailure(listener, e);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Reports a request which could not be handed to the platform, so the caller does not wait for a callback
+     * forever.
+     */
+    private void reportFailure(final RttManagerCompat.RttListener listener, final Exception e) {
+        Log.e(TAG, e.getMessage(), e);
+        if (listener != null) {
+            listener.onFailure(RttManagerCompat.REASON_NOT_AVAILABLE, e.getMessage());
+        }
+    }
+
+    private RttManagerMethods getRttManagerMethods() throws ClassNotFoundException {
+        RttManagerMethods methods = rttManagerMethods;
+        if (methods == null) {
+            methods = RttManagerMethods.forClass(rttManagerClass);
+            rttManagerMethods = methods;
+        }
+        return methods;
+    }
+}
@@ -0,0 +1,301 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable spatial index of {@link ResponderRecord}s for venues with many responders. The records are kept in a
+ * balanced k-d tree over their positions, stored in flat arrays, so nearest and radius queries visit only the
+ * branches close to the query point instead of scanning all records.
+ * <p>
+ * The index is built once from the records of the venue. Queries do not modify it and can run on any thread.
+ */
+public final class ResponderIndex {
+
+    private final byte[] axes;
+    private final double[] coordinates;
+    private final ResponderRecord[] records;
+
+    public ResponderIndex(@NonNull final Collection<ResponderRecord> records) {
+        this.records = records.toArray(new ResponderRecord[records.size()]);
+        coordinates = new double[this.records.length * 3];
+        axes = new byte[this.records.length];
+        for (int i = 0; i < this.records.length; i++) {
+            setCoordinates(i);
+        }
+        build(0, this.records.length);
+    }
+
+    /**
+     * @return the params of the given records in the same order, see {@link ResponderRecord#getRttParams()}
+     */
+    @NonNull
+    public static RttManagerCompat.RttParams[] toRttParams(@NonNull final ResponderRecord[] records) {
+        final RttManagerCompat.RttParams[] params = new RttManagerCompat.RttParams[records.length];
+        for (int i = 0; i < records.length; i++) {
+            params[i] = records[i].getRttParams();
+        }
+        return params;
+    }
+
+    /**
+     * @return the params of the given records in the same order, see {@link ResponderRecord#getRttParams()}
+     */
+    @NonNull
+    public static RttManagerCompat.RttParams[] toRttParams(@NonNull final List<ResponderRecord> records) {
+        final RttManagerCompat.RttParams[] params = new RttManagerCompat.RttParams[records.size()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = records.get(i).getRttParams();
+        }
+        return params;
+    }
+
+    /**
+     * @return up to {@code k} records nearest to the position in metres, ordered by distance
+     */
+    @NonNull
+    public ResponderRecord[] findNearest(final double x, final double y, final double z, final int k) {
+        final NearestQuery query = new NearestQuery(x, y, z, Math.min(k, records.length));
+        if (query.capacity > 0) {
+            findNearest(0, records.length, query);
+        }
+        return query.sorted();
+    }
+
+    /**
+     * @return the records within {@code radius} metres of the position, ordered by distance
+     */
+    @NonNull
+    public List<ResponderRecord> findWithin(final double x, final double y, final double z, final double radius) {
+        final List<ResponderRecord> result = new ArrayList<>();
+        final List<Double> distances = new ArrayList<>();
+        findWithin(0, records.length, x, y, z, radius * radius, result, distances);
+        // insertion sort, the result of a radius query is small
+        for (int i = 1; i < result.size(); i++) {
+            final ResponderRecord record = result.get(i);
+            final double distance = distances.get(i);
+            int j = i - 1;
+            while (j >= 0 && distances.get(j) > distance) {
+                result.set(j + 1, result.get(j));
+                distances.set(j + 1, distances.get(j));
+                j--;
+            }
+            result.set(j + 1, record);
+            distances.set(j + 1, distance);
+        }
+        return result;
+    }
+
+    public int size() {
+        return records.length;
+    }
+
+    /**
+     * Builds the subtree of the range by moving its median along the axis with the largest spread to the middle.
+     */
+    private void build(final int from, final int to) {
+        if (to - from <= 1) {
+            return;
+        }
+        int axis = 0;
+        double largestSpread = -1;
+        for (int candidate = 0; candidate < 3; candidate++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                min = Math.min(min, coordinates[i * 3 + candidate]);
+                max = Math.max(max, coordinates[i * 3 + candidate]);
+            }
+            if (max - min > largestSpread) {
+                largestSpread = max - min;
+                axis = candidate;
+            }
+        }
+        final int middle = (from + to) >>> 1;
+        select(from, to - 1, middle, axis);
+        axes[middle] = (byte) axis;
+        build(from, middle);
+        build(middle + 1, to);
+    }
+
+    private double distanceSquared(final int node, final double x, final double y, final double z) {
+        final double dx = coordinates[node * 3] - x;
+        final double dy = coordinates[node * 3 + 1] - y;
+        final double dz = coordinates[node * 3 + 2] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void findNearest(final int from, final int to, @NonNull final NearestQuery query) {
+        if (from >= to) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        query.offer(middle, distanceSquared(middle, query.x, query.y, query.z));
+        if (to - from == 1) {
+            return;
+        }
+        final double offset = query.coordinate(axes[middle]) - coordinates[middle * 3 + axes[middle]];
+        if (offset < 0) {
+            findNearest(from, middle, query);
+            if (offset * offset < query.worst()) {
+                findNearest(middle + 1, to, query);
+            }
+        } else {
+            findNearest(middle + 1, to, query);
+            if (offset * offset < query.worst()) {
+                findNearest(from, middle, query);
+            }
+        }
+    }
+
+    private void findWithin(final int from, final int to, final double x, final double y, final double z,
+            final double radiusSquared, @NonNull final List<ResponderRecord> result,
+            @NonNull final List<Double> distances) {
+        if (from >= to) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        final double distance = distanceSquared(middle, x, y, z);
+        if (distance <= radiusSquared) {
+            result.add(records[middle]);
+            distances.add(distance);
+        }
+        final int axis = axes[middle];
+        final double offset = (axis == 0 ? x : axis == 1 ? y : z) - coordinates[middle * 3 + axis];
+        if (offset < 0 || offset * offset <= radiusSquared) {
+            findWithin(from, middle, x, y, z, radiusSquared, result, distances);
+        }
+        if (offset >= 0 || offset * offset <= radiusSquared) {
+            findWithin(middle + 1, to, x, y, z, radiusSquared, result, distances);
+        }
+    }
+
+    /**
+     * Quickselect: moves the record with rank {@code k} along the axis to position {@code k}, smaller ones before it
+     * and larger ones after it.
+     */
+    private void select(int left, int right, final int k, final int axis) {
+        while (left < right) {
+            final double pivot = coordinates[((left + right) >>> 1) * 3 + axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coordinates[i * 3 + axis] < pivot) {
+                    i++;
+                }
+                while (coordinates[j * 3 + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void setCoordinates(final int i) {
+        coordinates[i * 3] = records[i].getX();
+        coordinates[i * 3 + 1] = records[i].getY();
+        coordinates[i * 3 + 2] = records[i].getZ();
+    }
+
+    private void swap(final int first, final int second) {
+        final ResponderRecord record = records[first];
+        records[first] = records[second];
+        records[second] = record;
+        setCoordinates(first);
+        setCoordinates(second);
+    }
+
+    /**
+     * Bounded max heap of the nearest nodes found so far.
+     */
+    private final class NearestQuery {
+        private final int capacity;
+        private final double[] distances;
+        private final int[] nodes;
+        private final double x;
+        private final double y;
+        private final double z;
+        private int size;
+
+        private NearestQuery(final double x, final double y, final double z, final int capacity) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.capacity = Math.max(capacity, 0);
+            distances = new double[this.capacity];
+            nodes = new int[this.capacity];
+        }
+
+        private double coordinate(final int axis) {
+            return axis == 0 ? x : axis == 1 ? y : z;
+        }
+
+        private void offer(final int node, final double distance) {
+            if (size < capacity) {
+                int i = size++;
+                while (i > 0 && distances[(i - 1) / 2] < distance) {
+                    distances[i] = distances[(i - 1) / 2];
+                    nodes[i] = nodes[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                distances[i] = distance;
+                nodes[i] = node;
+            } else if (distance < distances[0]) {
+                siftDown(node, distance);
+            }
+        }
+
+        private void siftDown(final int node, final double distance) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[child] <= distance) {
+                    break;
+                }
+                distances[i] = distances[child];
+                nodes[i] = nodes[child];
+                i = child;
+            }
+            distances[i] = distance;
+            nodes[i] = node;
+        }
+
+        @NonNull
+        private ResponderRecord[] sorted() {
+            final ResponderRecord[] result = new ResponderRecord[size];
+            // removing the maximum repeatedly fills the result from the back
+            while (size > 0) {
+                result[size - 1] = records[nodes[0]];
+                size--;
+                if (size > 0) {
+                    siftDown(nodes[size], distances[size]);
+                }
+            }
+            return result;
+        }
+
+        private double worst() {
+            return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+        }
+    }
+}
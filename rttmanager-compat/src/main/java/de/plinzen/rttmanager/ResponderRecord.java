@@ -0,0 +1,160 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A known 802.11mc responder with its position in metres, its channel and an optional profile of the ranging
+ * features it supports. Records are stored in a {@link ResponderIndex}.
+ */
+public final class ResponderRecord {
+
+    private final String bssid;
+    private final int centerFreq0;
+    private final int centerFreq1;
+    private final int channelWidth;
+    private final int frequency;
+    private final RttManagerCompat.RttCapabilities profile;
+    private final double x;
+    private final double y;
+    private final double z;
+    private RttManagerCompat.RttParams params;
+
+    /**
+     * @param channelWidth one of the {@code RTT_CHANNEL_WIDTH_*} values of {@link RttManagerCompat}, like
+     *                     {@code ScanResult.channelWidth}
+     * @param profile      the ranging features of the responder, {@code null} if unknown
+     */
+    public ResponderRecord(@NonNull final String bssid, final double x, final double y, final double z,
+            final int frequency, final int centerFreq0, final int centerFreq1, final int channelWidth,
+            @Nullable final RttManagerCompat.RttCapabilities profile) {
+        this.bssid = bssid;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.frequency = frequency;
+        this.centerFreq0 = centerFreq0;
+        this.centerFreq1 = centerFreq1;
+        this.channelWidth = channelWidth;
+        this.profile = profile;
+    }
+
+    private static int bandwidth(final int channelWidth) {
+        switch (channelWidth) {
+            case RttManagerCompat.RTT_CHANNEL_WIDTH_5:
+                return RttManagerCompat.RTT_BW_5_SUPPORT;
+            case RttManagerCompat.RTT_CHANNEL_WIDTH_10:
+                return RttManagerCompat.RTT_BW_10_SUPPORT;
+            case RttManagerCompat.RTT_CHANNEL_WIDTH_40:
+                return RttManagerCompat.RTT_BW_40_SUPPORT;
+            case RttManagerCompat.RTT_CHANNEL_WIDTH_80:
+                return RttManagerCompat.RTT_BW_80_SUPPORT;
+            case RttManagerCompat.RTT_CHANNEL_WIDTH_160:
+            case RttManagerCompat.RTT_CHANNEL_WIDTH_80P80:
+                return RttManagerCompat.RTT_BW_160_SUPPORT;
+            default:
+                return RttManagerCompat.RTT_BW_20_SUPPORT;
+        }
+    }
+
+    private static int preamble(final int bandwidth) {
+        if (bandwidth >= RttManagerCompat.RTT_BW_80_SUPPORT) {
+            return RttManagerCompat.PREAMBLE_VHT;
+        }
+        return RttManagerCompat.PREAMBLE_HT;
+    }
+
+    @NonNull
+    public String getBssid() {
+        return bssid;
+    }
+
+    public int getCenterFreq0() {
+        return centerFreq0;
+    }
+
+    public int getCenterFreq1() {
+        return centerFreq1;
+    }
+
+    public int getChannelWidth() {
+        return channelWidth;
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    @Nullable
+    public RttManagerCompat.RttCapabilities getProfile() {
+        return profile;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    /**
+     * Returns the params to range the responder, built on first use. Two sided ranging is requested unless the
+     * profile only supports one sided ranging, LCI and LCR are requested if the profile supports them, bandwidth and
+     * preamble follow the channel width, limited to the profile.
+     * <p>
+     * The params are cached and shared by all callers, copy them before modifying them.
+     */
+    @NonNull
+    public synchronized RttManagerCompat.RttParams getRttParams() {
+        if (params == null) {
+            params = buildRttParams();
+        }
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return "ResponderRecord{bssid=" + bssid + ", x=" + x + ", y=" + y + ", z=" + z + ", frequency=" + frequency
+                + "}";
+    }
+
+    @NonNull
+    private RttManagerCompat.RttParams buildRttParams() {
+        final RttManagerCompat.RttParams rttParams = new RttManagerCompat.RttParams();
+        rttParams.bssid = bssid;
+        rttParams.frequency = frequency;
+        rttParams.centerFreq0 = centerFreq0;
+        rttParams.centerFreq1 = centerFreq1;
+        rttParams.channelWidth = channelWidth;
+        rttParams.bandwidth = bandwidth(channelWidth);
+        rttParams.preamble = preamble(rttParams.bandwidth);
+        rttParams.requestType = RttManagerCompat.RTT_TYPE_TWO_SIDED;
+        if (profile == null) {
+            return rttParams;
+        }
+        if (!profile.twoSided11McRttSupported && profile.oneSidedRttSupported) {
+            rttParams.requestType = RttManagerCompat.RTT_TYPE_ONE_SIDED;
+        }
+        final boolean twoSided = rttParams.requestType == RttManagerCompat.RTT_TYPE_TWO_SIDED;
+        rttParams.LCIRequest = twoSided && profile.lciSupported;
+        rttParams.LCRRequest = twoSided && profile.lcrSupported;
+        if (profile.bwSupported != 0 && (rttParams.bandwidth & profile.bwSupported) == 0) {
+            final int supported = RttParamsValidator.highestSupported(rttParams.bandwidth, profile.bwSupported);
+            if (supported != 0) {
+                rttParams.bandwidth = supported;
+            }
+        }
+        if (profile.preambleSupported != 0 && (rttParams.preamble & profile.preambleSupported) == 0) {
+            final int supported = RttParamsValidator.highestSupported(rttParams.preamble, profile.preambleSupported);
+            if (supported != 0) {
+                rttParams.preamble = supported;
+            }
+        }
+        return rttParams;
+    }
+}
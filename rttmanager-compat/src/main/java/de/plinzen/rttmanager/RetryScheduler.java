@@ -0,0 +1,459 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranges peers and retries those which reported a temporary failure:
+ * {@link RttManagerCompat#RTT_STATUS_FAIL_BUSY_TRY_LATER}, {@link RttManagerCompat#RTT_STATUS_FAIL_NOT_SCHEDULED_YET}
+ * or {@link RttManagerCompat#RTT_STATUS_FAIL_NO_RSP}.
+ * <p>
+ * A failed peer is retried after an exponential backoff with jitter, but never before the {@code retryAfterDuration}
+ * it reported. Due retries are not ranged on their own, they are added to the next request passed to
+ * {@link #startRanging(RttManagerCompat.RttParams[])}. If no request comes in time, a timer ranges all due retries
+ * together in one request. A peer is given up after {@link #setMaxAttempts(int)} consecutive failures, any other
+ * result resets its attempts. The retries of a request which fails as a whole are not counted and stay pending.
+ * <p>
+ * Retry counts are kept for the {@code 1024} most recently ranged peers, peers waiting for a retry are never
+ * dropped.
+ * <p>
+ * All results, including the failed ones, are delivered to the {@link RttManagerCompat.RttListener} on the thread of
+ * the platform callback. A scheduler is single use, it cannot be started again after {@link #stop()}.
+ */
+public class RetryScheduler {
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+    /**
+     * Retries due within this window are taken along with a request instead of waiting for the timer.
+     */
+    private static final long COALESCING_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int MAX_PEERS = 1024;
+    private static final String TAG = RetryScheduler.class.getSimpleName();
+    private final Set<RequestListener> activeRequests = new HashSet<>();
+    private final ScheduledExecutorService executor;
+    private final RttManagerCompat.RttListener listener;
+    private final boolean ownsExecutor;
+    private final Map<String, Peer> peers = new LinkedHashMap<String, Peer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Peer> eldest) {
+            if (size() <= MAX_PEERS) {
+                return false;
+            }
+            // drops the least recently ranged peer which is not retried, the eldest may be waiting for its retry
+            final Iterator<Peer> iterator = values().iterator();
+            while (iterator.hasNext()) {
+                final Peer peer = iterator.next();
+                if (peer.attempts == 0 && !peer.pending) {
+                    iterator.remove();
+                    break;
+                }
+            }
+            return false;
+        }
+    };
+    private final Random random = new Random();
+    private final RttManagerCompat rttManager;
+    private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private boolean stopped;
+    private ScheduledFuture<?> timer;
+    private long timerDueNanos;
+
+    public RetryScheduler(@NonNull final RttManagerCompat rttManager,
+            @NonNull final RttManagerCompat.RttListener listener) {
+        this(rttManager, listener, createExecutor(), true);
+    }
+
+    /**
+     * @param executor executor of the retry timer, it is not shut down by the scheduler
+     */
+    public RetryScheduler(@NonNull final RttManagerCompat rttManager,
+            @NonNull final RttManagerCompat.RttListener listener, @NonNull final ScheduledExecutorService executor) {
+        this(rttManager, listener, executor, false);
+    }
+
+    private RetryScheduler(@NonNull final RttManagerCompat rttManager,
+            @NonNull final RttManagerCompat.RttListener listener, @NonNull final ScheduledExecutorService executor,
+            final boolean ownsExecutor) {
+        this.rttManager = rttManager;
+        this.listener = listener;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    private static ScheduledExecutorService createExecutor() {
+        return new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                final Thread thread = new Thread(runnable, RetryScheduler.class.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static boolean isRetryable(final int status) {
+        return status == RttManagerCompat.RTT_STATUS_FAIL_BUSY_TRY_LATER
+                || status == RttManagerCompat.RTT_STATUS_FAIL_NOT_SCHEDULED_YET
+                || status == RttManagerCompat.RTT_STATUS_FAIL_NO_RSP;
+    }
+
+    public synchronized int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts number of retries of a peer after consecutive failures, default is
+     *                    {@link #DEFAULT_MAX_ATTEMPTS}
+     */
+    public synchronized void setMaxAttempts(final int maxAttempts) {
+        if (maxAttempts < 0) {
+            throw new IllegalArgumentException("maxAttempts must not be negative.");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return the number of peers waiting for a retry
+     */
+    public synchronized int getPendingRetries() {
+        int pending = 0;
+        for (Peer peer : peers.values()) {
+            if (peer.pending) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * @return the number of retries of the peer dispatched since the scheduler was created, 0 if the peer has not
+     * been ranged recently
+     */
+    public synchronized int getRetryCount(@NonNull final String bssid) {
+        final Peer peer = peers.get(bssid);
+        return peer != null ? peer.retries : 0;
+    }
+
+    /**
+     * @return the number of retries of every recently ranged peer, keyed by BSSID
+     */
+    @NonNull
+    public synchronized Map<String, Integer> getRetryCounts() {
+        final Map<String, Integer> retryCounts = new HashMap<>();
+        for (Map.Entry<String, Peer> peer : peers.entrySet()) {
+            retryCounts.put(peer.getKey(), peer.getValue().retries);
+        }
+        return Collections.unmodifiableMap(retryCounts);
+    }
+
+    /**
+     * @param baseDelayMillis delay before the first retry, doubled for every further attempt
+     * @param maxDelayMillis  upper limit of the delay, before jitter
+     */
+    public synchronized void setBackoff(final long baseDelayMillis, final long maxDelayMillis) {
+        if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid backoff " + baseDelayMillis + ", " + maxDelayMillis + ".");
+        }
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Ranges the params together with all retries which are due.
+     *
+     * @throws IllegalStateException if the scheduler has been stopped
+     */
+    public void startRanging(@NonNull final RttManagerCompat.RttParams[] params) {
+        final RttManagerCompat.RttParams[] batch;
+        final List<Peer> retried = new ArrayList<>();
+        synchronized (this) {
+            if (stopped) {
+                throw new IllegalStateException("The scheduler has been stopped.");
+            }
+            final Set<String> bssids = new HashSet<>();
+            for (RttManagerCompat.RttParams param : params) {
+                bssids.add(param.bssid);
+            }
+            final List<RttManagerCompat.RttParams> merged = new ArrayList<>(params.length);
+            Collections.addAll(merged, params);
+            takeDueRetries(System.nanoTime(), bssids, merged, retried);
+            batch = merged.toArray(new RttManagerCompat.RttParams[merged.size()]);
+        }
+        dispatch(batch, retried);
+    }
+
+    /**
+     * Stops the scheduler, pending retries are dropped and results of running requests are not delivered anymore. A
+     * stopped scheduler cannot be started again, create a new one instead.
+     */
+    public void stop() {
+        final List<RequestListener> requests;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+            for (Peer peer : peers.values()) {
+                peer.pending = false;
+            }
+            requests = new ArrayList<>(activeRequests);
+            activeRequests.clear();
+        }
+        for (RequestListener request : requests) {
+            rttManager.stopRanging(request);
+        }
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private long delayNanos(final int attempt, final int retryAfterDuration) {
+        final long backoff = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+        // equal jitter, half of the delay is fixed and half is random, so peers failing together spread out
+        final long jittered = backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(jittered, TimeUnit.SECONDS.toMillis(retryAfterDuration)));
+    }
+
+    /**
+     * @param retried the peers of the batch which are retried
+     */
+    private void dispatch(@NonNull final RttManagerCompat.RttParams[] batch, @NonNull final List<Peer> retried) {
+        if (batch.length == 0) {
+            return;
+        }
+        final RequestListener request = new RequestListener(batch, retried);
+        synchronized (this) {
+            for (RttManagerCompat.RttParams param : batch) {
+                Peer peer = peers.get(param.bssid);
+                if (peer == null) {
+                    peer = new Peer();
+                    peers.put(param.bssid, peer);
+                }
+                peer.params = param;
+            }
+            activeRequests.add(request);
+        }
+        try {
+            rttManager.startRanging(batch, request);
+        } catch (Throwable e) {
+            Log.e(TAG, e.getMessage(), e);
+            // the request may have reported a failure before throwing
+            if (finishRequest(request)) {
+                restoreRetries(retried);
+                listener.onFailure(RttManagerCompat.REASON_UNSPECIFIED, e.getMessage());
+            }
+        }
+    }
+
+    private synchronized boolean finishRequest(@NonNull final RequestListener request) {
+        return activeRequests.remove(request);
+    }
+
+    /**
+     * @param batch the params of the request which delivered the results
+     */
+    private void onResults(final RttManagerCompat.RttResult[] results,
+            @NonNull final RttManagerCompat.RttParams[] batch) {
+        if (results == null) {
+            return;
+        }
+        synchronized (this) {
+            final long now = System.nanoTime();
+            for (RttManagerCompat.RttResult result : results) {
+                final Peer peer = result != null ? peerOf(result.bssid, batch) : null;
+                if (peer == null) {
+                    continue;
+                }
+                if (!isRetryable(result.status)) {
+                    peer.attempts = 0;
+                } else if (peer.attempts < maxAttempts) {
+                    peer.attempts++;
+                    peer.pending = true;
+                    peer.dueNanos = now + delayNanos(peer.attempts, result.retryAfterDuration);
+                } else {
+                    Log.w(TAG, "Giving up " + result.bssid + " after " + peer.attempts + " retries.");
+                    peer.attempts = 0;
+                }
+            }
+            scheduleTimer(now);
+        }
+    }
+
+    /**
+     * @return the peer, it is added again if it has been dropped while the request of the batch was running, or
+     * {@code null} if the batch does not contain it
+     */
+    private Peer peerOf(final String bssid, @NonNull final RttManagerCompat.RttParams[] batch) {
+        Peer peer = peers.get(bssid);
+        if (peer != null || bssid == null) {
+            return peer;
+        }
+        for (RttManagerCompat.RttParams param : batch) {
+            if (bssid.equals(param.bssid)) {
+                peer = new Peer();
+                peer.params = param;
+                peers.put(bssid, peer);
+                break;
+            }
+        }
+        return peer;
+    }
+
+    private void onTimer() {
+        final RttManagerCompat.RttParams[] batch;
+        final List<Peer> retried = new ArrayList<>();
+        synchronized (this) {
+            timer = null;
+            if (stopped) {
+                return;
+            }
+            final List<RttManagerCompat.RttParams> due = new ArrayList<>();
+            final long now = System.nanoTime();
+            takeDueRetries(now, Collections.<String>emptySet(), due, retried);
+            batch = due.toArray(new RttManagerCompat.RttParams[due.size()]);
+            scheduleTimer(now);
+        }
+        dispatch(batch, retried);
+    }
+
+    /**
+     * Makes the retries of a request which has not been ranged pending again, they keep their due time and are not
+     * counted. The timer waits at least the base delay, so a failing platform is not called in a busy loop.
+     */
+    private synchronized void restoreRetries(@NonNull final List<Peer> retried) {
+        if (stopped || retried.isEmpty()) {
+            return;
+        }
+        for (Peer peer : retried) {
+            peer.retries--;
+            // a peer which has been ranged successfully in the meantime is not retried anymore
+            if (peer.attempts > 0) {
+                peer.pending = true;
+            }
+        }
+        final long now = System.nanoTime();
+        scheduleTimer(now, now + TimeUnit.MILLISECONDS.toNanos(baseDelayMillis));
+    }
+
+    private void scheduleTimer(final long now) {
+        scheduleTimer(now, now);
+    }
+
+    /**
+     * Arms the timer for the earliest pending retry, but not before {@code notBefore}, unless it is armed for that
+     * time already.
+     */
+    private void scheduleTimer(final long now, final long notBefore) {
+        long earliest = Long.MAX_VALUE;
+        for (Peer peer : peers.values()) {
+            if (peer.pending && peer.dueNanos < earliest) {
+                earliest = peer.dueNanos;
+            }
+        }
+        if (stopped || earliest == Long.MAX_VALUE) {
+            return;
+        }
+        final long due = Math.max(earliest, notBefore);
+        if (timer != null && timerDueNanos <= due) {
+            return;
+        }
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        timerDueNanos = due;
+        timer = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimer();
+            }
+        }, Math.max(0, due - now), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Moves the params of the retries due within the coalescing window into {@code batch} and their peers into
+     * {@code retried}. Retries of peers in {@code requested} are dropped, the request ranges them anyway.
+     */
+    private void takeDueRetries(final long now, @NonNull final Set<String> requested,
+            @NonNull final List<RttManagerCompat.RttParams> batch, @NonNull final List<Peer> retried) {
+        for (Map.Entry<String, Peer> entry : peers.entrySet()) {
+            final Peer peer = entry.getValue();
+            if (!peer.pending) {
+                continue;
+            }
+            if (requested.contains(entry.getKey())) {
+                peer.pending = false;
+            } else if (peer.dueNanos - now <= COALESCING_WINDOW_NANOS) {
+                peer.pending = false;
+                peer.retries++;
+                batch.add(peer.params);
+                retried.add(peer);
+            }
+        }
+    }
+
+    private static final class Peer {
+        private int attempts;
+        private long dueNanos;
+        private RttManagerCompat.RttParams params;
+        private boolean pending;
+        private int retries;
+    }
+
+    private final class RequestListener implements RttManagerCompat.RttListener {
+        private final RttManagerCompat.RttParams[] batch;
+        private final List<Peer> retried;
+
+        private RequestListener(@NonNull final RttManagerCompat.RttParams[] batch, @NonNull final List<Peer> retried) {
+            this.batch = batch;
+            this.retried = retried;
+        }
+
+        @Override
+        public void onAborted() {
+            if (finishRequest(this)) {
+                restoreRetries(retried);
+                listener.onAborted();
+            }
+        }
+
+        @Override
+        public void onFailure(final int reason, final String description) {
+            if (finishRequest(this)) {
+                restoreRetries(retried);
+                listener.onFailure(reason, description);
+            }
+        }
+
+        @Override
+        public void onSuccess(final RttManagerCompat.RttResult[] results) {
+            if (finishRequest(this)) {
+                onResults(results, batch);
+                listener.onSuccess(results);
+            }
+        }
+    }
+}
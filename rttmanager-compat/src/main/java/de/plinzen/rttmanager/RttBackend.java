@@ -0,0 +1,46 @@
+package de.plinzen.rttmanager;
+
+/**
+ * The service behind a {@link RttManagerCompat}. The default implementation {@link ReflectiveRttBackend} talks to
+ * the hidden {@code android.net.wifi.RttManager} of the platform, {@link SimulatedRttBackend} produces results
+ * in-process, e.g. for load tests and benchmarks on a plain JVM.
+ * <p>
+ * The contract of the methods matches the public methods of {@link RttManagerCompat}.
+ */
+public interface RttBackend {
+
+    void disableResponder(RttManagerCompat.ResponderCallback callback);
+
+    void enableResponder(RttManagerCompat.ResponderCallback callback);
+
+    /**
+     * @deprecated Use the new {@link RttBackend#getRttCapabilities()} API.
+     */
+    @Deprecated
+    RttManagerCompat.Capabilities getCapabilities();
+
+    RttManagerCompat.RttCapabilities getRttCapabilities();
+
+    /**
+     * Performs the expensive one-time setup of the backend. Backends without such setup may ignore this call.
+     */
+    void prewarm();
+
+    void startRanging(RttManagerCompat.RttParams[] params, RttManagerCompat.RttListener listener) throws Throwable;
+
+    /**
+     * Like {@link #startRanging(RttManagerCompat.RttParams[], RttManagerCompat.RttListener)}, but the results may be
+     * delivered in the objects of the given buffer. Backends which do not convert native results may ignore it.
+     */
+    void startRanging(RttManagerCompat.RttParams[] params, RttManagerCompat.RttListener listener,
+            RttResultBuffer buffer) throws Throwable;
+
+    /**
+     * Starts the request of a {@link PreparedRanging}. Backends which do not build native params may simply range
+     * {@link PreparedRanging#getParams()}.
+     */
+    void startRanging(PreparedRanging prepared, RttManagerCompat.RttListener listener, RttResultBuffer buffer)
+            throws Throwable;
+
+    void stopRanging(RttManagerCompat.RttListener listener);
+}
@@ -0,0 +1,16 @@
+package de.plinzen.rttmanager;
+
+/**
+ * Listener of a ranging request which receives the results as a columnar {@link RttResultBatch}, see
+ * {@link RttManagerCompat#startRangingBatched(RttManagerCompat.RttParams[], RttBatchListener, RttResultBatch)}.
+ */
+public interface RttBatchListener {
+    void onAborted();
+
+    void onFailure(int reason, String description);
+
+    /**
+     * @param batch the results, which are only valid until this method returns.
+     */
+    void onSuccess(RttResultBatch batch);
+}
@@ -0,0 +1,55 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Adapts a {@link RttBatchListener} to the {@link RttManagerCompat.RttListener} expected by the backends. The native
+ * listeners hand the native results to the adapter, which fills its batch straight from them. Results of other
+ * backends are copied from the compat results.
+ */
+final class RttBatchListenerAdapter implements RttManagerCompat.RttListener, NativeResultsConsumer {
+
+    private final RttResultBatch batch;
+    private final RttBatchListener batchListener;
+    private final NativeCallbackRegistry<RttBatchListener, RttBatchListenerAdapter> registry;
+
+    RttBatchListenerAdapter(@NonNull final RttBatchListener batchListener, @NonNull final RttResultBatch batch,
+            @NonNull final NativeCallbackRegistry<RttBatchListener, RttBatchListenerAdapter> registry) {
+        this.batchListener = batchListener;
+        this.batch = batch;
+        this.registry = registry;
+    }
+
+    @Override
+    public void onAborted() {
+        registry.unregister(batchListener, this);
+        batchListener.onAborted();
+    }
+
+    @Override
+    public void onFailure(final int reason, final String description) {
+        registry.unregister(batchListener, this);
+        batchListener.onFailure(reason, description);
+    }
+
+    @Override
+    public void onSuccess(final RttManagerCompat.RttResult[] results) {
+        registry.unregister(batchListener, this);
+        final int size = results != null ? results.length : 0;
+        batch.reset(size);
+        for (int i = 0; i < size; i++) {
+            final RttManagerCompat.RttResult result = results[i];
+            batch.set(i, result.bssid, result.status, result.distance, result.distanceStandardDeviation, result.rssi,
+                    result.ts, result.rtt, result.rttStandardDeviation);
+        }
+        batchListener.onSuccess(batch);
+    }
+
+    @Override
+    public void onNativeSuccess(@Nullable final Object nativeResults) {
+        registry.unregister(batchListener, this);
+        RttManagerCompatUtil.fillRttResultBatch(nativeResults, batch);
+        batchListener.onSuccess(batch);
+    }
+}
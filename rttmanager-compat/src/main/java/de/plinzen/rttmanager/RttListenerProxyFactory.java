@@ -0,0 +1,112 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Fallback for {@link NativeRttListener} if the native {@code RttListener} interface of the platform cannot be
+ * implemented directly. Creates {@link Proxy} instances whose dispatch compares the invoked {@link Method} against
+ * a table resolved once, instead of matching method names on every callback.
+ */
+final class RttListenerProxyFactory {
+
+    private static final int METHOD_GET_RTT_LISTENER_COMPAT = 0;
+    private static final int METHOD_ON_ABORTED = 1;
+    private static final int METHOD_ON_FAILURE = 2;
+    private static final int METHOD_ON_SUCCESS = 3;
+    private final Class<?>[] interfaces;
+    private final Method[] methods;
+
+    RttListenerProxyFactory() throws ClassNotFoundException, NoSuchMethodException {
+        final Class<?> listenerClass = Class.forName(RttManagerCompatUtil.CLASS_RTT_LISTENER);
+        final Class<?> nativeResultArrayClass = Array.newInstance(
+                Class.forName(RttManagerCompatUtil.CLASS_RTT_RESULT), 0).getClass();
+        interfaces = new Class[]{RttManagerCompat.RttListenerWrapper.class, listenerClass};
+        methods = new Method[]{
+                RttManagerCompat.RttListenerWrapper.class.getMethod("getRttListenerCompat"),
+                listenerClass.getMethod("onAborted"),
+                listenerClass.getMethod("onFailure", int.class, String.class),
+                listenerClass.getMethod("onSuccess", nativeResultArrayClass)};
+    }
+
+    RttManagerCompat.RttListenerWrapper newInstance(@NonNull final RttManagerCompat.RttListener rttListener,
+            @Nullable final NativeCallbackRegistry<RttManagerCompat.RttListener,
+                    RttManagerCompat.RttListenerWrapper> registry, @Nullable final RttResultBuffer buffer) {
+        final Handler handler = new Handler(rttListener, registry, buffer);
+        final RttManagerCompat.RttListenerWrapper wrapper = (RttManagerCompat.RttListenerWrapper) Proxy
+                .newProxyInstance(RttManagerCompat.RttListenerWrapper.class.getClassLoader(), interfaces, handler);
+        handler.wrapper = wrapper;
+        return wrapper;
+    }
+
+    private int indexOf(@NonNull final Method method) {
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].equals(method)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private final class Handler implements InvocationHandler {
+        private final RttResultBuffer buffer;
+        private final NativeCallbackRegistry<RttManagerCompat.RttListener, RttManagerCompat.RttListenerWrapper>
+                registry;
+        private final RttManagerCompat.RttListener rttListener;
+        private RttManagerCompat.RttListenerWrapper wrapper;
+
+        private Handler(@NonNull final RttManagerCompat.RttListener rttListener,
+                @Nullable final NativeCallbackRegistry<RttManagerCompat.RttListener,
+                        RttManagerCompat.RttListenerWrapper> registry, @Nullable final RttResultBuffer buffer) {
+            this.rttListener = rttListener;
+            this.registry = registry;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+            switch (indexOf(method)) {
+                case METHOD_ON_SUCCESS:
+                    unregister();
+                    RttManagerCompatUtil.deliverNativeResults(rttListener, args[0], buffer);
+                    return null;
+                case METHOD_ON_FAILURE:
+                    unregister();
+                    rttListener.onFailure((Integer) args[0], (String) args[1]);
+                    return null;
+                case METHOD_ON_ABORTED:
+                    unregister();
+                    rttListener.onAborted();
+                    return null;
+                case METHOD_GET_RTT_LISTENER_COMPAT:
+                    return rttListener;
+                default:
+                    return invokeObjectMethod(proxy, method, args);
+            }
+        }
+
+        private Object invokeObjectMethod(final Object proxy, final Method method, final Object[] args) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "RttListenerProxy{" + rttListener + "}";
+                default:
+                    return null;
+            }
+        }
+
+        private void unregister() {
+            if (registry != null) {
+                registry.unregister(rttListener, wrapper);
+            }
+        }
+    }
+}
@@ -2,18 +2,13 @@ package de.plinzen.rttmanager;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.IntentFilter;
 import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.util.Log;
-
-import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import android.support.annotation.NonNull;
 
 public class RttManagerCompat {
     public interface ResponderCallbackWrapper {
@@ -859,28 +854,29 @@ public class RttManagerCompat {
      */
     @Deprecated
     public static final int RTT_TYPE_UNSPECIFIED = 0;
-    private static final String METHOD_GET_CAPABILITIES = "getCapabilities";
-    private static final String METHOD_GET_RTT_CAPABILITIES = "getRttCapabilities";
-    private static final String TAG = RttManagerCompat.class.getSimpleName();
-    private static final String WIFI_RTT_SERVICE = "rttmanager";
-    private final Context context;
-    private final List<ResponderCallbackWrapper> nativeResponderCallbacks;
-    private final List<RttListenerWrapper> nativeRttListeners;
-    private final Object rttManager;
-    private final Class<?> rttManagerClass;
+    private final RttBackend backend;
+    private final NativeCallbackRegistry<RttBatchListener, RttBatchListenerAdapter> batchListeners =
+            new NativeCallbackRegistry<>();
+    private final Object capabilitiesLock = new Object();
+    private final NativeCallbackRegistry<LazyRttListener, LazyRttListenerAdapter> lazyListeners =
+            new NativeCallbackRegistry<>();
+    private volatile RttCapabilities cachedCapabilities;
+    private int capabilitiesGeneration;
+    private WifiStateReceiver wifiStateReceiver;
 
-    @SuppressWarnings("WrongConstant")
     public RttManagerCompat(Context context) {
-        this.context = context;
-        this.rttManager = context.getSystemService(WIFI_RTT_SERVICE);
-        rttManagerClass = rttManager.getClass();
-        nativeRttListeners = new LinkedList<>();
-        nativeResponderCallbacks = new LinkedList<>();
+        this(new ReflectiveRttBackend(context));
+    }
+
+    /**
+     * Creates a {@link RttManagerCompat} which uses the given backend instead of the platform RttManager, e.g. a
+     * {@link SimulatedRttBackend} for tests and benchmarks.
+     */
+    public RttManagerCompat(@NonNull RttBackend backend) {
+        this.backend = backend;
     }
 
     /**
-     * * <b>CURRENTLY THIS FEATURE IS NOT WORKING</b>
-     * <p>
      * Disable Wi-Fi RTT responder mode on the device. The {@code callback} needs to be the
      * same one used in {@link #enableResponder(ResponderCallback)}.
      * <p>
@@ -892,35 +888,10 @@ public class RttManagerCompat {
      */
     @TargetApi(Build.VERSION_CODES.N)
     public void disableResponder(ResponderCallback callback) {
-        if (callback == null) {
-            throw new IllegalArgumentException("callback is not allowed to be null.");
-        }
-        ResponderCallbackWrapper selectedNativeCallback = null;
-        final Iterator<ResponderCallbackWrapper> it = nativeResponderCallbacks.iterator();
-        while (selectedNativeCallback == null && it.hasNext()) {
-            final ResponderCallbackWrapper wrapper = it.next();
-            if (callback == wrapper.getResponderCallback()) {
-                selectedNativeCallback = wrapper;
-                it.remove();
-            }
-        }
-        if (selectedNativeCallback == null) {
-            return;
-        }
-
-        try {
-            final Method disableResponder = rttManagerClass.getMethod("disableResponder", Class.forName
-                    (RttManagerCompatUtil.CLASS_RESPONDER_CALLBACK));
-            disableResponder.invoke(rttManager, selectedNativeCallback);
-        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException | ClassNotFoundException
-                e) {
-            Log.e(TAG, e.getMessage(), e);
-        }
+        backend.disableResponder(callback);
     }
 
     /**
-     * <b>CURRENTLY THIS FEATURE IS NOT WORKING</b>
-     * <p>
      * Enable Wi-Fi RTT responder mode on the device. The enabling result will be delivered via
      * {@code callback}.
      * <p>
@@ -933,19 +904,7 @@ public class RttManagerCompat {
      */
     @TargetApi(Build.VERSION_CODES.N)
     public void enableResponder(ResponderCallback callback) {
-        if (callback == null) {
-            throw new IllegalArgumentException("callback is not allowed to be null.");
-        }
-        try {
-            final ResponderCallbackWrapper nativeCallback = RttManagerCompatUtil.wrapResponderCallback(callback);
-            final Method startRangingMethod = rttManagerClass.getMethod("enableResponder", Class.forName
-                    (RttManagerCompatUtil.CLASS_RESPONDER_CALLBACK));
-            startRangingMethod.invoke(rttManager, nativeCallback);
-            nativeResponderCallbacks.add(nativeCallback);
-        } catch (ClassNotFoundException | IllegalAccessException | NoSuchMethodException | InstantiationException |
-                InvocationTargetException e) {
-            Log.e(TAG, e.getMessage(), e);
-        }
+        backend.enableResponder(callback);
     }
 
     /**
@@ -953,27 +912,94 @@ public class RttManagerCompat {
      */
     @Deprecated
     public Capabilities getCapabilities() {
-        try {
-            final Object nativeCapabilities = rttManagerClass.getMethod(METHOD_GET_CAPABILITIES).invoke(rttManager);
-            return RttManagerCompatUtil.buildCapabilitiesFromNativeObject(nativeCapabilities);
-        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-            Log.e(TAG, e.getMessage(), e);
-        }
-        return null;
+        return backend.getCapabilities();
     }
 
+    /**
+     * Resolves the reflective handles of the native {@code RttManager} and prepares the result converters up
+     * front. Calling this method is optional, otherwise the work is done lazily on the first request. Call it e.g.
+     * during the start of your ranging service to keep the latency of the first {@link #startRanging(RttParams[],
+     * RttListener)} low.
+     */
+    public void prewarm() {
+        backend.prewarm();
+    }
+
+    /**
+     * Returns the RTT capabilities of the device. The capabilities are queried once and cached afterwards, until
+     * they are invalidated by {@link #invalidateRttCapabilities()} or a Wi-Fi state change, see
+     * {@link #registerWifiStateReceiver(Context)}. Reading the cached capabilities does not block.
+     * <p>
+     * The returned object is shared by all callers and must not be modified.
+     */
     public RttCapabilities getRttCapabilities() {
-        try {
-            final Object nativeCapabilities = rttManagerClass.getMethod(METHOD_GET_RTT_CAPABILITIES).invoke(rttManager);
-            return RttManagerCompatUtil.buildRttCapabilitiesFromNativeObject(nativeCapabilities);
-        } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-            Log.e(TAG, e.getMessage(), e);
+        final RttCapabilities capabilities = cachedCapabilities;
+        if (capabilities != null) {
+            return capabilities;
+        }
+        final int generation;
+        synchronized (capabilitiesLock) {
+            generation = capabilitiesGeneration;
+        }
+        final RttCapabilities queriedCapabilities = backend.getRttCapabilities();
+        if (queriedCapabilities != null) {
+            synchronized (capabilitiesLock) {
+                // an invalidation during the query might have made the result stale
+                if (generation == capabilitiesGeneration) {
+                    cachedCapabilities = queriedCapabilities;
+                }
+            }
+        }
+        return queriedCapabilities;
+    }
+
+    /**
+     * Drops the cached RTT capabilities, the next {@link #getRttCapabilities()} queries them again.
+     */
+    public void invalidateRttCapabilities() {
+        synchronized (capabilitiesLock) {
+            capabilitiesGeneration++;
+            cachedCapabilities = null;
+        }
+    }
+
+    /**
+     * Queries the RTT capabilities again and updates the cache.
+     */
+    public RttCapabilities refreshRttCapabilities() {
+        invalidateRttCapabilities();
+        return getRttCapabilities();
+    }
+
+    /**
+     * Invalidates the cached RTT capabilities whenever the Wi-Fi state changes. Call
+     * {@link #unregisterWifiStateReceiver(Context)} when the {@link RttManagerCompat} is not used anymore.
+     */
+    public void registerWifiStateReceiver(@NonNull final Context context) {
+        synchronized (capabilitiesLock) {
+            if (wifiStateReceiver != null) {
+                return;
+            }
+            wifiStateReceiver = new WifiStateReceiver(this);
+            context.registerReceiver(wifiStateReceiver, new IntentFilter(WifiManager.WIFI_STATE_CHANGED_ACTION));
+        }
+    }
+
+    public void unregisterWifiStateReceiver(@NonNull final Context context) {
+        synchronized (capabilitiesLock) {
+            if (wifiStateReceiver != null) {
+                context.unregisterReceiver(wifiStateReceiver);
+                wifiStateReceiver = null;
+            }
         }
-        return null;
     }
 
     /**
      * Request to start an RTT ranging
+     * <p>
+     * If the ranging API of the platform can not be reached, the request is not started and
+     * {@link RttListener#onFailure(int, String)} is called with {@link #REASON_NOT_AVAILABLE} on the calling thread,
+     * before this method returns. This applies to all {@code startRanging} methods.
      *
      * @param params   -- RTT request Parameters
      * @param listener -- Call back to inform RTT result
@@ -981,51 +1007,110 @@ public class RttManagerCompat {
      *               throw IllegalStateException when RttCapabilities do not exist
      */
     public void startRanging(final RttParams[] params, final RttListener listener) throws Throwable {
-        try {
-            final Object nativeParams = RttManagerCompatUtil.buildNativeRttParams(params);
-            final RttListenerWrapper nativeListener = RttManagerCompatUtil.wrapRttListener(listener);
+        backend.startRanging(params, listener);
+    }
 
-            final Class<?> listenerClass = Class.forName(RttManagerCompatUtil.CLASS_RTT_LISTENER);
-            final Class<?> nativeParamsArrayClass = Array.newInstance(
-                    Class.forName(RttManagerCompatUtil.CLASS_RTT_PARAMS), 0).getClass();
+    /**
+     * Request to start an RTT ranging, which delivers the results in the reused objects of the given buffer instead
+     * of new objects. The results passed to {@link RttListener#onSuccess(RttResult[])} are only valid until the next
+     * request delivers into the same buffer, see {@link RttResultBuffer}.
+     *
+     * @param params   -- RTT request Parameters
+     * @param listener -- Call back to inform RTT result
+     * @param buffer   -- Storage of the RTT results
+     * @throws throw IllegalArgumentException when params are illegal
+     *               throw IllegalStateException when RttCapabilities do not exist
+     */
+    public void startRanging(final RttParams[] params, final RttListener listener,
+            @NonNull final RttResultBuffer buffer) throws Throwable {
+        backend.startRanging(params, listener, buffer);
+    }
+
+    /**
+     * Request to start the RTT ranging of a {@link PreparedRanging}. The native params of the request are reused,
+     * only params which have been changed since the last start are converted again.
+     *
+     * @param prepared -- Prepared RTT request
+     * @param listener -- Call back to inform RTT result
+     * @throws throw IllegalArgumentException when params are illegal
+     *               throw IllegalStateException when RttCapabilities do not exist
+     */
+    public void startRanging(@NonNull final PreparedRanging prepared, final RttListener listener) throws Throwable {
+        backend.startRanging(prepared, listener, null);
+    }
+
+    /**
+     * Like {@link #startRanging(PreparedRanging, RttListener)}, but delivers the results in the reused objects of the
+     * given buffer, see {@link RttResultBuffer}.
+     */
+    public void startRanging(@NonNull final PreparedRanging prepared, final RttListener listener,
+            @NonNull final RttResultBuffer buffer) throws Throwable {
+        backend.startRanging(prepared, listener, buffer);
+    }
+
+    /**
+     * Request to start an RTT ranging, which delivers the results as columns of primitive arrays. The native results
+     * are copied straight into the given batch, see {@link RttResultBatch}.
+     *
+     * @param params   -- RTT request Parameters
+     * @param listener -- Call back to inform RTT result
+     * @param batch    -- Storage of the RTT results
+     * @throws throw IllegalArgumentException when params are illegal
+     *               throw IllegalStateException when RttCapabilities do not exist
+     */
+    public void startRangingBatched(final RttParams[] params, @NonNull final RttBatchListener listener,
+            @NonNull final RttResultBatch batch) throws Throwable {
+        final RttBatchListenerAdapter adapter = new RttBatchListenerAdapter(listener, batch, batchListeners);
+        batchListeners.register(listener, adapter);
+        try {
+            backend.startRanging(params, adapter);
+        } catch (Throwable e) {
+            batchListeners.unregister(listener, adapter);
+            throw e;
+        }
+    }
 
-            final Method startRangingMethod = rttManagerClass.getMethod("startRanging", nativeParamsArrayClass,
-                    listenerClass);
-            startRangingMethod.invoke(rttManager, nativeParams, nativeListener);
-            nativeRttListeners.add(nativeListener);
-        } catch (ClassNotFoundException | IllegalAccessException | NoSuchMethodException |
-                InstantiationException e) {
-            Log.e(TAG, e.getMessage(), e);
-        } catch (InvocationTargetException e) {
-            throw e.getTargetException();
+    /**
+     * Request to start an RTT ranging, which delivers the results as {@link LazyRttResult} views. A field of a
+     * native result is only converted when it is read for the first time.
+     *
+     * @param params   -- RTT request Parameters
+     * @param listener -- Call back to inform RTT result
+     * @throws throw IllegalArgumentException when params are illegal
+     *               throw IllegalStateException when RttCapabilities do not exist
+     */
+    public void startRangingLazy(final RttParams[] params, @NonNull final LazyRttListener listener) throws Throwable {
+        final LazyRttListenerAdapter adapter = new LazyRttListenerAdapter(listener, lazyListeners);
+        lazyListeners.register(listener, adapter);
+        try {
+            backend.startRanging(params, adapter);
+        } catch (Throwable e) {
+            lazyListeners.unregister(listener, adapter);
+            throw e;
         }
     }
 
     public void stopRanging(final RttListener listener) {
+        backend.stopRanging(listener);
+    }
+
+    public void stopRangingLazy(final LazyRttListener listener) {
         if (listener == null) {
             return;
         }
-        RttListenerWrapper selectedNativeListener = null;
-        final Iterator<RttListenerWrapper> it = nativeRttListeners.iterator();
-        while (selectedNativeListener == null && it.hasNext()) {
-            final RttListenerWrapper wrapper = it.next();
-            if (listener == wrapper.getRttListenerCompat()) {
-                selectedNativeListener = wrapper;
-                it.remove();
-            }
+        final LazyRttListenerAdapter adapter = lazyListeners.unregister(listener);
+        if (adapter != null) {
+            backend.stopRanging(adapter);
         }
-        if (selectedNativeListener == null) {
+    }
+
+    public void stopRangingBatched(final RttBatchListener listener) {
+        if (listener == null) {
             return;
         }
-        try {
-            final Class<?> listenerClass = Class.forName(RttManagerCompatUtil.CLASS_RTT_LISTENER);
-            final Method stopRangingMethod = rttManagerClass.getMethod("stopRanging", listenerClass);
-            stopRangingMethod.invoke(rttManager, selectedNativeListener);
-        } catch (NoSuchMethodException | InvocationTargetException | IllegalAccessException | ClassNotFoundException
-                e) {
-            Log.e(TAG, e.getMessage(), e);
+        final RttBatchListenerAdapter adapter = batchListeners.unregister(listener);
+        if (adapter != null) {
+            backend.stopRanging(adapter);
         }
     }
-
-
-}
\ No newline at end of file
+}
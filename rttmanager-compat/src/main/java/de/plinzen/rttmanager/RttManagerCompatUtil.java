@@ -1,26 +1,30 @@
 package de.plinzen.rttmanager;
 
+import android.net.wifi.RttManager;
 import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Proxy;
+import java.lang.reflect.Field;
 
 class RttManagerCompatUtil {
 
     static final String CLASS_RESPONDER_CALLBACK = "android.net.wifi.RttManager$ResponderCallback";
     static final String CLASS_RTT_LISTENER = "android.net.wifi.RttManager$RttListener";
     static final String CLASS_RTT_PARAMS = "android.net.wifi.RttManager$RttParams";
+    static final String CLASS_RTT_RESULT = "android.net.wifi.RttManager$RttResult";
     private static final String TAG = RttManagerCompatUtil.class.getSimpleName();
+    private static volatile boolean nativeRttListenerSupported = true;
+    private static volatile RttListenerProxyFactory rttListenerProxyFactory;
 
     static RttManagerCompat.Capabilities buildCapabilitiesFromNativeObject(
             @NonNull final Object nativeCapabilities) {
-        final Class<?> nativeCapabilitiesClass = nativeCapabilities.getClass();
+        final NativeFieldTable nativeCapabilitiesTable = NativeFieldTable.forClass(nativeCapabilities.getClass());
         final RttManagerCompat.Capabilities capabilities = new RttManagerCompat.Capabilities();
-        capabilities.supportedType = readInt(nativeCapabilitiesClass, nativeCapabilities, "supportedType");
-        capabilities.supportedPeerType = readInt(nativeCapabilitiesClass, nativeCapabilities, "supportedPeerType");
+        capabilities.supportedType = readInt(nativeCapabilitiesTable, nativeCapabilities, "supportedType");
+        capabilities.supportedPeerType = readInt(nativeCapabilitiesTable, nativeCapabilities, "supportedPeerType");
         return capabilities;
     }
 
@@ -30,261 +34,455 @@ class RttManagerCompatUtil {
         if (params == null) {
             return null;
         }
+        if (DirectRttConverter.isAvailable(DirectRttConverter.TYPE_PARAMS)) {
+            try {
+                return DirectRttConverter.buildNativeRttParams(params);
+            } catch (LinkageError e) {
+                DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_PARAMS, e);
+            }
+        }
+        return buildNativeRttParamsReflective(params);
+    }
+
+    static void copyRttParams(@NonNull final RttManagerCompat.RttParams source,
+            @NonNull final RttManagerCompat.RttParams target) {
+        target.deviceType = source.deviceType;
+        target.requestType = source.requestType;
+        target.secure = source.secure;
+        target.bssid = source.bssid;
+        target.frequency = source.frequency;
+        target.channelWidth = source.channelWidth;
+        target.centerFreq0 = source.centerFreq0;
+        target.centerFreq1 = source.centerFreq1;
+        target.num_samples = source.num_samples;
+        target.num_retries = source.num_retries;
+        target.numberBurst = source.numberBurst;
+        target.interval = source.interval;
+        target.numSamplesPerBurst = source.numSamplesPerBurst;
+        target.numRetriesPerMeasurementFrame = source.numRetriesPerMeasurementFrame;
+        target.numRetriesPerFTMR = source.numRetriesPerFTMR;
+        target.LCIRequest = source.LCIRequest;
+        target.LCRRequest = source.LCRRequest;
+        target.burstTimeout = source.burstTimeout;
+        target.preamble = source.preamble;
+        target.bandwidth = source.bandwidth;
+    }
+
+    /**
+     * Writes the param into the element of a native array built by
+     * {@link #buildNativeRttParams(RttManagerCompat.RttParams[])}.
+     */
+    static void updateNativeRttParam(@NonNull final Object nativeParams, final int index,
+            @NonNull final RttManagerCompat.RttParams param) {
+        final Object nativeParam = Array.get(nativeParams, index);
+        if (DirectRttConverter.isAvailable(DirectRttConverter.TYPE_PARAMS)) {
+            try {
+                DirectRttConverter.copyRttParams(param, (RttManager.RttParams) nativeParam);
+                return;
+            } catch (LinkageError | ClassCastException e) {
+                DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_PARAMS, e);
+            }
+        }
+        copyRttParamsReflective(NativeFieldTable.forClass(nativeParam.getClass()), param, nativeParam);
+    }
+
+    static RttManagerCompat.RttCapabilities buildRttCapabilitiesFromNativeObject(final Object nativeCapabilities) {
+        if (nativeCapabilities == null) {
+            return null;
+        }
+        if (DirectRttConverter.isAvailable(DirectRttConverter.TYPE_CAPABILITIES)) {
+            try {
+                return DirectRttConverter.buildRttCapabilities((RttManager.RttCapabilities) nativeCapabilities);
+            } catch (LinkageError | ClassCastException e) {
+                DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_CAPABILITIES, e);
+            }
+        }
+        return buildRttCapabilitiesReflective(nativeCapabilities);
+    }
+
+    private static Object buildNativeRttParamsReflective(@NonNull final RttManagerCompat.RttParams[] params) throws
+            ClassNotFoundException, IllegalAccessException, InstantiationException {
         final Class<?> nativeParamClass = Class.forName(CLASS_RTT_PARAMS);
+        final NativeFieldTable nativeParamTable = NativeFieldTable.forClass(nativeParamClass);
         final Object nativeParams = Array.newInstance(nativeParamClass, params.length);
         for (int i = 0; i < params.length; i++) {
-            final RttManagerCompat.RttParams rttParam = params[i];
             final Object nativeParam = nativeParamClass.newInstance();
-            setInt(nativeParamClass, nativeParam, "deviceType", rttParam.deviceType);
-            setInt(nativeParamClass, nativeParam, "requestType", rttParam.requestType);
-
-            setBoolean(nativeParamClass, nativeParam, "secure", rttParam.secure);
-            setObject(nativeParamClass, nativeParam, "bssid", rttParam.bssid);
-            setInt(nativeParamClass, nativeParam, "frequency", rttParam.frequency);
-            setInt(nativeParamClass, nativeParam, "channelWidth", rttParam.channelWidth);
-            setInt(nativeParamClass, nativeParam, "centerFreq0", rttParam.centerFreq0);
-            setInt(nativeParamClass, nativeParam, "centerFreq1", rttParam.centerFreq1);
-            setInt(nativeParamClass, nativeParam, "num_samples", rttParam.num_samples);
-            setInt(nativeParamClass, nativeParam, "num_retries", rttParam.num_retries);
-            setInt(nativeParamClass, nativeParam, "numberBurst", rttParam.numberBurst);
-            setInt(nativeParamClass, nativeParam, "interval", rttParam.interval);
-            setInt(nativeParamClass, nativeParam, "numSamplesPerBurst", rttParam.numSamplesPerBurst);
-            setInt(nativeParamClass, nativeParam, "numRetriesPerMeasurementFrame", rttParam
-                    .numRetriesPerMeasurementFrame);
-            setInt(nativeParamClass, nativeParam, "numRetriesPerFTMR", rttParam.numRetriesPerFTMR);
-            setBoolean(nativeParamClass, nativeParam, "LCIRequest", rttParam.LCIRequest);
-            setBoolean(nativeParamClass, nativeParam, "LCRRequest", rttParam.LCRRequest);
-            setInt(nativeParamClass, nativeParam, "burstTimeout", rttParam.burstTimeout);
-            setInt(nativeParamClass, nativeParam, "preamble", rttParam.preamble);
-            setInt(nativeParamClass, nativeParam, "bandwidth", rttParam.bandwidth);
+            copyRttParamsReflective(nativeParamTable, params[i], nativeParam);
             Array.set(nativeParams, i, nativeParam);
         }
         return nativeParams;
     }
 
-    static RttManagerCompat.RttCapabilities buildRttCapabilitiesFromNativeObject(final Object nativeCapabilities) {
-        if (nativeCapabilities == null) {
-            return null;
-        }
-        final Class<?> nativeCapabilitiesClass = nativeCapabilities.getClass();
+    private static void copyRttParamsReflective(@NonNull final NativeFieldTable nativeParamTable,
+            @NonNull final RttManagerCompat.RttParams rttParam, @NonNull final Object nativeParam) {
+        setInt(nativeParamTable, nativeParam, "deviceType", rttParam.deviceType);
+        setInt(nativeParamTable, nativeParam, "requestType", rttParam.requestType);
+
+        setBoolean(nativeParamTable, nativeParam, "secure", rttParam.secure);
+        setObject(nativeParamTable, nativeParam, "bssid", rttParam.bssid);
+        setInt(nativeParamTable, nativeParam, "frequency", rttParam.frequency);
+        setInt(nativeParamTable, nativeParam, "channelWidth", rttParam.channelWidth);
+        setInt(nativeParamTable, nativeParam, "centerFreq0", rttParam.centerFreq0);
+        setInt(nativeParamTable, nativeParam, "centerFreq1", rttParam.centerFreq1);
+        setInt(nativeParamTable, nativeParam, "num_samples", rttParam.num_samples);
+        setInt(nativeParamTable, nativeParam, "num_retries", rttParam.num_retries);
+        setInt(nativeParamTable, nativeParam, "numberBurst", rttParam.numberBurst);
+        setInt(nativeParamTable, nativeParam, "interval", rttParam.interval);
+        setInt(nativeParamTable, nativeParam, "numSamplesPerBurst", rttParam.numSamplesPerBurst);
+        setInt(nativeParamTable, nativeParam, "numRetriesPerMeasurementFrame", rttParam
+                .numRetriesPerMeasurementFrame);
+        setInt(nativeParamTable, nativeParam, "numRetriesPerFTMR", rttParam.numRetriesPerFTMR);
+        setBoolean(nativeParamTable, nativeParam, "LCIRequest", rttParam.LCIRequest);
+        setBoolean(nativeParamTable, nativeParam, "LCRRequest", rttParam.LCRRequest);
+        setInt(nativeParamTable, nativeParam, "burstTimeout", rttParam.burstTimeout);
+        setInt(nativeParamTable, nativeParam, "preamble", rttParam.preamble);
+        setInt(nativeParamTable, nativeParam, "bandwidth", rttParam.bandwidth);
+    }
+
+    private static RttManagerCompat.RttCapabilities buildRttCapabilitiesReflective(
+            @NonNull final Object nativeCapabilities) {
+        final NativeFieldTable nativeCapabilitiesTable = NativeFieldTable.forClass(nativeCapabilities.getClass());
         final RttManagerCompat.RttCapabilities capabilities = new RttManagerCompat.RttCapabilities();
 
-        capabilities.supportedType = readBoolean(nativeCapabilitiesClass, nativeCapabilities, "supportedType");
-        capabilities.supportedPeerType = readBoolean(nativeCapabilitiesClass, nativeCapabilities, "supportedPeerType");
-        capabilities.oneSidedRttSupported = readBoolean(nativeCapabilitiesClass, nativeCapabilities,
+        capabilities.supportedType = readBoolean(nativeCapabilitiesTable, nativeCapabilities, "supportedType");
+        capabilities.supportedPeerType = readBoolean(nativeCapabilitiesTable, nativeCapabilities, "supportedPeerType");
+        capabilities.oneSidedRttSupported = readBoolean(nativeCapabilitiesTable, nativeCapabilities,
                 "oneSidedRttSupported");
-        capabilities.twoSided11McRttSupported = readBoolean(nativeCapabilitiesClass, nativeCapabilities,
+        capabilities.twoSided11McRttSupported = readBoolean(nativeCapabilitiesTable, nativeCapabilities,
                 "twoSided11McRttSupported");
-        capabilities.lciSupported = readBoolean(nativeCapabilitiesClass, nativeCapabilities, "lciSupported");
-        capabilities.lcrSupported = readBoolean(nativeCapabilitiesClass, nativeCapabilities, "lcrSupported");
-        capabilities.preambleSupported = readInt(nativeCapabilitiesClass, nativeCapabilities, "preambleSupported");
-        capabilities.bwSupported = readInt(nativeCapabilitiesClass, nativeCapabilities, "bwSupported");
-        capabilities.responderSupported = readBoolean(nativeCapabilitiesClass, nativeCapabilities,
+        capabilities.lciSupported = readBoolean(nativeCapabilitiesTable, nativeCapabilities, "lciSupported");
+        capabilities.lcrSupported = readBoolean(nativeCapabilitiesTable, nativeCapabilities, "lcrSupported");
+        capabilities.preambleSupported = readInt(nativeCapabilitiesTable, nativeCapabilities, "preambleSupported");
+        capabilities.bwSupported = readInt(nativeCapabilitiesTable, nativeCapabilities, "bwSupported");
+        capabilities.responderSupported = readBoolean(nativeCapabilitiesTable, nativeCapabilities,
                 "responderSupported");
 
         // secureRttSupported and mcVersion were introduced with Android N
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            capabilities.secureRttSupported = readBoolean(nativeCapabilitiesClass, nativeCapabilities,
+            capabilities.secureRttSupported = readBoolean(nativeCapabilitiesTable, nativeCapabilities,
                     "secureRttSupported");
-            capabilities.mcVersion = readInt(nativeCapabilitiesClass, nativeCapabilities, "mcVersion");
+            capabilities.mcVersion = readInt(nativeCapabilitiesTable, nativeCapabilities, "mcVersion");
         }
 
         return capabilities;
     }
 
+    static void prewarm() {
+        NativeFieldTable.probe();
+        DirectRttConverter.isAvailable(DirectRttConverter.TYPE_CAPABILITIES);
+        DirectRttConverter.isAvailable(DirectRttConverter.TYPE_PARAMS);
+        DirectRttConverter.isAvailable(DirectRttConverter.TYPE_RESULT);
+    }
+
     static RttManagerCompat.ResponderCallbackWrapper wrapResponderCallback(
-            @Nullable final RttManagerCompat.ResponderCallback responderCallback) throws
-            ClassNotFoundException, IllegalAccessException, InstantiationException {
+            @Nullable final RttManagerCompat.ResponderCallback responderCallback,
+            @Nullable final NativeCallbackRegistry<RttManagerCompat.ResponderCallback,
+                    RttManagerCompat.ResponderCallbackWrapper> registry) {
         if (responderCallback == null) {
             return null;
         }
-        final Class<?> nativeParamClass = Class.forName(CLASS_RESPONDER_CALLBACK);
-        // TODO This does not work since ResponderCallback is an abstract class an no interface. Proxy only works on
-        // interfaces.
-        return (RttManagerCompat.ResponderCallbackWrapper) Proxy
-                .newProxyInstance(RttManagerCompat.ResponderCallbackWrapper.class.getClassLoader(), new
-                        Class[]{RttManagerCompat.ResponderCallbackWrapper.class, nativeParamClass}, (proxy,
-                        method, args) -> {
-                    if ("onResponderEnabled".equals(method.getName())) {
-                        responderCallback.onResponderEnabled(buildResponderConfigFromNativeObjects(args[0]));
-                    } else if ("onResponderEnableFailure".equals(method.getName())) {
-                        responderCallback.onResponderEnableFailure((int) args[0]);
-                    } else if ("getResponderCallback".equals(method.getName())) {
-                        return responderCallback;
-                    }
-                    return null;
-                });
+        return new NativeResponderCallback(responderCallback, registry);
     }
 
     static RttManagerCompat.RttListenerWrapper wrapRttListener(
-            @Nullable final RttManagerCompat.RttListener rttListener) throws
-            ClassNotFoundException, IllegalAccessException, InstantiationException {
+            @Nullable final RttManagerCompat.RttListener rttListener,
+            @Nullable final NativeCallbackRegistry<RttManagerCompat.RttListener,
+                    RttManagerCompat.RttListenerWrapper> registry, @Nullable final RttResultBuffer buffer) throws
+            ClassNotFoundException, NoSuchMethodException {
         if (rttListener == null) {
             return null;
         }
-        final Class<?> nativeParamClass = Class.forName(CLASS_RTT_LISTENER);
-        return (RttManagerCompat.RttListenerWrapper) Proxy
-                .newProxyInstance(RttManagerCompat.RttListenerWrapper.class.getClassLoader(), new
-                        Class[]{RttManagerCompat
-                        .RttListenerWrapper.class, nativeParamClass}, (proxy,
-                        method, args) -> {
-                    if ("onSuccess".equals(method.getName())) {
-                        rttListener.onSuccess(buildRttResultFromNativeObjects(args[0]));
-                    } else if ("onFailure".equals(method.getName())) {
-                        rttListener.onFailure((int) args[0], (String) args[1]);
-                    } else if ("onAborted".equals(method.getName())) {
-                        rttListener.onAborted();
-                    } else if ("getRttListenerCompat".equals(method.getName())) {
-                        return rttListener;
-                    }
-                    return null;
-                });
+        if (nativeRttListenerSupported) {
+            try {
+                return new NativeRttListener(rttListener, registry, buffer);
+            } catch (LinkageError e) {
+                nativeRttListenerSupported = false;
+                Log.w(TAG, "Native RttListener can not be implemented, falling back to proxy: " + e);
+            }
+        }
+        return getRttListenerProxyFactory().newInstance(rttListener, registry, buffer);
+    }
+
+    /**
+     * Converts the native results for the given listener and delivers them. A {@link NativeResultsConsumer} gets the
+     * native results without conversion.
+     */
+    static void deliverNativeResults(@NonNull final RttManagerCompat.RttListener rttListener,
+            @Nullable final Object nativeResults, @Nullable final RttResultBuffer buffer) {
+        if (rttListener instanceof NativeResultsConsumer) {
+            ((NativeResultsConsumer) rttListener).onNativeSuccess(nativeResults);
+        } else {
+            rttListener.onSuccess(buildRttResultFromNativeObjects(nativeResults, buffer));
+        }
     }
 
-    private static RttManagerCompat.ResponderConfig buildResponderConfigFromNativeObjects(
+    static LazyRttResult[] buildLazyRttResults(@Nullable final Object nativeResults) {
+        if (nativeResults == null) {
+            return null;
+        }
+        final int size = Array.getLength(nativeResults);
+        final boolean direct = DirectRttConverter.isAvailable(DirectRttConverter.TYPE_RESULT)
+                && nativeResults instanceof RttManager.RttResult[];
+        final LazyRttResult[] results = new LazyRttResult[size];
+        for (int i = 0; i < size; i++) {
+            results[i] = new LazyRttResult(Array.get(nativeResults, i), direct);
+        }
+        return results;
+    }
+
+    static void fillRttResultBatch(@Nullable final Object nativeResults, @NonNull final RttResultBatch batch) {
+        if (nativeResults == null) {
+            batch.reset(0);
+            return;
+        }
+        if (DirectRttConverter.isAvailable(DirectRttConverter.TYPE_RESULT)) {
+            try {
+                DirectRttConverter.fillRttResultBatch((RttManager.RttResult[]) nativeResults, batch);
+                return;
+            } catch (LinkageError | ClassCastException e) {
+                DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_RESULT, e);
+            }
+        }
+        fillRttResultBatchReflective(nativeResults, batch);
+    }
+
+    /**
+     * @param buffer reused storage of the results, or {@code null} to allocate new results
+     */
+    static RttManagerCompat.RttResult[] buildRttResultFromNativeObjects(
+            @Nullable final Object nativeResults, @Nullable final RttResultBuffer buffer) {
+        if (nativeResults == null) {
+            return null;
+        }
+        if (DirectRttConverter.isAvailable(DirectRttConverter.TYPE_RESULT)) {
+            try {
+                return DirectRttConverter.buildRttResults((RttManager.RttResult[]) nativeResults, buffer);
+            } catch (LinkageError | ClassCastException e) {
+                DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_RESULT, e);
+            }
+        }
+        return buildRttResultReflective(nativeResults, buffer);
+    }
+
+    static RttManagerCompat.ResponderConfig buildResponderConfigFromNativeObjects(
             @Nullable final Object nativeResult) {
         if (nativeResult == null) {
             return null;
         }
-        final Class<?> nativeResultClass = nativeResult.getClass();
+        if (DirectRttConverter.isAvailable(DirectRttConverter.TYPE_RESPONDER_CONFIG)) {
+            try {
+                return DirectRttConverter.buildResponderConfig((RttManager.ResponderConfig) nativeResult);
+            } catch (LinkageError | ClassCastException e) {
+                DirectRttConverter.markUnavailable(DirectRttConverter.TYPE_RESPONDER_CONFIG, e);
+            }
+        }
+        return buildResponderConfigReflective(nativeResult);
+    }
+
+    private static RttManagerCompat.ResponderConfig buildResponderConfigReflective(
+            @NonNull final Object nativeResult) {
+        final NativeFieldTable nativeResultTable = NativeFieldTable.forClass(nativeResult.getClass());
         final RttManagerCompat.ResponderConfig config = new RttManagerCompat.ResponderConfig();
-        config.centerFreq0 = readInt(nativeResultClass, nativeResult, "centerFreq0");
-        config.centerFreq1 = readInt(nativeResultClass, nativeResult, "centerFreq1");
-        config.macAddress = readObject(nativeResultClass, nativeResult, "macAddress");
-        config.frequency = readInt(nativeResultClass, nativeResult, "frequency");
-        config.channelWidth = readInt(nativeResultClass, nativeResult, "channelWidth");
-        config.preamble = readInt(nativeResultClass, nativeResult, "preamble");
+        config.centerFreq0 = readInt(nativeResultTable, nativeResult, "centerFreq0");
+        config.centerFreq1 = readInt(nativeResultTable, nativeResult, "centerFreq1");
+        config.macAddress = readObject(nativeResultTable, nativeResult, "macAddress");
+        config.frequency = readInt(nativeResultTable, nativeResult, "frequency");
+        config.channelWidth = readInt(nativeResultTable, nativeResult, "channelWidth");
+        config.preamble = readInt(nativeResultTable, nativeResult, "preamble");
         return config;
     }
 
-    private static RttManagerCompat.RttResult[] buildRttResultFromNativeObjects(
-            @Nullable final Object nativeResults) throws NoSuchFieldException, IllegalAccessException {
-        if (nativeResults == null) {
-            return null;
+    private static RttListenerProxyFactory getRttListenerProxyFactory() throws ClassNotFoundException,
+            NoSuchMethodException {
+        RttListenerProxyFactory factory = rttListenerProxyFactory;
+        if (factory == null) {
+            factory = new RttListenerProxyFactory();
+            rttListenerProxyFactory = factory;
         }
-        final RttManagerCompat.RttResult[] results = new RttManagerCompat.RttResult[Array.getLength(nativeResults)];
+        return factory;
+    }
+
+    private static RttManagerCompat.RttResult[] buildRttResultReflective(@NonNull final Object nativeResults,
+            @Nullable final RttResultBuffer buffer) {
+        final int size = Array.getLength(nativeResults);
+        final RttManagerCompat.RttResult[] results = buffer != null ? buffer.obtain(size)
+                : new RttManagerCompat.RttResult[size];
         for (int i = 0; i < results.length; i++) {
             final Object nativeResult = Array.get(nativeResults, i);
-            final Class<?> nativeResultClass = nativeResult.getClass();
-            final RttManagerCompat.RttResult result = new RttManagerCompat.RttResult();
-            result.bssid = readObject(nativeResultClass, nativeResult, "bssid");
-            result.burstNumber = readInt(nativeResultClass, nativeResult, "burstNumber");
-            result.measurementFrameNumber = readInt(nativeResultClass, nativeResult, "measurementFrameNumber");
-            result.successMeasurementFrameNumber = readInt(nativeResultClass, nativeResult,
+            final NativeFieldTable nativeResultTable = NativeFieldTable.forClass(nativeResult.getClass());
+            final RttManagerCompat.RttResult result = results[i] != null ? results[i]
+                    : new RttManagerCompat.RttResult();
+            if (buffer != null) {
+                // the pooled elements are kept by the buffer even if the result has no LCI or LCR
+                result.LCI = buffer.lci(i);
+                result.LCR = buffer.lcr(i);
+            }
+            result.bssid = readObject(nativeResultTable, nativeResult, "bssid");
+            result.burstNumber = readInt(nativeResultTable, nativeResult, "burstNumber");
+            result.measurementFrameNumber = readInt(nativeResultTable, nativeResult, "measurementFrameNumber");
+            result.successMeasurementFrameNumber = readInt(nativeResultTable, nativeResult,
                     "successMeasurementFrameNumber");
-            result.frameNumberPerBurstPeer = readInt(nativeResultClass, nativeResult, "frameNumberPerBurstPeer");
-            result.status = readInt(nativeResultClass, nativeResult, "status");
-            result.requestType = readInt(nativeResultClass, nativeResult, "requestType");
-            result.measurementType = readInt(nativeResultClass, nativeResult, "measurementType");
-            result.retryAfterDuration = readInt(nativeResultClass, nativeResult, "retryAfterDuration");
-            result.ts = readLong(nativeResultClass, nativeResult, "ts");
-            result.rssi = readInt(nativeResultClass, nativeResult, "rssi");
-            result.rssiSpread = readInt(nativeResultClass, nativeResult, "rssiSpread");
-            result.txRate = readInt(nativeResultClass, nativeResult, "txRate");
-            result.rxRate = readInt(nativeResultClass, nativeResult, "rxRate");
-            result.rtt = readLong(nativeResultClass, nativeResult, "rtt");
-            result.rttStandardDeviation = readLong(nativeResultClass, nativeResult, "rttStandardDeviation");
-            result.rttSpread = readLong(nativeResultClass, nativeResult, "rttSpread");
-            result.distance = readInt(nativeResultClass, nativeResult, "distance");
-            result.distanceStandardDeviation = readInt(nativeResultClass, nativeResult, "distanceStandardDeviation");
-            result.distanceSpread = readInt(nativeResultClass, nativeResult, "distanceSpread");
-            result.burstDuration = readInt(nativeResultClass, nativeResult, "burstDuration");
-            result.negotiatedBurstNum = readInt(nativeResultClass, nativeResult, "negotiatedBurstNum");
-            result.secure = readBoolean(nativeResultClass, nativeResult, "secure");
-            result.LCI = buildWifiInformationElementFromNativeObjects(nativeResultClass.getField("LCI").get
-                    (nativeResult));
-            result.LCR = buildWifiInformationElementFromNativeObjects(nativeResultClass.getField("LCR").get
-                    (nativeResult));
+            result.frameNumberPerBurstPeer = readInt(nativeResultTable, nativeResult, "frameNumberPerBurstPeer");
+            result.status = readInt(nativeResultTable, nativeResult, "status");
+            result.requestType = readInt(nativeResultTable, nativeResult, "requestType");
+            result.measurementType = readInt(nativeResultTable, nativeResult, "measurementType");
+            result.retryAfterDuration = readInt(nativeResultTable, nativeResult, "retryAfterDuration");
+            result.ts = readLong(nativeResultTable, nativeResult, "ts");
+            result.rssi = readInt(nativeResultTable, nativeResult, "rssi");
+            result.rssiSpread = readInt(nativeResultTable, nativeResult, "rssiSpread");
+            result.txRate = readInt(nativeResultTable, nativeResult, "txRate");
+            result.rxRate = readInt(nativeResultTable, nativeResult, "rxRate");
+            result.rtt = readLong(nativeResultTable, nativeResult, "rtt");
+            result.rttStandardDeviation = readLong(nativeResultTable, nativeResult, "rttStandardDeviation");
+            result.rttSpread = readLong(nativeResultTable, nativeResult, "rttSpread");
+            result.distance = readInt(nativeResultTable, nativeResult, "distance");
+            result.distanceStandardDeviation = readInt(nativeResultTable, nativeResult, "distanceStandardDeviation");
+            result.distanceSpread = readInt(nativeResultTable, nativeResult, "distanceSpread");
+            result.burstDuration = readInt(nativeResultTable, nativeResult, "burstDuration");
+            result.negotiatedBurstNum = readInt(nativeResultTable, nativeResult, "negotiatedBurstNum");
+            result.secure = readBoolean(nativeResultTable, nativeResult, "secure");
+            result.LCI = copyWifiInformationElementFromNativeObject(readObject(nativeResultTable, nativeResult,
+                    "LCI"), result.LCI);
+            result.LCR = copyWifiInformationElementFromNativeObject(readObject(nativeResultTable, nativeResult,
+                    "LCR"), result.LCR);
             results[i] = result;
         }
         return results;
     }
 
-    private static RttManagerCompat.WifiInformationElement buildWifiInformationElementFromNativeObjects(
-            @Nullable final Object nativeResult) {
+    private static void fillRttResultBatchReflective(@NonNull final Object nativeResults,
+            @NonNull final RttResultBatch batch) {
+        final int size = Array.getLength(nativeResults);
+        batch.reset(size);
+        for (int i = 0; i < size; i++) {
+            final Object nativeResult = Array.get(nativeResults, i);
+            final NativeFieldTable table = NativeFieldTable.forClass(nativeResult.getClass());
+            batch.set(i, RttManagerCompatUtil.<String>readObject(table, nativeResult, "bssid"),
+                    readInt(table, nativeResult, "status"), readInt(table, nativeResult, "distance"),
+                    readInt(table, nativeResult, "distanceStandardDeviation"), readInt(table, nativeResult, "rssi"),
+                    readLong(table, nativeResult, "ts"), readLong(table, nativeResult, "rtt"),
+                    readLong(table, nativeResult, "rttStandardDeviation"));
+        }
+    }
+
+    static RttManagerCompat.WifiInformationElement copyWifiInformationElementFromNativeObject(
+            @Nullable final Object nativeResult, @Nullable final RttManagerCompat.WifiInformationElement element) {
         if (nativeResult == null) {
             return null;
         }
-        final Class<?> wifiInformationClass = nativeResult.getClass();
-        final RttManagerCompat.WifiInformationElement wifiInformation = new RttManagerCompat.WifiInformationElement();
-        wifiInformation.id = readByte(wifiInformationClass, nativeResult, "id");
-        wifiInformation.data = readObject(wifiInformationClass, nativeResult, "data");
+        final NativeFieldTable wifiInformationTable = NativeFieldTable.forClass(nativeResult.getClass());
+        final RttManagerCompat.WifiInformationElement wifiInformation = element != null ? element
+                : new RttManagerCompat.WifiInformationElement();
+        wifiInformation.id = readByte(wifiInformationTable, nativeResult, "id");
+        wifiInformation.data = readObject(wifiInformationTable, nativeResult, "data");
         return wifiInformation;
     }
 
-    private static boolean readBoolean(@NonNull final Class<?> nativeClass, @NonNull final Object nativeObject,
+    static boolean readBoolean(@NonNull final NativeFieldTable table, @NonNull final Object nativeObject,
             @NonNull final String fieldName) {
+        final Field field = table.find(fieldName);
+        if (field == null) {
+            return false;
+        }
         try {
-            return nativeClass.getDeclaredField(fieldName).getBoolean(nativeObject);
-        } catch (IllegalAccessException | NoSuchFieldException e) {
+            return field.getBoolean(nativeObject);
+        } catch (IllegalAccessException e) {
             Log.e(TAG, e.getMessage(), e);
         }
         return false;
     }
 
-    private static byte readByte(@NonNull final Class<?> nativeClass, @NonNull final Object nativeObject,
+    private static byte readByte(@NonNull final NativeFieldTable table, @NonNull final Object nativeObject,
             @NonNull final String fieldName) {
+        final Field field = table.find(fieldName);
+        if (field == null) {
+            return 0;
+        }
         try {
-            return nativeClass.getDeclaredField(fieldName).getByte(nativeObject);
-        } catch (IllegalAccessException | NoSuchFieldException e) {
+            return field.getByte(nativeObject);
+        } catch (IllegalAccessException e) {
             Log.e(TAG, e.getMessage(), e);
         }
         return 0;
     }
 
-    private static int readInt(@NonNull final Class<?> nativeClass, @NonNull final Object nativeObject,
+    static int readInt(@NonNull final NativeFieldTable table, @NonNull final Object nativeObject,
             @NonNull final String fieldName) {
+        final Field field = table.find(fieldName);
+        if (field == null) {
+            return 0;
+        }
         try {
-            return nativeClass.getDeclaredField(fieldName).getInt(nativeObject);
-        } catch (IllegalAccessException | NoSuchFieldException e) {
+            return field.getInt(nativeObject);
+        } catch (IllegalAccessException e) {
             Log.e(TAG, e.getMessage(), e);
         }
         return 0;
     }
 
-    private static long readLong(@NonNull final Class<?> nativeClass, @NonNull final Object nativeObject,
+    static long readLong(@NonNull final NativeFieldTable table, @NonNull final Object nativeObject,
             @NonNull final String fieldName) {
+        final Field field = table.find(fieldName);
+        if (field == null) {
+            return 0;
+        }
         try {
-            return nativeClass.getDeclaredField(fieldName).getLong(nativeObject);
-        } catch (IllegalAccessException | NoSuchFieldException e) {
+            return field.getLong(nativeObject);
+        } catch (IllegalAccessException e) {
             Log.e(TAG, e.getMessage(), e);
         }
         return 0;
     }
 
-    private static <T> T readObject(@NonNull final Class<?> nativeClass, @NonNull final Object nativeObject,
+    static <T> T readObject(@NonNull final NativeFieldTable table, @NonNull final Object nativeObject,
             @NonNull final String fieldName) {
+        final Field field = table.find(fieldName);
+        if (field == null) {
+            return null;
+        }
         try {
-            return (T) nativeClass.getDeclaredField(fieldName).get(nativeObject);
-        } catch (IllegalAccessException | NoSuchFieldException e) {
+            return (T) field.get(nativeObject);
+        } catch (IllegalAccessException e) {
             Log.e(TAG, e.getMessage(), e);
         }
         return null;
     }
 
-    private static void setBoolean(@NonNull final Class<?> nativeParamClass, @NonNull final Object nativeObject,
+    private static void setBoolean(@NonNull final NativeFieldTable table, @NonNull final Object nativeObject,
             @NonNull final String fieldName, @NonNull final boolean value) {
+        final Field field = table.find(fieldName);
+        if (field == null) {
+            return;
+        }
         try {
-            nativeParamClass.getDeclaredField(fieldName).setBoolean(nativeObject, value);
-        } catch (IllegalAccessException | NoSuchFieldException e) {
+            field.setBoolean(nativeObject, value);
+        } catch (IllegalAccessException e) {
             Log.e(TAG, e.getMessage(), e);
         }
     }
 
-    private static void setInt(@NonNull final Class<?> nativeParamClass, @NonNull final Object nativeObject,
+    private static void setInt(@NonNull final NativeFieldTable table, @NonNull final Object nativeObject,
             @NonNull final String fieldName, @NonNull final int value) {
+        final Field field = table.find(fieldName);
+        if (field == null) {
+            return;
+        }
         try {
-            nativeParamClass.getDeclaredField(fieldName).setInt(nativeObject, value);
-        } catch (IllegalAccessException | NoSuchFieldException e) {
+            field.setInt(nativeObject, value);
+        } catch (IllegalAccessException e) {
             Log.e(TAG, e.getMessage(), e);
         }
     }
 
-    private static void setObject(@NonNull final Class<?> nativeParamClass, @NonNull final Object nativeObject,
+    private static void setObject(@NonNull final NativeFieldTable table, @NonNull final Object nativeObject,
             @NonNull final String fieldName, @NonNull final Object value) {
+        final Field field = table.find(fieldName);
+        if (field == null) {
+            return;
+        }
         try {
-            nativeParamClass.getDeclaredField(fieldName).set(nativeObject, value);
-        } catch (IllegalAccessException | NoSuchFieldException e) {
+            field.set(nativeObject, value);
+        } catch (IllegalAccessException e) {
             Log.e(TAG, e.getMessage(), e);
         }
     }
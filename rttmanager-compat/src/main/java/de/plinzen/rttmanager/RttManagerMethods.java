@@ -0,0 +1,121 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The reflective {@link Method} handles of {@code android.net.wifi.RttManager} used by {@link RttManagerCompat}.
+ * The handles are resolved once per native class and shared by all {@link RttManagerCompat} instances.
+ * Methods which are not available on the current platform (e.g. the responder API before Android N) are reported
+ * with a {@link NoSuchMethodException} when they are requested.
+ */
+final class RttManagerMethods {
+
+    private static final ConcurrentMap<Class<?>, RttManagerMethods> CACHE = new ConcurrentHashMap<>();
+    private static final String METHOD_DISABLE_RESPONDER = "disableResponder";
+    private static final String METHOD_ENABLE_RESPONDER = "enableResponder";
+    private static final String METHOD_GET_CAPABILITIES = "getCapabilities";
+    private static final String METHOD_GET_RTT_CAPABILITIES = "getRttCapabilities";
+    private static final String METHOD_START_RANGING = "startRanging";
+    private static final String METHOD_STOP_RANGING = "stopRanging";
+    private final Method disableResponder;
+    private final Method enableResponder;
+    private final Method getCapabilities;
+    private final Method getRttCapabilities;
+    private final Class<?> rttManagerClass;
+    private final Method startRanging;
+    private final Method stopRanging;
+
+    private RttManagerMethods(@NonNull final Class<?> rttManagerClass) throws ClassNotFoundException {
+        this.rttManagerClass = rttManagerClass;
+        final Class<?> listenerClass = Class.forName(RttManagerCompatUtil.CLASS_RTT_LISTENER);
+        final Class<?> nativeParamsArrayClass = Array.newInstance(
+                Class.forName(RttManagerCompatUtil.CLASS_RTT_PARAMS), 0).getClass();
+        startRanging = findMethod(METHOD_START_RANGING, nativeParamsArrayClass, listenerClass);
+        stopRanging = findMethod(METHOD_STOP_RANGING, listenerClass);
+        getCapabilities = findMethod(METHOD_GET_CAPABILITIES);
+        getRttCapabilities = findMethod(METHOD_GET_RTT_CAPABILITIES);
+
+        final Class<?> responderCallbackClass = findClass(RttManagerCompatUtil.CLASS_RESPONDER_CALLBACK);
+        if (responderCallbackClass != null) {
+            enableResponder = findMethod(METHOD_ENABLE_RESPONDER, responderCallbackClass);
+            disableResponder = findMethod(METHOD_DISABLE_RESPONDER, responderCallbackClass);
+        } else {
+            enableResponder = null;
+            disableResponder = null;
+        }
+    }
+
+    static RttManagerMethods forClass(@NonNull final Class<?> rttManagerClass) throws ClassNotFoundException {
+        RttManagerMethods methods = CACHE.get(rttManagerClass);
+        if (methods == null) {
+            final RttManagerMethods newMethods = new RttManagerMethods(rttManagerClass);
+            methods = CACHE.putIfAbsent(rttManagerClass, newMethods);
+            if (methods == null) {
+                methods = newMethods;
+            }
+        }
+        return methods;
+    }
+
+    @Nullable
+    private static Class<?> findClass(@NonNull final String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    Method disableResponder() throws NoSuchMethodException {
+        return require(disableResponder, METHOD_DISABLE_RESPONDER);
+    }
+
+    @NonNull
+    Method enableResponder() throws NoSuchMethodException {
+        return require(enableResponder, METHOD_ENABLE_RESPONDER);
+    }
+
+    @NonNull
+    Method getCapabilities() throws NoSuchMethodException {
+        return require(getCapabilities, METHOD_GET_CAPABILITIES);
+    }
+
+    @NonNull
+    Method getRttCapabilities() throws NoSuchMethodException {
+        return require(getRttCapabilities, METHOD_GET_RTT_CAPABILITIES);
+    }
+
+    @NonNull
+    Method startRanging() throws NoSuchMethodException {
+        return require(startRanging, METHOD_START_RANGING);
+    }
+
+    @NonNull
+    Method stopRanging() throws NoSuchMethodException {
+        return require(stopRanging, METHOD_STOP_RANGING);
+    }
+
+    @Nullable
+    private Method findMethod(@NonNull final String name, final Class<?>... parameterTypes) {
+        try {
+            return rttManagerClass.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    private Method require(@Nullable final Method method, @NonNull final String name) throws NoSuchMethodException {
+        if (method == null) {
+            throw new NoSuchMethodException(rttManagerClass.getName() + "." + name);
+        }
+        return method;
+    }
+}
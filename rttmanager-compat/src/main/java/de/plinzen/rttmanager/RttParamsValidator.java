@@ -0,0 +1,226 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Checks {@link RttManagerCompat.RttParams} against the {@link RttManagerCompat.RttCapabilities} of the device before
+ * they are dispatched, so that a request the hardware can not serve does not waste a round trip to the driver and
+ * fail with {@link RttManagerCompat#REASON_INVALID_REQUEST}.
+ * <p>
+ * Every param is either accepted as is, downgraded or rejected:
+ * <ul>
+ * <li>An unsupported {@code bandwidth} or {@code preamble} is lowered to the next supported value. The bandwidth is
+ * also limited to what the preamble can carry, 20 MHz for legacy and 40 MHz for HT.</li>
+ * <li>An unsupported two sided {@code requestType} falls back to one sided ranging, which does not deliver LCI and
+ * LCR.</li>
+ * <li>{@code LCIRequest} and {@code LCRRequest} are cleared if the device does not support them.</li>
+ * <li>A param is rejected if {@code secure} ranging or the request type is not supported, or if no supported
+ * bandwidth or preamble is left.</li>
+ * </ul>
+ * Downgrades are applied to copies, the params of the caller are not modified. With
+ * {@link #setDowngradeAllowed(boolean)} set to {@code false}, every violation rejects the param. A capability mask of 0
+ * is treated as unknown and not checked.
+ */
+public class RttParamsValidator {
+
+    public static final int VIOLATION_BANDWIDTH = 0x01;
+    public static final int VIOLATION_LCI = 0x08;
+    public static final int VIOLATION_LCR = 0x10;
+    public static final int VIOLATION_PREAMBLE = 0x02;
+    public static final int VIOLATION_REQUEST_TYPE = 0x04;
+    public static final int VIOLATION_SECURE = 0x20;
+    private final RttManagerCompat.RttCapabilities capabilities;
+    private final RttManagerCompat rttManager;
+    private boolean downgradeAllowed = true;
+
+    /**
+     * Validates against the cached capabilities of the given {@link RttManagerCompat}, see
+     * {@link RttManagerCompat#getRttCapabilities()}.
+     */
+    public RttParamsValidator(@NonNull final RttManagerCompat rttManager) {
+        this.rttManager = rttManager;
+        capabilities = null;
+    }
+
+    public RttParamsValidator(@NonNull final RttManagerCompat.RttCapabilities capabilities) {
+        this.capabilities = capabilities;
+        rttManager = null;
+    }
+
+    /**
+     * @return the highest bit of {@code supported} which is not above {@code requested}, or 0 if there is none
+     */
+    static int highestSupported(final int requested, final int supported) {
+        for (int bit = Integer.highestOneBit(requested); bit != 0; bit >>>= 1) {
+            if ((supported & bit) != 0) {
+                return bit;
+            }
+        }
+        return 0;
+    }
+
+    private static int maxBandwidth(final int preamble) {
+        switch (preamble) {
+            case RttManagerCompat.PREAMBLE_LEGACY:
+                return RttManagerCompat.RTT_BW_20_SUPPORT;
+            case RttManagerCompat.PREAMBLE_HT:
+                return RttManagerCompat.RTT_BW_40_SUPPORT;
+            default:
+                return RttManagerCompat.RTT_BW_160_SUPPORT;
+        }
+    }
+
+    public boolean isDowngradeAllowed() {
+        return downgradeAllowed;
+    }
+
+    /**
+     * @param downgradeAllowed {@code false} to reject a param instead of downgrading it, default is {@code true}.
+     */
+    public void setDowngradeAllowed(final boolean downgradeAllowed) {
+        this.downgradeAllowed = downgradeAllowed;
+    }
+
+    /**
+     * @return the accepted params, with downgrades applied, and the rejected ones. If the capabilities are not
+     * available, all params are accepted unchanged.
+     */
+    @NonNull
+    public Result validate(@NonNull final RttManagerCompat.RttParams[] params) {
+        final RttManagerCompat.RttCapabilities currentCapabilities = capabilities != null ? capabilities
+                : rttManager.getRttCapabilities();
+        final RttManagerCompat.RttParams[] accepted = new RttManagerCompat.RttParams[params.length];
+        final RttManagerCompat.RttParams[] rejected = new RttManagerCompat.RttParams[params.length];
+        final int[] violations = new int[params.length];
+        int acceptedCount = 0;
+        int rejectedCount = 0;
+        for (int i = 0; i < params.length; i++) {
+            final RttManagerCompat.RttParams validated = currentCapabilities == null ? params[i]
+                    : validate(params[i], currentCapabilities, violations, i);
+            if (validated != null) {
+                accepted[acceptedCount++] = validated;
+            } else {
+                rejected[rejectedCount++] = params[i];
+            }
+        }
+        return new Result(Arrays.copyOf(accepted, acceptedCount), Arrays.copyOf(rejected, rejectedCount),
+                violations);
+    }
+
+    /**
+     * @return the param itself, a downgraded copy or {@code null} if it is rejected
+     */
+    @Nullable
+    private RttManagerCompat.RttParams validate(@NonNull final RttManagerCompat.RttParams param,
+            @NonNull final RttManagerCompat.RttCapabilities capabilities, @NonNull final int[] violations,
+            final int index) {
+        int requestType = param.requestType;
+        boolean lciRequest = param.LCIRequest;
+        boolean lcrRequest = param.LCRRequest;
+        int preamble = param.preamble;
+        int bandwidth = param.bandwidth;
+        int violation = 0;
+        boolean rejected = false;
+
+        if (param.secure && !capabilities.secureRttSupported) {
+            violation |= VIOLATION_SECURE;
+            rejected = true;
+        }
+        if (requestType == RttManagerCompat.RTT_TYPE_TWO_SIDED && !capabilities.twoSided11McRttSupported) {
+            violation |= VIOLATION_REQUEST_TYPE;
+            if (capabilities.oneSidedRttSupported) {
+                requestType = RttManagerCompat.RTT_TYPE_ONE_SIDED;
+            } else {
+                rejected = true;
+            }
+        } else if (requestType == RttManagerCompat.RTT_TYPE_ONE_SIDED && !capabilities.oneSidedRttSupported) {
+            violation |= VIOLATION_REQUEST_TYPE;
+            rejected = true;
+        }
+        // LCI and LCR are only delivered by two sided ranging
+        if (lciRequest && (!capabilities.lciSupported || requestType != RttManagerCompat.RTT_TYPE_TWO_SIDED)) {
+            violation |= VIOLATION_LCI;
+            lciRequest = false;
+        }
+        if (lcrRequest && (!capabilities.lcrSupported || requestType != RttManagerCompat.RTT_TYPE_TWO_SIDED)) {
+            violation |= VIOLATION_LCR;
+            lcrRequest = false;
+        }
+        if (capabilities.preambleSupported != 0 && (preamble & capabilities.preambleSupported) == 0) {
+            violation |= VIOLATION_PREAMBLE;
+            preamble = highestSupported(preamble, capabilities.preambleSupported);
+            rejected |= preamble == 0;
+        }
+        if (capabilities.bwSupported != 0) {
+            final int requestedBandwidth = Math.min(bandwidth, maxBandwidth(preamble));
+            if (requestedBandwidth != bandwidth || (bandwidth & capabilities.bwSupported) == 0) {
+                violation |= VIOLATION_BANDWIDTH;
+                bandwidth = highestSupported(requestedBandwidth, capabilities.bwSupported);
+                rejected |= bandwidth == 0;
+            }
+        }
+
+        violations[index] = violation;
+        if (violation == 0) {
+            return param;
+        }
+        if (rejected || !downgradeAllowed) {
+            return null;
+        }
+        final RttManagerCompat.RttParams downgraded = new RttManagerCompat.RttParams();
+        RttManagerCompatUtil.copyRttParams(param, downgraded);
+        downgraded.requestType = requestType;
+        downgraded.LCIRequest = lciRequest;
+        downgraded.LCRRequest = lcrRequest;
+        downgraded.preamble = preamble;
+        downgraded.bandwidth = bandwidth;
+        return downgraded;
+    }
+
+    /**
+     * Outcome of {@link #validate(RttManagerCompat.RttParams[])}.
+     */
+    public static final class Result {
+        private final RttManagerCompat.RttParams[] accepted;
+        private final RttManagerCompat.RttParams[] rejected;
+        private final int[] violations;
+
+        private Result(@NonNull final RttManagerCompat.RttParams[] accepted,
+                @NonNull final RttManagerCompat.RttParams[] rejected, @NonNull final int[] violations) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.violations = violations;
+        }
+
+        /**
+         * @return the params to dispatch, downgraded params are copies of the original ones
+         */
+        @NonNull
+        public RttManagerCompat.RttParams[] getAccepted() {
+            return accepted;
+        }
+
+        /**
+         * @return the original params which can not be served by the device
+         */
+        @NonNull
+        public RttManagerCompat.RttParams[] getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @param index index of the param in the validated array
+         * @return the {@code VIOLATION_*} flags of the param, 0 if it has been accepted unchanged
+         */
+        public int getViolations(final int index) {
+            return violations[index];
+        }
+
+        public boolean hasRejections() {
+            return rejected.length > 0;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * The results of a ranging request in columns of primitive arrays instead of one {@link RttManagerCompat.RttResult}
+ * per peer. Entry {@code i} of every column belongs to the same peer, the BSSID of the peer is stored as its index in
+ * the {@link BssidIndex} of the batch.
+ * <p>
+ * The columns may be longer than the batch, only the first {@link #size()} entries are valid. A batch is reused for
+ * every request it is passed to and only grows if a request has more peers than any request before. The values are
+ * only valid until the next request delivers into the same batch, do not share a batch between requests which are
+ * running at the same time.
+ */
+public final class RttResultBatch {
+
+    private final BssidIndex bssidIndex;
+    private int[] bssids = new int[0];
+    private int[] distanceStandardDeviations = new int[0];
+    private int[] distances = new int[0];
+    private int[] rssis = new int[0];
+    private long[] rttStandardDeviations = new long[0];
+    private long[] rtts = new long[0];
+    private int size;
+    private int[] statuses = new int[0];
+    private long[] timestamps = new long[0];
+
+    public RttResultBatch() {
+        this(new BssidIndex());
+    }
+
+    /**
+     * @param bssidIndex index of the BSSIDs, which may be shared with other batches
+     */
+    public RttResultBatch(@NonNull final BssidIndex bssidIndex) {
+        this.bssidIndex = bssidIndex;
+    }
+
+    @NonNull
+    public BssidIndex getBssidIndex() {
+        return bssidIndex;
+    }
+
+    /**
+     * @return column of the BSSIDs as indices of {@link #getBssidIndex()}
+     */
+    @NonNull
+    public int[] getBssids() {
+        return bssids;
+    }
+
+    /**
+     * @return column of the standard deviations of the distances in cm
+     */
+    @NonNull
+    public int[] getDistanceStandardDeviations() {
+        return distanceStandardDeviations;
+    }
+
+    /**
+     * @return column of the distances in cm
+     */
+    @NonNull
+    public int[] getDistances() {
+        return distances;
+    }
+
+    /**
+     * @return column of the RSSIs in steps of 0.5 dB
+     */
+    @NonNull
+    public int[] getRssis() {
+        return rssis;
+    }
+
+    /**
+     * @return column of the standard deviations of the round trip times in 0.1 ns
+     */
+    @NonNull
+    public long[] getRttStandardDeviations() {
+        return rttStandardDeviations;
+    }
+
+    /**
+     * @return column of the round trip times in 0.1 ns
+     */
+    @NonNull
+    public long[] getRtts() {
+        return rtts;
+    }
+
+    /**
+     * @return column of the {@code RTT_STATUS_*} values of {@link RttManagerCompat}
+     */
+    @NonNull
+    public int[] getStatuses() {
+        return statuses;
+    }
+
+    /**
+     * @return column of the timestamps of the measurements in us
+     */
+    @NonNull
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * @return the number of valid entries of the columns
+     */
+    public int size() {
+        return size;
+    }
+
+    void reset(final int newSize) {
+        if (bssids.length < newSize) {
+            bssids = Arrays.copyOf(bssids, newSize);
+            statuses = Arrays.copyOf(statuses, newSize);
+            distances = Arrays.copyOf(distances, newSize);
+            distanceStandardDeviations = Arrays.copyOf(distanceStandardDeviations, newSize);
+            rssis = Arrays.copyOf(rssis, newSize);
+            timestamps = Arrays.copyOf(timestamps, newSize);
+            rtts = Arrays.copyOf(rtts, newSize);
+            rttStandardDeviations = Arrays.copyOf(rttStandardDeviations, newSize);
+        }
+        size = newSize;
+    }
+
+    void set(final int i, final String bssid, final int status, final int distance,
+            final int distanceStandardDeviation, final int rssi, final long timestamp, final long rtt,
+            final long rttStandardDeviation) {
+        bssids[i] = bssidIndex.intern(bssid);
+        statuses[i] = status;
+        distances[i] = distance;
+        distanceStandardDeviations[i] = distanceStandardDeviation;
+        rssis[i] = rssi;
+        timestamps[i] = timestamp;
+        rtts[i] = rtt;
+        rttStandardDeviations[i] = rttStandardDeviation;
+    }
+}
@@ -0,0 +1,72 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Reusable storage for the results of ranging requests, see
+ * {@link RttManagerCompat#startRanging(RttManagerCompat.RttParams[], RttManagerCompat.RttListener, RttResultBuffer)}.
+ * <p>
+ * The native results are copied into the {@link RttManagerCompat.RttResult} and
+ * {@link RttManagerCompat.WifiInformationElement} objects of the buffer instead of new objects. The array passed to
+ * {@link RttManagerCompat.RttListener#onSuccess(RttManagerCompat.RttResult[])} is owned by the buffer as well and is
+ * only replaced if the number of results changes. The buffer keeps its LCI and LCR elements even while a result has
+ * none, only the fields of the result are set to {@code null}. Ranging the same peers repeatedly therefore allocates
+ * nothing after the first request.
+ * <p>
+ * The results are only valid until the next request delivers into the same buffer. Copy the values you want to keep
+ * and do not share a buffer between requests which are running at the same time.
+ */
+public final class RttResultBuffer {
+
+    private RttManagerCompat.WifiInformationElement[] lcis = new RttManagerCompat.WifiInformationElement[0];
+    private RttManagerCompat.WifiInformationElement[] lcrs = new RttManagerCompat.WifiInformationElement[0];
+    private RttManagerCompat.RttResult[] results = new RttManagerCompat.RttResult[0];
+
+    @NonNull
+    private static RttManagerCompat.WifiInformationElement[] resize(
+            @NonNull final RttManagerCompat.WifiInformationElement[] elements, final int size) {
+        final RttManagerCompat.WifiInformationElement[] resized = new RttManagerCompat.WifiInformationElement[size];
+        final int reused = Math.min(size, elements.length);
+        System.arraycopy(elements, 0, resized, 0, reused);
+        for (int i = reused; i < size; i++) {
+            resized[i] = new RttManagerCompat.WifiInformationElement();
+        }
+        return resized;
+    }
+
+    /**
+     * @return the pooled LCI element of the result at the index, see {@link #obtain(int)}
+     */
+    @NonNull
+    RttManagerCompat.WifiInformationElement lci(final int index) {
+        return lcis[index];
+    }
+
+    /**
+     * @return the pooled LCR element of the result at the index, see {@link #obtain(int)}
+     */
+    @NonNull
+    RttManagerCompat.WifiInformationElement lcr(final int index) {
+        return lcrs[index];
+    }
+
+    /**
+     * @return the array of the buffer with exactly {@code size} result objects. Objects of the previous array are
+     * reused, {@link #lci(int)} and {@link #lcr(int)} provide pooled elements for each of them.
+     */
+    @NonNull
+    RttManagerCompat.RttResult[] obtain(final int size) {
+        if (results.length != size) {
+            final RttManagerCompat.RttResult[] resized = new RttManagerCompat.RttResult[size];
+            final int reused = Math.min(size, results.length);
+            System.arraycopy(results, 0, resized, 0, reused);
+            for (int i = reused; i < size; i++) {
+                resized[i] = new RttManagerCompat.RttResult();
+            }
+            results = resized;
+            lcis = resize(lcis, size);
+            lcrs = resize(lcrs, size);
+        }
+        return results;
+    }
+}
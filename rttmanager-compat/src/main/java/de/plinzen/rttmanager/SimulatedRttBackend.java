@@ -0,0 +1,361 @@
+package de.plinzen.rttmanager;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process {@link RttBackend} which simulates ranging against a configurable set of peers. It does not touch any
+ * Android API and runs on a plain JVM, e.g. to benchmark or load test a ranging pipeline off-device.
+ * <p>
+ * All random values are drawn from a single seeded {@link Random} when a request is started, so the same sequence
+ * of requests always produces the same results (except for {@link RttManagerCompat.RttResult#ts}). Callbacks are
+ * delivered on a single background thread after the configured callback latency.
+ * <p>
+ * Peers which are not known to the simulator are reported with {@link RttManagerCompat#RTT_STATUS_FAIL_NO_RSP}.
+ */
+public class SimulatedRttBackend implements RttBackend {
+
+    /**
+     * Models the measurement error of the simulated distances.
+     */
+    public interface NoiseModel {
+        /**
+         * @return the error in cm which is added to the true distance of the peer.
+         */
+        int sampleError(String bssid, int trueDistance, Random random);
+
+        /**
+         * @return the standard deviation in cm which is reported with each result.
+         */
+        int standardDeviation(String bssid, int trueDistance);
+    }
+
+    private static final long SPEED_OF_LIGHT_CM_PER_NS = 30;
+    private final ScheduledExecutorService executor;
+    private final Map<RttManagerCompat.RttListener, List<Future<?>>> pendingRequests = new IdentityHashMap<>();
+    private final Map<String, Integer> peerDistances = new HashMap<>();
+    private final Random random;
+    private final Map<Integer, Integer> statusWeights = new LinkedHashMap<>();
+    private final long startNanos = System.nanoTime();
+    private long callbackLatency;
+    private RttManagerCompat.RttCapabilities capabilities;
+    private NoiseModel noiseModel = gaussianNoise(100);
+    private RttManagerCompat.ResponderConfig responderConfig;
+
+    public SimulatedRttBackend(final long seed) {
+        random = new Random(seed);
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                final Thread thread = new Thread(runnable, SimulatedRttBackend.class.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        statusWeights.put(RttManagerCompat.RTT_STATUS_SUCCESS, 1);
+        capabilities = new RttManagerCompat.RttCapabilities();
+        capabilities.oneSidedRttSupported = true;
+        capabilities.twoSided11McRttSupported = true;
+        capabilities.lciSupported = true;
+        capabilities.lcrSupported = true;
+        capabilities.preambleSupported = RttManagerCompat.PREAMBLE_HT | RttManagerCompat.PREAMBLE_VHT;
+        capabilities.bwSupported = RttManagerCompat.RTT_BW_20_SUPPORT | RttManagerCompat.RTT_BW_40_SUPPORT
+                | RttManagerCompat.RTT_BW_80_SUPPORT;
+        capabilities.responderSupported = true;
+        responderConfig = new RttManagerCompat.ResponderConfig();
+        responderConfig.macAddress = "02:00:00:00:00:00";
+        responderConfig.frequency = 5180;
+        responderConfig.preamble = RttManagerCompat.PREAMBLE_HT;
+    }
+
+    /**
+     * Noise model with normal distributed errors.
+     *
+     * @param standardDeviation standard deviation of the error in cm
+     */
+    public static NoiseModel gaussianNoise(final int standardDeviation) {
+        return new NoiseModel() {
+            @Override
+            public int sampleError(final String bssid, final int trueDistance, final Random random) {
+                return (int) Math.round(random.nextGaussian() * standardDeviation);
+            }
+
+            @Override
+            public int standardDeviation(final String bssid, final int trueDistance) {
+                return standardDeviation;
+            }
+        };
+    }
+
+    private static RttManagerCompat.RttCapabilities copyOf(@NonNull final RttManagerCompat.RttCapabilities source) {
+        final RttManagerCompat.RttCapabilities copy = new RttManagerCompat.RttCapabilities();
+        copy.supportedType = source.supportedType;
+        copy.supportedPeerType = source.supportedPeerType;
+        copy.oneSidedRttSupported = source.oneSidedRttSupported;
+        copy.twoSided11McRttSupported = source.twoSided11McRttSupported;
+        copy.lciSupported = source.lciSupported;
+        copy.lcrSupported = source.lcrSupported;
+        copy.preambleSupported = source.preambleSupported;
+        copy.bwSupported = source.bwSupported;
+        copy.responderSupported = source.responderSupported;
+        copy.secureRttSupported = source.secureRttSupported;
+        copy.mcVersion = source.mcVersion;
+        return copy;
+    }
+
+    @Override
+    public void disableResponder(final RttManagerCompat.ResponderCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback is not allowed to be null.");
+        }
+    }
+
+    @Override
+    public void enableResponder(final RttManagerCompat.ResponderCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback is not allowed to be null.");
+        }
+        final boolean supported;
+        final RttManagerCompat.ResponderConfig config;
+        final long latency;
+        synchronized (this) {
+            supported = capabilities.responderSupported;
+            config = responderConfig;
+            latency = callbackLatency;
+        }
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (supported) {
+                    callback.onResponderEnabled(config);
+                } else {
+                    callback.onResponderEnableFailure(RttManagerCompat.REASON_NOT_AVAILABLE);
+                }
+            }
+        }, latency, TimeUnit.MILLISECONDS);
+    }
+
+    @Deprecated
+    @Override
+    public RttManagerCompat.Capabilities getCapabilities() {
+        final RttManagerCompat.Capabilities legacyCapabilities = new RttManagerCompat.Capabilities();
+        legacyCapabilities.supportedType = RttManagerCompat.RTT_TYPE_TWO_SIDED;
+        legacyCapabilities.supportedPeerType = RttManagerCompat.RTT_PEER_TYPE_AP;
+        return legacyCapabilities;
+    }
+
+    @Override
+    public synchronized RttManagerCompat.RttCapabilities getRttCapabilities() {
+        return copyOf(capabilities);
+    }
+
+    @Override
+    public void prewarm() {
+        // nothing to prepare
+    }
+
+    /**
+     * Sets the delay between a request and its callback, which is also reported as
+     * {@link RttManagerCompat.RttResult#burstDuration}.
+     */
+    public synchronized void setCallbackLatency(final long callbackLatency, @NonNull final TimeUnit unit) {
+        this.callbackLatency = unit.toMillis(callbackLatency);
+    }
+
+    public synchronized void setNoiseModel(@NonNull final NoiseModel noiseModel) {
+        this.noiseModel = noiseModel;
+    }
+
+    /**
+     * Adds a peer or updates the true distance of a known peer.
+     *
+     * @param distance true distance in cm
+     */
+    public synchronized void putPeer(@NonNull final String bssid, final int distance) {
+        peerDistances.put(bssid, distance);
+    }
+
+    public synchronized void removePeer(@NonNull final String bssid) {
+        peerDistances.remove(bssid);
+    }
+
+    public synchronized void setResponderConfig(@NonNull final RttManagerCompat.ResponderConfig responderConfig) {
+        this.responderConfig = responderConfig;
+    }
+
+    public synchronized void setRttCapabilities(@NonNull final RttManagerCompat.RttCapabilities capabilities) {
+        this.capabilities = copyOf(capabilities);
+    }
+
+    /**
+     * Sets the relative weight of a {@code RTT_STATUS_*} value in the status mix of the results of known peers. By
+     * default all results are {@link RttManagerCompat#RTT_STATUS_SUCCESS}. A weight of 0 removes the status from the
+     * mix.
+     */
+    public synchronized void setStatusWeight(final int status, final int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight must not be negative.");
+        }
+        if (weight == 0) {
+            statusWeights.remove(status);
+        } else {
+            statusWeights.put(status, weight);
+        }
+    }
+
+    /**
+     * Stops the callback thread. Pending callbacks are dropped.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void startRanging(final RttManagerCompat.RttParams[] params,
+            final RttManagerCompat.RttListener listener) {
+        if (params == null || params.length == 0) {
+            throw new IllegalArgumentException("params is null or empty.");
+        }
+        if (listener == null) {
+            throw new IllegalArgumentException("listener is not allowed to be null.");
+        }
+        synchronized (this) {
+            final RttManagerCompat.RttResult[] results = new RttManagerCompat.RttResult[params.length];
+            for (int i = 0; i < params.length; i++) {
+                results[i] = simulate(params[i]);
+            }
+            final Delivery delivery = new Delivery(listener, results);
+            delivery.future = executor.schedule(delivery, callbackLatency, TimeUnit.MILLISECONDS);
+            List<Future<?>> futures = pendingRequests.get(listener);
+            if (futures == null) {
+                futures = new ArrayList<>(1);
+                pendingRequests.put(listener, futures);
+            }
+            futures.add(delivery.future);
+        }
+    }
+
+    /**
+     * The simulated results are new objects, the buffer is ignored.
+     */
+    @Override
+    public void startRanging(final RttManagerCompat.RttParams[] params, final RttManagerCompat.RttListener listener,
+            final RttResultBuffer buffer) {
+        startRanging(params, listener);
+    }
+
+    @Override
+    public void startRanging(final PreparedRanging prepared, final RttManagerCompat.RttListener listener,
+            final RttResultBuffer buffer) {
+        startRanging(prepared.getParams(), listener);
+    }
+
+    @Override
+    public void stopRanging(final RttManagerCompat.RttListener listener) {
+        if (listener == null) {
+            return;
+        }
+        final List<Future<?>> futures;
+        synchronized (this) {
+            futures = pendingRequests.remove(listener);
+        }
+        if (futures != null) {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private synchronized boolean finish(@NonNull final Delivery delivery) {
+        final List<Future<?>> futures = pendingRequests.get(delivery.listener);
+        if (futures == null || !futures.remove(delivery.future)) {
+            return false;
+        }
+        if (futures.isEmpty()) {
+            pendingRequests.remove(delivery.listener);
+        }
+        return true;
+    }
+
+    private int nextStatus() {
+        int totalWeight = 0;
+        for (int weight : statusWeights.values()) {
+            totalWeight += weight;
+        }
+        if (totalWeight == 0) {
+            return RttManagerCompat.RTT_STATUS_SUCCESS;
+        }
+        int pick = random.nextInt(totalWeight);
+        for (Map.Entry<Integer, Integer> entry : statusWeights.entrySet()) {
+            pick -= entry.getValue();
+            if (pick < 0) {
+                return entry.getKey();
+            }
+        }
+        return RttManagerCompat.RTT_STATUS_SUCCESS;
+    }
+
+    private RttManagerCompat.RttResult simulate(@NonNull final RttManagerCompat.RttParams param) {
+        final RttManagerCompat.RttResult result = new RttManagerCompat.RttResult();
+        result.bssid = param.bssid;
+        result.requestType = param.requestType;
+        result.measurementType = param.requestType;
+        result.frameNumberPerBurstPeer = param.numSamplesPerBurst;
+        result.measurementFrameNumber = param.numSamplesPerBurst;
+        result.burstDuration = (int) callbackLatency;
+        result.negotiatedBurstNum = 1;
+        final Integer trueDistance = peerDistances.get(param.bssid);
+        result.status = trueDistance == null ? RttManagerCompat.RTT_STATUS_FAIL_NO_RSP : nextStatus();
+        if (result.status == RttManagerCompat.RTT_STATUS_FAIL_BUSY_TRY_LATER) {
+            result.retryAfterDuration = 1 + random.nextInt(3);
+        }
+        if (result.status != RttManagerCompat.RTT_STATUS_SUCCESS) {
+            return result;
+        }
+        result.successMeasurementFrameNumber = param.numSamplesPerBurst;
+        result.distance = Math.max(0, trueDistance + noiseModel.sampleError(param.bssid, trueDistance, random));
+        result.distanceStandardDeviation = noiseModel.standardDeviation(param.bssid, trueDistance);
+        // round trip time in 0.1 ns
+        result.rtt = 20L * result.distance / SPEED_OF_LIGHT_CM_PER_NS;
+        result.rttStandardDeviation = 20L * result.distanceStandardDeviation / SPEED_OF_LIGHT_CM_PER_NS;
+        // free space path loss of 40 dB at 1 m, in steps of 0.5 dB
+        result.rssi = (int) Math.round(2 * (-40 - 20 * Math.log10(Math.max(1, result.distance) / 100.0)));
+        return result;
+    }
+
+    private final class Delivery implements Runnable {
+        private final RttManagerCompat.RttListener listener;
+        private final RttManagerCompat.RttResult[] results;
+        private Future<?> future;
+
+        private Delivery(@NonNull final RttManagerCompat.RttListener listener,
+                @NonNull final RttManagerCompat.RttResult[] results) {
+            this.listener = listener;
+            this.results = results;
+        }
+
+        @Override
+        public void run() {
+            if (!finish(this)) {
+                return;
+            }
+            final long ts = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+            for (RttManagerCompat.RttResult result : results) {
+                result.ts = ts;
+            }
+            listener.onSuccess(results);
+        }
+    }
+}
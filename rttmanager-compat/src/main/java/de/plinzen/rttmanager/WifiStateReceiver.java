@@ -0,0 +1,27 @@
+package de.plinzen.rttmanager;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+import android.support.annotation.NonNull;
+
+/**
+ * Invalidates the cached {@link RttManagerCompat.RttCapabilities} of a {@link RttManagerCompat} whenever the Wi-Fi
+ * state changes, since the capabilities reported by the driver may differ after Wi-Fi has been restarted.
+ */
+final class WifiStateReceiver extends BroadcastReceiver {
+
+    private final RttManagerCompat rttManagerCompat;
+
+    WifiStateReceiver(@NonNull final RttManagerCompat rttManagerCompat) {
+        this.rttManagerCompat = rttManagerCompat;
+    }
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(intent.getAction())) {
+            rttManagerCompat.invalidateRttCapabilities();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package de.plinzen.rttmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnchorSelectorTest {
+
+    /**
+     * Four anchors on the axes around the origin, the unit vectors to the origin are (+-1, 0) and (0, +-1).
+     */
+    private static AnchorSelector symmetricSelector() {
+        final AnchorSelector selector = new AnchorSelector(2);
+        selector.setAnchor(params("east"), 10, 0, 0);
+        selector.setAnchor(params("west"), -10, 0, 0);
+        selector.setAnchor(params("north"), 0, 10, 0);
+        selector.setAnchor(params("south"), 0, -10, 0);
+        return selector;
+    }
+
+    private static RttManagerCompat.RttParams params(final String bssid) {
+        final RttManagerCompat.RttParams params = new RttManagerCompat.RttParams();
+        params.bssid = bssid;
+        return params;
+    }
+
+    @Test
+    public void allSymmetricAnchorsGiveGdopOfOne() {
+        final AnchorSelector selector = symmetricSelector();
+
+        // H^T H = diag(2, 2), so trace((H^T H)^-1) = 1
+        assertEquals(4, selector.select(0, 0, 0, 1.1).length);
+        assertEquals(1, selector.getGdop(), 1e-5);
+    }
+
+    @Test
+    public void stopsAtMinimumSubsetWhenTargetIsMet() {
+        final AnchorSelector selector = symmetricSelector();
+
+        // three anchors, two opposite and one across: H^T H = diag(2, 1), trace of the inverse 1.5
+        assertEquals(3, selector.select(0, 0, 0, 2).length);
+        assertEquals(Math.sqrt(1.5), selector.getGdop(), 1e-5);
+    }
+
+    @Test
+    public void respectsMaxAnchorsAndMaxRange() {
+        final AnchorSelector selector = symmetricSelector();
+        selector.setAnchor(params("far"), 100, 100, 0);
+        selector.setMaxRange(20);
+        assertEquals(4, selector.select(0, 0, 0, 1).length);
+
+        selector.setMaxAnchors(3);
+        assertEquals(3, selector.select(0, 0, 0, 1).length);
+    }
+
+    @Test
+    public void selectsAllAnchorsWithoutFix() {
+        final AnchorSelector selector = symmetricSelector();
+        selector.removeAnchor("south");
+
+        assertEquals(3, selector.select(new PositionSolver.Position(), 1.5).length);
+        assertTrue(Double.isNaN(selector.getGdop()));
+    }
+
+    @Test
+    public void selectionWithoutFixRespectsMaxAnchors() {
+        final AnchorSelector selector = symmetricSelector();
+        selector.setMaxAnchors(3);
+
+        assertEquals(3, selector.select(new PositionSolver.Position(), 1.5).length);
+    }
+}
@@ -0,0 +1,120 @@
+package de.plinzen.rttmanager;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelPlannerTest {
+
+    private final ScriptedRttBackend backend = new ScriptedRttBackend();
+    private final List<Boolean> doneOnSuccess = new ArrayList<>();
+    /**
+     * Records whether the sweep is done when the results of a batch are delivered.
+     */
+    private final RecordingRttListener listener = new RecordingRttListener() {
+        @Override
+        public synchronized void onSuccess(final RttManagerCompat.RttResult[] results) {
+            doneOnSuccess.add(sweep.isDone());
+            super.onSuccess(results);
+        }
+    };
+    private final ChannelPlanner planner = new ChannelPlanner();
+    private final RttManagerCompat rttManager = new RttManagerCompat(backend);
+    private ChannelPlanner.Sweep sweep;
+
+    private static RttManagerCompat.RttParams params(final String bssid, final int frequency) {
+        final RttManagerCompat.RttParams params = new RttManagerCompat.RttParams();
+        params.bssid = bssid;
+        params.frequency = frequency;
+        params.centerFreq0 = frequency;
+        params.channelWidth = RttManagerCompat.RTT_CHANNEL_WIDTH_20;
+        return params;
+    }
+
+    @After
+    public void tearDown() {
+        backend.shutdown();
+    }
+
+    /**
+     * Starts a sweep of two peers on channel 36 and one on channel 40. The callbacks are held until the sweep is
+     * assigned.
+     */
+    private void startSweep() throws Throwable {
+        for (String bssid : new String[]{"a", "b", "c"}) {
+            backend.putPeer(bssid, 500);
+        }
+        backend.setHolding(true);
+        sweep = planner.sweep(rttManager, new RttManagerCompat.RttParams[]{
+                params("a", 5180), params("b", 5200), params("c", 5180)}, listener);
+    }
+
+    @Test
+    public void sweepIsDoneWithResultsOfLastBatch() throws Throwable {
+        startSweep();
+        backend.release(0);
+        listener.awaitCallbacks(1);
+        assertFalse(sweep.isDone());
+        backend.awaitHeld(1);
+        backend.release(1);
+        listener.awaitCallbacks(2);
+
+        assertEquals(2, backend.getRequests().size());
+        assertEquals(3, backend.getRequests().get(0).length + backend.getRequests().get(1).length);
+        assertFalse(doneOnSuccess.get(0));
+        assertTrue(doneOnSuccess.get(1));
+        assertTrue(sweep.isDone());
+    }
+
+    @Test
+    public void emptySweepIsDoneRightAway() throws Throwable {
+        sweep = planner.sweep(rttManager, new RttManagerCompat.RttParams[0], new RecordingRttListener());
+
+        assertTrue(sweep.isDone());
+        assertEquals(0, backend.getRequests().size());
+    }
+
+    @Test
+    public void failureEndsSweep() throws Throwable {
+        backend.failOn("b", RttManagerCompat.REASON_NOT_AVAILABLE);
+        startSweep();
+        backend.release(0);
+        listener.awaitCallbacks(2);
+
+        assertEquals(1, listener.getSuccesses().size());
+        assertEquals(RttManagerCompat.REASON_NOT_AVAILABLE, (int) listener.getFailures().get(0));
+        assertEquals(2, backend.getRequests().size());
+        assertTrue(sweep.isDone());
+    }
+
+    @Test
+    public void synchronousFailureOfFirstBatchEndsSweep() throws Throwable {
+        backend.failOn("a", RttManagerCompat.REASON_NOT_AVAILABLE);
+        final RecordingRttListener failing = new RecordingRttListener();
+        sweep = planner.sweep(rttManager, new RttManagerCompat.RttParams[]{
+                params("a", 5180), params("b", 5200)}, failing);
+
+        assertTrue(sweep.isDone());
+        assertEquals(RttManagerCompat.REASON_NOT_AVAILABLE, (int) failing.getFailures().get(0));
+        assertEquals(1, backend.getRequests().size());
+    }
+
+    @Test
+    public void stoppedSweepStartsNoFurtherBatch() throws Throwable {
+        startSweep();
+        backend.awaitHeld(0);
+        sweep.stop();
+        assertTrue(sweep.isDone());
+
+        backend.release(0);
+        Thread.sleep(100);
+        assertEquals(0, listener.getSuccesses().size());
+        assertEquals(1, backend.getRequests().size());
+    }
+}
@@ -0,0 +1,114 @@
+package de.plinzen.rttmanager;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChunkedRangingSchedulerTest {
+
+    private final ScriptedRttBackend backend = new ScriptedRttBackend();
+    private final ChunkedRangingScheduler scheduler = new ChunkedRangingScheduler(new RttManagerCompat(backend), 10);
+
+    private static RttManagerCompat.RttParams[] peers(final String prefix, final int count) {
+        final String[] bssids = new String[count];
+        for (int i = 0; i < count; i++) {
+            bssids[i] = prefix + i;
+        }
+        return SimulatedRttBackendTest.params(bssids);
+    }
+
+    @After
+    public void tearDown() {
+        backend.shutdown();
+    }
+
+    @Test
+    public void splitsRequestAndMergesResultsInOrder() throws InterruptedException {
+        final RttManagerCompat.RttParams[] params = peers("peer", 25);
+        for (RttManagerCompat.RttParams param : params) {
+            backend.putPeer(param.bssid, 500);
+        }
+        final RecordingRttListener listener = new RecordingRttListener();
+        scheduler.startRanging(params, listener);
+        listener.awaitCallbacks(1);
+
+        final List<RttManagerCompat.RttParams[]> requests = backend.getRequests();
+        assertEquals(3, requests.size());
+        assertEquals(10, requests.get(0).length);
+        assertEquals(10, requests.get(1).length);
+        assertEquals(5, requests.get(2).length);
+        final RttManagerCompat.RttResult[] results = listener.getSuccesses().get(0);
+        assertEquals(25, results.length);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(params[i].bssid, results[i].bssid);
+            assertEquals(RttManagerCompat.RTT_STATUS_SUCCESS, results[i].status);
+        }
+    }
+
+    @Test
+    public void failedChunkIsReportedPerPeer() throws InterruptedException {
+        final RttManagerCompat.RttParams[] params = peers("peer", 25);
+        for (RttManagerCompat.RttParams param : params) {
+            backend.putPeer(param.bssid, 500);
+        }
+        backend.failOn("peer12", RttManagerCompat.REASON_NOT_AVAILABLE);
+        backend.rejectOn("peer24");
+        final RecordingRttListener listener = new RecordingRttListener();
+        scheduler.startRanging(params, listener);
+        listener.awaitCallbacks(1);
+
+        final RttManagerCompat.RttResult[] results = listener.getSuccesses().get(0);
+        assertEquals(25, results.length);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(params[i].bssid, results[i].bssid);
+            assertEquals(i < 10 ? RttManagerCompat.RTT_STATUS_SUCCESS : RttManagerCompat.RTT_STATUS_FAILURE,
+                    results[i].status);
+        }
+    }
+
+    @Test
+    public void requestFailsOnlyIfEveryChunkFailed() throws InterruptedException {
+        final RttManagerCompat.RttParams[] params = peers("peer", 2000);
+        for (RttManagerCompat.RttParams param : params) {
+            backend.failOn(param.bssid, RttManagerCompat.REASON_INVALID_REQUEST);
+        }
+        final ChunkedRangingScheduler singlePeerScheduler = new ChunkedRangingScheduler(new RttManagerCompat(backend),
+                1);
+        final RecordingRttListener listener = new RecordingRttListener();
+        // every chunk fails from within startRanging, the scheduler must loop instead of recursing
+        singlePeerScheduler.startRanging(params, listener);
+        listener.awaitCallbacks(1);
+
+        assertEquals(2000, backend.getRequests().size());
+        assertEquals(0, listener.getSuccesses().size());
+        assertEquals(RttManagerCompat.REASON_INVALID_REQUEST, (int) listener.getFailures().get(0));
+    }
+
+    @Test
+    public void servesRequestsInOrderAndSkipsStoppedOnes() throws InterruptedException {
+        backend.setHolding(true);
+        final RecordingRttListener stopped = new RecordingRttListener();
+        final RecordingRttListener first = new RecordingRttListener();
+        final RecordingRttListener second = new RecordingRttListener();
+        scheduler.startRanging(peers("stopped", 3), stopped);
+        scheduler.startRanging(peers("first", 3), first);
+        scheduler.startRanging(peers("second", 3), second);
+        backend.awaitHeld(0);
+        scheduler.stopRanging(stopped);
+
+        // the late callback of the stopped request must not complete the next one
+        backend.release(0);
+        backend.release(backend.getRequests().size() - 1);
+        first.awaitCallbacks(1);
+        backend.release(2);
+        second.awaitCallbacks(1);
+
+        assertEquals(0, stopped.getSuccesses().size());
+        assertEquals(3, backend.getRequests().size());
+        assertEquals("first0", first.getSuccesses().get(0)[0].bssid);
+        assertEquals("second0", second.getSuccesses().get(0)[0].bssid);
+    }
+}
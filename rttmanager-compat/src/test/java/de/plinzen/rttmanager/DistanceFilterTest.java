@@ -0,0 +1,87 @@
+package de.plinzen.rttmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DistanceFilterTest {
+
+    private static final String BSSID = "00:11:22:33:44:55";
+
+    private static RttManagerCompat.RttResult result(final long ts, final int distance,
+            final int distanceStandardDeviation) {
+        final RttManagerCompat.RttResult result = new RttManagerCompat.RttResult();
+        result.bssid = BSSID;
+        result.status = RttManagerCompat.RTT_STATUS_SUCCESS;
+        result.ts = ts;
+        result.distance = distance;
+        result.distanceStandardDeviation = distanceStandardDeviation;
+        return result;
+    }
+
+    @Test
+    public void firstMeasurementInitializesTrack() {
+        final DistanceFilter filter = new DistanceFilter();
+        filter.update(result(0, 1000, 50));
+
+        assertEquals(1000, filter.getDistance(BSSID), 1e-9);
+        assertEquals(0, filter.getVelocity(BSSID), 1e-9);
+        assertEquals(2500, filter.getDistanceVariance(BSSID), 1e-9);
+    }
+
+    @Test
+    public void simultaneousMeasurementsAreAveraged() {
+        final DistanceFilter filter = new DistanceFilter();
+        filter.update(result(0, 1000, 100));
+        filter.update(result(0, 1200, 100));
+
+        // equal variances give a gain of 0.5 and halve the variance
+        assertEquals(1100, filter.getDistance(BSSID), 1e-9);
+        assertEquals(5000, filter.getDistanceVariance(BSSID), 1e-9);
+    }
+
+    @Test
+    public void outOfOrderMeasurementIsNotPredicted() {
+        final DistanceFilter filter = new DistanceFilter();
+        filter.update(result(1000000, 1000, 100));
+        filter.update(result(0, 1200, 100));
+
+        assertEquals(1100, filter.getDistance(BSSID), 1e-9);
+        assertEquals(5000, filter.getDistanceVariance(BSSID), 1e-9);
+    }
+
+    @Test
+    public void tracksConstantVelocity() {
+        final DistanceFilter filter = new DistanceFilter(new BssidIndex(), 0);
+        for (int second = 0; second <= 30; second++) {
+            filter.update(result(second * 1000000L, 1000 + 50 * second, 10));
+        }
+
+        assertEquals(2500, filter.getDistance(BSSID), 1);
+        assertEquals(50, filter.getVelocity(BSSID), 0.5);
+    }
+
+    @Test
+    public void failedResultIsNotApplied() {
+        final DistanceFilter filter = new DistanceFilter();
+        final RttManagerCompat.RttResult result = result(0, 1000, 100);
+        result.status = RttManagerCompat.RTT_STATUS_FAIL_NO_RSP;
+
+        assertFalse(filter.update(result));
+        assertTrue(Double.isNaN(filter.getDistance(BSSID)));
+    }
+
+    @Test
+    public void resetStartsNewTrack() {
+        final DistanceFilter filter = new DistanceFilter();
+        filter.update(result(0, 1000, 100));
+        filter.reset(BSSID);
+        assertTrue(Double.isNaN(filter.getDistance(BSSID)));
+
+        filter.update(result(1000000, 3000, 100));
+        assertEquals(3000, filter.getDistance(BSSID), 1e-9);
+        assertEquals(0, filter.getVelocity(BSSID), 1e-9);
+    }
+}
@@ -0,0 +1,54 @@
+package de.plinzen.rttmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LinearAlgebraTest {
+
+    @Test
+    public void choleskyFactorsKnownMatrix() {
+        final double[] a = {
+                4, 12, -16,
+                12, 37, -43,
+                -16, -43, 98};
+
+        assertTrue(LinearAlgebra.cholesky(a, 3));
+        // lower triangle of the factor, the upper triangle is left as it was
+        final double[] expected = {2, 6, 1, -8, 5, 3};
+        int k = 0;
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column <= row; column++) {
+                assertEquals(expected[k++], a[row * 3 + column], 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void choleskyRejectsIndefiniteMatrix() {
+        assertFalse(LinearAlgebra.cholesky(new double[]{1, 2, 2, 1}, 2));
+    }
+
+    @Test
+    public void choleskySolveRecoversSolution() {
+        final double[] a = {4, 2, 2, 3};
+        assertTrue(LinearAlgebra.cholesky(a, 2));
+        // A * (1, -1) = (2, -1)
+        final double[] x = {2, -1};
+        LinearAlgebra.choleskySolve(a, 2, x, x);
+
+        assertEquals(1, x[0], 1e-12);
+        assertEquals(-1, x[1], 1e-12);
+    }
+
+    @Test
+    public void inverseTraceOfKnownMatrix() {
+        final double[] a = {4, 2, 2, 3};
+        assertTrue(LinearAlgebra.cholesky(a, 2));
+
+        // the inverse is (3, -2, -2, 4) / 8
+        assertEquals(7 / 8.0, LinearAlgebra.inverseTrace(a, 2, new double[2]), 1e-12);
+    }
+}
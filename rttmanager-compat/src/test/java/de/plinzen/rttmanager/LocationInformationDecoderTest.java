@@ -0,0 +1,126 @@
+package de.plinzen.rttmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LocationInformationDecoderTest {
+
+    private static final String BSSID = "00:11:22:33:44:55";
+    /**
+     * LCI subelement with latitude 48.125, longitude -11.5, both with uncertainty 18, altitude -3.25 m with
+     * uncertainty 15 and datum WGS84.
+     */
+    private static final byte[] LCI_SUBELEMENT = {
+            0, 16,
+            (byte) 0x12, (byte) 0x00, (byte) 0x00, (byte) 0x10, (byte) 0x18, (byte) 0x12, (byte) 0x00, (byte) 0x00,
+            (byte) 0x40, (byte) 0xFA, (byte) 0xF1, (byte) 0x00, (byte) 0xF3, (byte) 0xFF, (byte) 0xFF, (byte) 0x01};
+    /**
+     * Location civic report in the RFC 4776 format with country code "DE" and the city "Kiel".
+     */
+    private static final byte[] LCR_PAYLOAD = {0, 0, 8, 'D', 'E', CivicLocation.CA_TYPE_CITY, 4, 'K', 'i', 'e', 'l'};
+    private static final byte MEASUREMENT_REPORT = 39;
+
+    private static RttManagerCompat.WifiInformationElement element(final byte id, final byte[] data) {
+        final RttManagerCompat.WifiInformationElement element = new RttManagerCompat.WifiInformationElement();
+        element.id = id;
+        element.data = data;
+        return element;
+    }
+
+    /**
+     * @return the LCI subelement behind a measurement report header of the given type
+     */
+    private static byte[] report(final int measurementType) {
+        final byte[] data = new byte[3 + LCI_SUBELEMENT.length];
+        data[0] = 1;
+        data[2] = (byte) measurementType;
+        System.arraycopy(LCI_SUBELEMENT, 0, data, 3, LCI_SUBELEMENT.length);
+        return data;
+    }
+
+    @Test
+    public void parsesLciBitFields() {
+        final LocationConfigurationInformation lci = LocationInformationDecoder.parseLci(LCI_SUBELEMENT, false);
+
+        assertNotNull(lci);
+        assertEquals(48.125, lci.getLatitude(), 0);
+        assertEquals(-11.5, lci.getLongitude(), 0);
+        assertEquals(Math.pow(2, -10), lci.getLatitudeUncertainty(), 0);
+        assertEquals(Math.pow(2, -10), lci.getLongitudeUncertainty(), 0);
+        assertEquals(LocationConfigurationInformation.ALTITUDE_TYPE_METERS, lci.getAltitudeType());
+        assertEquals(-3.25, lci.getAltitude(), 0);
+        assertEquals(64, lci.getAltitudeUncertainty(), 0);
+        assertEquals(LocationConfigurationInformation.DATUM_WGS84, lci.getDatum());
+    }
+
+    @Test
+    public void skipsReportHeaderOfMeasurementReportElement() {
+        final LocationConfigurationInformation lci = LocationInformationDecoder.parseLci(
+                element(MEASUREMENT_REPORT, report(8)));
+
+        assertNotNull(lci);
+        assertEquals(48.125, lci.getLatitude(), 0);
+    }
+
+    @Test
+    public void rejectsReportOfOtherMeasurementType() {
+        assertNull(LocationInformationDecoder.parseLci(element(MEASUREMENT_REPORT, report(11))));
+    }
+
+    @Test
+    public void rejectsTruncatedSubelement() {
+        final byte[] truncated = new byte[LCI_SUBELEMENT.length - 1];
+        System.arraycopy(LCI_SUBELEMENT, 0, truncated, 0, truncated.length);
+
+        assertNull(LocationInformationDecoder.parseLci(truncated, false));
+        assertNull(LocationInformationDecoder.parseLci(element((byte) 0xFF, LCI_SUBELEMENT)));
+    }
+
+    @Test
+    public void cacheCopiesPayload() {
+        final LocationInformationDecoder decoder = new LocationInformationDecoder();
+        final byte[] data = LCI_SUBELEMENT.clone();
+        final LocationConfigurationInformation first = decoder.decodeLci(BSSID, element((byte) 0, data));
+        assertSame(first, decoder.decodeLci(BSSID, element((byte) 0, data.clone())));
+
+        // a reused array with a new payload must not hit the cached element: the latitude becomes 48.125 + 2^-25
+        data[2] |= 0x40;
+        final LocationConfigurationInformation second = decoder.decodeLci(BSSID, element((byte) 0, data));
+        assertNotSame(first, second);
+        assertTrue(second.getLatitude() > first.getLatitude());
+    }
+
+    @Test
+    public void cachedCivicLocationDoesNotReadCallerArray() {
+        final LocationInformationDecoder decoder = new LocationInformationDecoder();
+        final byte[] data = LCR_PAYLOAD.clone();
+        final CivicLocation first = decoder.decodeLcr(BSSID, element((byte) 0, data));
+        assertEquals("Kiel", first.getValue(CivicLocation.CA_TYPE_CITY));
+
+        // the civic location is read lazily, it must not see the caller reusing the array
+        data[7] = 'X';
+        final CivicLocation second = decoder.decodeLcr(BSSID, element((byte) 0, LCR_PAYLOAD.clone()));
+        assertSame(first, second);
+        assertEquals("DE", second.getCountryCode());
+        assertEquals("Kiel", second.getValue(CivicLocation.CA_TYPE_CITY));
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsedAccessPoint() {
+        final LocationInformationDecoder decoder = new LocationInformationDecoder(2);
+        final LocationConfigurationInformation a = decoder.decodeLci("a", element((byte) 0, LCI_SUBELEMENT));
+        final LocationConfigurationInformation b = decoder.decodeLci("b", element((byte) 0, LCI_SUBELEMENT));
+        assertSame(a, decoder.decodeLci("a", element((byte) 0, LCI_SUBELEMENT)));
+
+        // "b" is the least recently used now and makes room for "c"
+        decoder.decodeLci("c", element((byte) 0, LCI_SUBELEMENT));
+        assertSame(a, decoder.decodeLci("a", element((byte) 0, LCI_SUBELEMENT)));
+        assertNotSame(b, decoder.decodeLci("b", element((byte) 0, LCI_SUBELEMENT)));
+    }
+}
@@ -0,0 +1,44 @@
+package de.plinzen.rttmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NativeCallbackRegistryTest {
+
+    @Test
+    public void keysAreComparedByIdentity() {
+        final NativeCallbackRegistry<String, Object> registry = new NativeCallbackRegistry<>();
+        final String first = new String("listener");
+        final String second = new String("listener");
+        final Object firstWrapper = new Object();
+        final Object secondWrapper = new Object();
+        registry.register(first, firstWrapper);
+        registry.register(second, secondWrapper);
+
+        assertEquals(2, registry.size());
+        assertSame(firstWrapper, registry.get(first));
+        assertSame(secondWrapper, registry.unregister(second));
+        assertNull(registry.get(second));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void wrapperDoesNotUnregisterItsReplacement() {
+        final NativeCallbackRegistry<Object, Object> registry = new NativeCallbackRegistry<>();
+        final Object key = new Object();
+        final Object stale = new Object();
+        final Object current = new Object();
+        registry.register(key, stale);
+        assertSame(stale, registry.register(key, current));
+
+        assertFalse(registry.unregister(key, stale));
+        assertSame(current, registry.get(key));
+        assertTrue(registry.unregister(key, current));
+        assertEquals(0, registry.size());
+    }
+}
@@ -0,0 +1,108 @@
+package de.plinzen.rttmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PositionSolverTest {
+
+    private static final double[][] ANCHORS = {
+            {0, 0, 3},
+            {10, 0, 3},
+            {0, 10, 3},
+            {10, 10, 0},
+            {5, 12, 0}};
+
+    /**
+     * @return results with the exact ranges from the anchors to the position, rounded to cm like the platform
+     */
+    private static RttManagerCompat.RttResult[] exactResults(final double x, final double y, final double z) {
+        final RttManagerCompat.RttResult[] results = new RttManagerCompat.RttResult[ANCHORS.length];
+        for (int i = 0; i < ANCHORS.length; i++) {
+            final double dx = x - ANCHORS[i][0];
+            final double dy = y - ANCHORS[i][1];
+            final double dz = z - ANCHORS[i][2];
+            results[i] = new RttManagerCompat.RttResult();
+            results[i].bssid = "anchor" + i;
+            results[i].status = RttManagerCompat.RTT_STATUS_SUCCESS;
+            results[i].distance = (int) Math.round(100 * Math.sqrt(dx * dx + dy * dy + dz * dz));
+            results[i].distanceStandardDeviation = 50;
+        }
+        return results;
+    }
+
+    private static PositionSolver solver(final int dimension) {
+        final PositionSolver solver = new PositionSolver(dimension);
+        for (int i = 0; i < ANCHORS.length; i++) {
+            solver.setAnchor("anchor" + i, ANCHORS[i][0], ANCHORS[i][1], ANCHORS[i][2]);
+        }
+        return solver;
+    }
+
+    @Test
+    public void recoversPositionFromExactRangesIn2d() {
+        final PositionSolver solver = solver(2);
+        solver.setHeight(1.2);
+        final PositionSolver.Position position = new PositionSolver.Position();
+
+        assertTrue(solver.solve(exactResults(3, 4, 1.2), position));
+        assertTrue(position.isValid());
+        assertEquals(3, position.getX(), 0.01);
+        assertEquals(4, position.getY(), 0.01);
+        assertEquals(1.2, position.getZ(), 1e-12);
+        assertEquals(ANCHORS.length, position.getMeasurementCount());
+        assertTrue(position.getResidual() < 0.05);
+    }
+
+    @Test
+    public void recoversPositionFromExactRangesIn3d() {
+        final PositionSolver solver = solver(3);
+        final PositionSolver.Position position = new PositionSolver.Position();
+
+        assertTrue(solver.solve(exactResults(7, 2, 1.5), position));
+        assertEquals(7, position.getX(), 0.01);
+        assertEquals(2, position.getY(), 0.01);
+        // the anchors span only 3 m in height, which amplifies the rounding of the ranges to cm vertically
+        assertEquals(1.5, position.getZ(), 0.03);
+    }
+
+    @Test
+    public void convergesFromPreviousFix() {
+        final PositionSolver solver = solver(2);
+        final PositionSolver.Position position = new PositionSolver.Position();
+        position.set(8, 8, 0);
+
+        assertTrue(solver.solve(exactResults(2, 6, 0), position));
+        assertEquals(2, position.getX(), 0.01);
+        assertEquals(6, position.getY(), 0.01);
+    }
+
+    @Test
+    public void ignoresFailedResultsAndUnknownAnchors() {
+        final PositionSolver solver = solver(2);
+        final RttManagerCompat.RttResult[] results = exactResults(3, 4, 0);
+        results[0].status = RttManagerCompat.RTT_STATUS_FAIL_NO_RSP;
+        results[1].bssid = "unknown";
+        final PositionSolver.Position position = new PositionSolver.Position();
+
+        assertTrue(solver.solve(results, position));
+        assertEquals(3, position.getMeasurementCount());
+        assertEquals(3, position.getX(), 0.01);
+        assertEquals(4, position.getY(), 0.01);
+    }
+
+    @Test
+    public void failsWithoutEnoughMeasurements() {
+        final PositionSolver solver = solver(3);
+        final RttManagerCompat.RttResult[] results = exactResults(3, 4, 0);
+        results[0].status = RttManagerCompat.RTT_STATUS_FAIL_NO_RSP;
+        results[1].status = RttManagerCompat.RTT_STATUS_FAIL_NO_RSP;
+        final PositionSolver.Position position = new PositionSolver.Position();
+
+        assertFalse(solver.solve(results, position));
+        assertFalse(position.isValid());
+        assertEquals(3, position.getMeasurementCount());
+    }
+}
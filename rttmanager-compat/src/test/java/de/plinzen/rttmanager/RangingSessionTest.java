@@ -0,0 +1,78 @@
+package de.plinzen.rttmanager;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RangingSessionTest {
+
+    private final ScriptedRttBackend backend = new ScriptedRttBackend();
+    private final RecordingRttListener listener = new RecordingRttListener();
+    // 100 cycles per second, a cycle times out after 100 ms
+    private final RangingSession session = new RangingSession(new RttManagerCompat(backend),
+            SimulatedRttBackendTest.params("old"), 100, listener);
+
+    @After
+    public void tearDown() {
+        session.stop();
+        backend.shutdown();
+    }
+
+    @Test
+    public void timedOutCycleIsRestartedAndItsLateCallbackIgnored() throws InterruptedException {
+        backend.putPeer("old", 500);
+        backend.putPeer("new", 500);
+        backend.setHolding(true);
+        session.start();
+        backend.awaitHeld(0);
+        session.setPeers(SimulatedRttBackendTest.params("new"));
+        backend.awaitHeld(1);
+        assertTrue(session.getDroppedCycles() > 0);
+
+        // both callbacks are delivered in order on the callback thread, the first one belongs to the timed out cycle
+        backend.release(0);
+        backend.release(1);
+        listener.awaitCallbacks(1);
+        session.stop();
+
+        assertEquals(1, listener.getSuccesses().size());
+        assertEquals("new", listener.getSuccesses().get(0)[0].bssid);
+        assertEquals(1, session.getCompletedCycles());
+    }
+
+    @Test
+    public void callbackOfStoppedRunIsIgnoredAfterRestart() throws InterruptedException {
+        backend.putPeer("old", 500);
+        backend.putPeer("new", 500);
+        backend.setHolding(true);
+        session.start();
+        backend.awaitHeld(0);
+        session.stop();
+        session.setPeers(SimulatedRttBackendTest.params("new"));
+        session.start();
+        backend.awaitHeld(1);
+
+        backend.release(0);
+        backend.release(1);
+        listener.awaitCallbacks(1);
+        session.stop();
+
+        assertEquals(1, listener.getSuccesses().size());
+        assertEquals("new", listener.getSuccesses().get(0)[0].bssid);
+        assertEquals(1, session.getCompletedCycles());
+    }
+
+    @Test
+    public void rejectedCycleIsReportedAndDropped() throws InterruptedException {
+        backend.rejectOn("old");
+        session.start();
+        listener.awaitCallbacks(2);
+        session.stop();
+
+        assertEquals(0, listener.getSuccesses().size());
+        assertEquals(RttManagerCompat.REASON_UNSPECIFIED, (int) listener.getFailures().get(0));
+        assertTrue(session.getDroppedCycles() >= 2);
+    }
+}
@@ -0,0 +1,135 @@
+package de.plinzen.rttmanager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RangingStatisticsTest {
+
+    private static final String BSSID = "00:11:22:33:44:55";
+
+    private static RttManagerCompat.RttResult result(final int status, final int distance) {
+        final RttManagerCompat.RttResult result = new RttManagerCompat.RttResult();
+        result.bssid = BSSID;
+        result.status = status;
+        result.distance = distance;
+        return result;
+    }
+
+    @Test
+    public void computesMomentsAndExtremes() {
+        final RangingStatistics statistics = new RangingStatistics();
+        for (int distance : new int[]{100, 200, 300, 400}) {
+            statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, distance));
+        }
+
+        final RangingStatistics.Statistics copy = statistics.getStatistics(BSSID);
+        assertEquals(4, copy.getSampleCount());
+        assertEquals(250, copy.getMean(), 1e-9);
+        assertEquals(50000 / 3.0, copy.getVariance(), 1e-9);
+        assertEquals(100, copy.getMin());
+        assertEquals(400, copy.getMax());
+    }
+
+    @Test
+    public void countsStatusesAndSkipsFailedDistances() {
+        final RangingStatistics statistics = new RangingStatistics();
+        statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, 100));
+        statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, 300));
+        statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, 200));
+        statistics.add(result(RttManagerCompat.RTT_STATUS_FAIL_BUSY_TRY_LATER, 100000));
+
+        final RangingStatistics.Statistics copy = statistics.getStatistics(BSSID);
+        assertEquals(4, copy.getResultCount());
+        assertEquals(3, copy.getSampleCount());
+        assertEquals(1, copy.getStatusCount(RttManagerCompat.RTT_STATUS_FAIL_BUSY_TRY_LATER));
+        assertEquals(0.75, copy.getSuccessRate(), 1e-9);
+        assertEquals(300, copy.getMax());
+    }
+
+    @Test
+    public void ewmaWeightsNewSamples() {
+        final RangingStatistics statistics = new RangingStatistics(new BssidIndex(), 0.5);
+        statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, 100));
+        statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, 200));
+        statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, 400));
+
+        // 100, then 100 + 0.5 * 100 = 150, then 150 + 0.5 * 250 = 275
+        assertEquals(275, statistics.getStatistics(BSSID).getEwma(), 1e-9);
+    }
+
+    @Test
+    public void medianIsExactForFiveSamples() {
+        final RangingStatistics statistics = new RangingStatistics();
+        for (int distance : new int[]{500, 100, 400, 200, 300}) {
+            statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, distance));
+        }
+
+        assertEquals(300, statistics.getStatistics(BSSID).getMedian(), 1e-9);
+    }
+
+    @Test
+    public void medianEstimateConvergesOnShuffledStream() {
+        final List<Integer> distances = new ArrayList<>();
+        for (int distance = 1; distance <= 10001; distance++) {
+            distances.add(distance);
+        }
+        Collections.shuffle(distances, new Random(42));
+        final RangingStatistics statistics = new RangingStatistics();
+        for (int distance : distances) {
+            statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, distance));
+        }
+
+        // the true median is 5001, the P-square estimate is expected within 1 % of the range
+        assertEquals(5001, statistics.getStatistics(BSSID).getMedian(), 100);
+    }
+
+    @Test
+    public void unknownBssidHasNoStatistics() {
+        final RangingStatistics statistics = new RangingStatistics();
+        statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, 100));
+
+        assertNull(statistics.getStatistics("66:77:88:99:aa:bb"));
+        assertFalse(statistics.getStatistics("66:77:88:99:aa:bb", new RangingStatistics.Statistics()));
+    }
+
+    @Test
+    public void readerNeverSeesTornUpdate() throws InterruptedException {
+        final RangingStatistics statistics = new RangingStatistics();
+        statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, 1));
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicBoolean torn = new AtomicBoolean();
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final RangingStatistics.Statistics copy = new RangingStatistics.Statistics();
+                while (running.get()) {
+                    assertTrue(statistics.getStatistics(BSSID, copy));
+                    // the writer adds 1, 2, 3, ... so every consistent copy satisfies these invariants
+                    final long samples = copy.getSampleCount();
+                    if (copy.getMax() != samples || copy.getMin() != 1
+                            || Math.abs(copy.getMean() - (samples + 1) / 2.0) > 1e-6 * samples) {
+                        torn.set(true);
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int distance = 2; distance <= 200000; distance++) {
+            statistics.add(result(RttManagerCompat.RTT_STATUS_SUCCESS, distance));
+        }
+        running.set(false);
+        reader.join();
+
+        assertFalse(torn.get());
+    }
+}
@@ -0,0 +1,62 @@
+package de.plinzen.rttmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Listener of the tests which records every callback and lets the test wait for them.
+ */
+class RecordingRttListener implements RttManagerCompat.RttListener {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+    private final List<Integer> failures = new ArrayList<>();
+    private final List<RttManagerCompat.RttResult[]> successes = new ArrayList<>();
+    private int aborts;
+
+    @Override
+    public synchronized void onAborted() {
+        aborts++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onFailure(final int reason, final String description) {
+        failures.add(reason);
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void onSuccess(final RttManagerCompat.RttResult[] results) {
+        successes.add(results);
+        notifyAll();
+    }
+
+    synchronized int getAborts() {
+        return aborts;
+    }
+
+    synchronized List<Integer> getFailures() {
+        return new ArrayList<>(failures);
+    }
+
+    synchronized List<RttManagerCompat.RttResult[]> getSuccesses() {
+        return new ArrayList<>(successes);
+    }
+
+    /**
+     * Waits until the given number of callbacks of any kind has been received.
+     */
+    synchronized void awaitCallbacks(final int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (aborts + failures.size() + successes.size() < count) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                fail("Received " + (aborts + failures.size() + successes.size()) + " of " + count + " callbacks.");
+            }
+            wait(remaining);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package de.plinzen.rttmanager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResponderIndexTest {
+
+    private static final double TOLERANCE = 1e-9;
+
+    private static double distance(final ResponderRecord record, final double x, final double y, final double z) {
+        final double dx = record.getX() - x;
+        final double dy = record.getY() - y;
+        final double dz = record.getZ() - z;
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * @return records on a venue of 200 x 100 x 12 m, every tenth one placed on the position of an earlier one
+     */
+    private static List<ResponderRecord> randomRecords(final Random random, final int count) {
+        final List<ResponderRecord> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final double x;
+            final double y;
+            final double z;
+            if (i > 0 && i % 10 == 0) {
+                final ResponderRecord twin = records.get(random.nextInt(i));
+                x = twin.getX();
+                y = twin.getY();
+                z = twin.getZ();
+            } else {
+                x = random.nextDouble() * 200;
+                y = random.nextDouble() * 100;
+                z = random.nextInt(4) * 4;
+            }
+            records.add(new ResponderRecord("bssid" + i, x, y, z, 5180, 5190, 0,
+                    RttManagerCompat.RTT_CHANNEL_WIDTH_40, null));
+        }
+        return records;
+    }
+
+    /**
+     * @return the distances of all records to the position, sorted
+     */
+    private static List<Double> sortedDistances(final List<ResponderRecord> records, final double x, final double y,
+            final double z) {
+        final List<Double> distances = new ArrayList<>();
+        for (ResponderRecord record : records) {
+            distances.add(distance(record, x, y, z));
+        }
+        Collections.sort(distances);
+        return distances;
+    }
+
+    @Test
+    public void findNearestMatchesBruteForce() {
+        final Random random = new Random(7);
+        final List<ResponderRecord> records = randomRecords(random, 500);
+        final ResponderIndex index = new ResponderIndex(records);
+
+        for (int query = 0; query < 200; query++) {
+            final double x = random.nextDouble() * 240 - 20;
+            final double y = random.nextDouble() * 140 - 20;
+            final double z = random.nextDouble() * 12;
+            final int k = 1 + random.nextInt(20);
+            final List<Double> expected = sortedDistances(records, x, y, z);
+
+            final ResponderRecord[] nearest = index.findNearest(x, y, z, k);
+            assertEquals(k, nearest.length);
+            for (int i = 0; i < k; i++) {
+                // ties may be returned in any order, so the distances are compared
+                assertEquals(expected.get(i), distance(nearest[i], x, y, z), TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void findWithinMatchesBruteForce() {
+        final Random random = new Random(11);
+        final List<ResponderRecord> records = randomRecords(random, 500);
+        final ResponderIndex index = new ResponderIndex(records);
+
+        for (int query = 0; query < 200; query++) {
+            final double x = random.nextDouble() * 200;
+            final double y = random.nextDouble() * 100;
+            final double z = random.nextDouble() * 12;
+            final double radius = random.nextDouble() * 30;
+            final Set<ResponderRecord> expected = new HashSet<>();
+            for (ResponderRecord record : records) {
+                if (distance(record, x, y, z) <= radius) {
+                    expected.add(record);
+                }
+            }
+
+            final List<ResponderRecord> within = index.findWithin(x, y, z, radius);
+            assertEquals(expected, new HashSet<>(within));
+            assertEquals(expected.size(), within.size());
+            for (int i = 1; i < within.size(); i++) {
+                assertTrue(distance(within.get(i - 1), x, y, z) <= distance(within.get(i), x, y, z));
+            }
+        }
+    }
+
+    @Test
+    public void findNearestIsLimitedBySize() {
+        final List<ResponderRecord> records = randomRecords(new Random(3), 5);
+        final ResponderIndex index = new ResponderIndex(records);
+
+        assertEquals(5, index.findNearest(0, 0, 0, 10).length);
+        assertEquals(0, index.findNearest(0, 0, 0, 0).length);
+        assertEquals(0, new ResponderIndex(new ArrayList<ResponderRecord>()).findNearest(0, 0, 0, 3).length);
+    }
+}
@@ -0,0 +1,177 @@
+package de.plinzen.rttmanager;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RetrySchedulerTest {
+
+    private final ScriptedRttBackend backend = new ScriptedRttBackend();
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+    private final RecordingRttListener listener = new RecordingRttListener();
+    private final CountDownLatch timerBlocked = new CountDownLatch(1);
+    private final RetryScheduler scheduler = new RetryScheduler(new RttManagerCompat(backend), listener, executor);
+
+    private static List<String> bssids(final RttManagerCompat.RttParams[] params) {
+        final List<String> bssids = new ArrayList<>();
+        for (RttManagerCompat.RttParams param : params) {
+            bssids.add(param.bssid);
+        }
+        return bssids;
+    }
+
+    private static List<String> bssids(final String... bssids) {
+        final List<String> list = new ArrayList<>();
+        for (String bssid : bssids) {
+            list.add(bssid);
+        }
+        return list;
+    }
+
+    @After
+    public void tearDown() {
+        timerBlocked.countDown();
+        scheduler.stop();
+        executor.shutdownNow();
+        backend.shutdown();
+    }
+
+    /**
+     * Keeps the retry timer from firing, so due retries are only taken along with requests.
+     */
+    private void blockTimer() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    timerBlocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    private RttManagerCompat.RttParams[] lastRequest() {
+        final List<RttManagerCompat.RttParams[]> requests = backend.getRequests();
+        return requests.get(requests.size() - 1);
+    }
+
+    @Test
+    public void timerRetriesUntilMaxAttempts() throws InterruptedException {
+        scheduler.setBackoff(10, 40);
+        scheduler.setMaxAttempts(2);
+        // the backend does not know the peer, every result is RTT_STATUS_FAIL_NO_RSP
+        scheduler.startRanging(SimulatedRttBackendTest.params("gone"));
+        listener.awaitCallbacks(3);
+        Thread.sleep(200);
+
+        assertEquals(3, backend.getRequests().size());
+        assertEquals(3, listener.getSuccesses().size());
+        assertEquals(2, scheduler.getRetryCount("gone"));
+        assertEquals(0, scheduler.getPendingRetries());
+    }
+
+    @Test
+    public void dueRetryIsCoalescedIntoNextRequest() throws InterruptedException {
+        blockTimer();
+        backend.putPeer("peer", 500);
+        scheduler.setBackoff(10, 10);
+        scheduler.startRanging(SimulatedRttBackendTest.params("gone"));
+        listener.awaitCallbacks(1);
+        assertEquals(1, scheduler.getPendingRetries());
+        Thread.sleep(20);
+
+        scheduler.startRanging(SimulatedRttBackendTest.params("peer"));
+        listener.awaitCallbacks(2);
+        assertEquals(bssids("peer", "gone"), bssids(lastRequest()));
+        assertEquals(1, scheduler.getRetryCount("gone"));
+
+        // a requested peer is ranged once, its pending retry is dropped and not counted
+        Thread.sleep(20);
+        scheduler.startRanging(SimulatedRttBackendTest.params("gone"));
+        assertEquals(bssids("gone"), bssids(lastRequest()));
+        assertEquals(1, scheduler.getRetryCount("gone"));
+    }
+
+    @Test
+    public void retryHonorsRetryAfterDuration() throws InterruptedException {
+        blockTimer();
+        backend.putPeer("busy", 500);
+        backend.putPeer("peer", 500);
+        backend.setStatusWeight(RttManagerCompat.RTT_STATUS_SUCCESS, 0);
+        backend.setStatusWeight(RttManagerCompat.RTT_STATUS_FAIL_BUSY_TRY_LATER, 1);
+        scheduler.setBackoff(10, 10);
+        scheduler.startRanging(SimulatedRttBackendTest.params("busy"));
+        listener.awaitCallbacks(1);
+        Thread.sleep(100);
+
+        // the backoff has passed, but the peer asked for at least one second
+        scheduler.startRanging(SimulatedRttBackendTest.params("peer"));
+        assertEquals(bssids("peer"), bssids(lastRequest()));
+        listener.awaitCallbacks(2);
+        assertEquals(0, scheduler.getRetryCount("busy"));
+        assertEquals(2, scheduler.getPendingRetries());
+    }
+
+    @Test
+    public void retriesOfFailedDispatchStayPending() throws InterruptedException {
+        blockTimer();
+        backend.putPeer("peer", 500);
+        backend.rejectOn("rejected");
+        backend.failOn("failing", RttManagerCompat.REASON_NOT_AVAILABLE);
+        scheduler.setBackoff(10, 10);
+        scheduler.startRanging(SimulatedRttBackendTest.params("gone"));
+        listener.awaitCallbacks(1);
+        Thread.sleep(20);
+
+        scheduler.startRanging(SimulatedRttBackendTest.params("rejected"));
+        assertEquals(bssids("rejected", "gone"), bssids(lastRequest()));
+        scheduler.startRanging(SimulatedRttBackendTest.params("failing"));
+        assertEquals(bssids("failing", "gone"), bssids(lastRequest()));
+        assertEquals(0, scheduler.getRetryCount("gone"));
+        assertEquals(1, scheduler.getPendingRetries());
+        assertEquals(RttManagerCompat.REASON_UNSPECIFIED, (int) listener.getFailures().get(0));
+        assertEquals(RttManagerCompat.REASON_NOT_AVAILABLE, (int) listener.getFailures().get(1));
+
+        scheduler.startRanging(SimulatedRttBackendTest.params("peer"));
+        assertEquals(bssids("peer", "gone"), bssids(lastRequest()));
+        assertEquals(1, scheduler.getRetryCount("gone"));
+    }
+
+    @Test
+    public void forgetsLeastRecentlyRangedPeers() throws InterruptedException {
+        final String[] bssids = new String[1100];
+        for (int i = 0; i < bssids.length; i++) {
+            bssids[i] = "peer" + i;
+            backend.putPeer(bssids[i], 500);
+        }
+        bssids[0] = "gone";
+        scheduler.setBackoff(10000, 10000);
+        scheduler.startRanging(SimulatedRttBackendTest.params(bssids));
+        listener.awaitCallbacks(1);
+
+        // the first peers are dropped while their request runs, a failed one is added again for its retry
+        assertEquals(1024, scheduler.getRetryCounts().size());
+        assertTrue(scheduler.getRetryCounts().containsKey("gone"));
+        assertEquals(1, scheduler.getPendingRetries());
+    }
+
+    @Test
+    public void missingResultsAreDelivered() throws InterruptedException {
+        backend.setHolding(true);
+        scheduler.startRanging(SimulatedRttBackendTest.params("peer"));
+        backend.awaitHeld(0).onSuccess(null);
+
+        assertNull(listener.getSuccesses().get(0));
+        assertEquals(0, scheduler.getPendingRetries());
+    }
+}
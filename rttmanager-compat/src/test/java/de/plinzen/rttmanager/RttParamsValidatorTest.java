@@ -0,0 +1,133 @@
+package de.plinzen.rttmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RttParamsValidatorTest {
+
+    /**
+     * @return capabilities of a device with one and two sided ranging, LCI, LCR, HT preambles and up to 40 MHz
+     */
+    private static RttManagerCompat.RttCapabilities capabilities() {
+        final RttManagerCompat.RttCapabilities capabilities = new RttManagerCompat.RttCapabilities();
+        capabilities.oneSidedRttSupported = true;
+        capabilities.twoSided11McRttSupported = true;
+        capabilities.lciSupported = true;
+        capabilities.lcrSupported = true;
+        capabilities.preambleSupported = RttManagerCompat.PREAMBLE_LEGACY | RttManagerCompat.PREAMBLE_HT;
+        capabilities.bwSupported = RttManagerCompat.RTT_BW_20_SUPPORT | RttManagerCompat.RTT_BW_40_SUPPORT;
+        return capabilities;
+    }
+
+    private static RttManagerCompat.RttParams params(final int preamble, final int bandwidth) {
+        final RttManagerCompat.RttParams params = new RttManagerCompat.RttParams();
+        params.bssid = "00:11:22:33:44:55";
+        params.requestType = RttManagerCompat.RTT_TYPE_TWO_SIDED;
+        params.LCIRequest = true;
+        params.LCRRequest = true;
+        params.preamble = preamble;
+        params.bandwidth = bandwidth;
+        return params;
+    }
+
+    @Test
+    public void acceptsSupportedParamUnchanged() {
+        final RttManagerCompat.RttParams params = params(RttManagerCompat.PREAMBLE_HT,
+                RttManagerCompat.RTT_BW_40_SUPPORT);
+        final RttParamsValidator.Result result = new RttParamsValidator(capabilities()).validate(
+                new RttManagerCompat.RttParams[]{params});
+
+        assertSame(params, result.getAccepted()[0]);
+        assertEquals(0, result.getViolations(0));
+        assertFalse(result.hasRejections());
+    }
+
+    @Test
+    public void lowersPreambleAndBandwidthOnCopy() {
+        final RttManagerCompat.RttParams params = params(RttManagerCompat.PREAMBLE_VHT,
+                RttManagerCompat.RTT_BW_80_SUPPORT);
+        final RttParamsValidator.Result result = new RttParamsValidator(capabilities()).validate(
+                new RttManagerCompat.RttParams[]{params});
+
+        final RttManagerCompat.RttParams accepted = result.getAccepted()[0];
+        assertNotSame(params, accepted);
+        assertEquals(params.bssid, accepted.bssid);
+        assertEquals(RttManagerCompat.PREAMBLE_HT, accepted.preamble);
+        assertEquals(RttManagerCompat.RTT_BW_40_SUPPORT, accepted.bandwidth);
+        assertEquals(RttParamsValidator.VIOLATION_PREAMBLE | RttParamsValidator.VIOLATION_BANDWIDTH,
+                result.getViolations(0));
+        assertEquals(RttManagerCompat.PREAMBLE_VHT, params.preamble);
+        assertEquals(RttManagerCompat.RTT_BW_80_SUPPORT, params.bandwidth);
+    }
+
+    @Test
+    public void limitsBandwidthToLegacyPreamble() {
+        final RttParamsValidator.Result result = new RttParamsValidator(capabilities()).validate(
+                new RttManagerCompat.RttParams[]{params(RttManagerCompat.PREAMBLE_LEGACY,
+                        RttManagerCompat.RTT_BW_40_SUPPORT)});
+
+        assertEquals(RttManagerCompat.RTT_BW_20_SUPPORT, result.getAccepted()[0].bandwidth);
+        assertEquals(RttParamsValidator.VIOLATION_BANDWIDTH, result.getViolations(0));
+    }
+
+    @Test
+    public void fallsBackToOneSidedWithoutLocation() {
+        final RttManagerCompat.RttCapabilities capabilities = capabilities();
+        capabilities.twoSided11McRttSupported = false;
+        final RttParamsValidator.Result result = new RttParamsValidator(capabilities).validate(
+                new RttManagerCompat.RttParams[]{params(RttManagerCompat.PREAMBLE_HT,
+                        RttManagerCompat.RTT_BW_20_SUPPORT)});
+
+        final RttManagerCompat.RttParams accepted = result.getAccepted()[0];
+        assertEquals(RttManagerCompat.RTT_TYPE_ONE_SIDED, accepted.requestType);
+        assertFalse(accepted.LCIRequest);
+        assertFalse(accepted.LCRRequest);
+        assertEquals(RttParamsValidator.VIOLATION_REQUEST_TYPE | RttParamsValidator.VIOLATION_LCI
+                | RttParamsValidator.VIOLATION_LCR, result.getViolations(0));
+    }
+
+    @Test
+    public void rejectsWhatCanNotBeDowngraded() {
+        final RttManagerCompat.RttParams secure = params(RttManagerCompat.PREAMBLE_HT,
+                RttManagerCompat.RTT_BW_20_SUPPORT);
+        secure.secure = true;
+        final RttManagerCompat.RttParams narrow = params(RttManagerCompat.PREAMBLE_HT,
+                RttManagerCompat.RTT_BW_10_SUPPORT);
+        final RttParamsValidator.Result result = new RttParamsValidator(capabilities()).validate(
+                new RttManagerCompat.RttParams[]{secure, narrow});
+
+        assertEquals(0, result.getAccepted().length);
+        assertSame(secure, result.getRejected()[0]);
+        assertSame(narrow, result.getRejected()[1]);
+        assertEquals(RttParamsValidator.VIOLATION_SECURE, result.getViolations(0));
+        assertEquals(RttParamsValidator.VIOLATION_BANDWIDTH, result.getViolations(1));
+    }
+
+    @Test
+    public void rejectsViolationsWithoutDowngrade() {
+        final RttParamsValidator validator = new RttParamsValidator(capabilities());
+        validator.setDowngradeAllowed(false);
+        final RttParamsValidator.Result result = validator.validate(new RttManagerCompat.RttParams[]{
+                params(RttManagerCompat.PREAMBLE_VHT, RttManagerCompat.RTT_BW_20_SUPPORT)});
+
+        assertTrue(result.hasRejections());
+        assertEquals(RttParamsValidator.VIOLATION_PREAMBLE, result.getViolations(0));
+    }
+
+    @Test
+    public void unknownMasksAreNotChecked() {
+        final RttManagerCompat.RttCapabilities capabilities = capabilities();
+        capabilities.preambleSupported = 0;
+        capabilities.bwSupported = 0;
+        final RttManagerCompat.RttParams params = params(RttManagerCompat.PREAMBLE_VHT,
+                RttManagerCompat.RTT_BW_160_SUPPORT);
+
+        assertSame(params, new RttParamsValidator(capabilities).validate(
+                new RttManagerCompat.RttParams[]{params}).getAccepted()[0]);
+    }
+}
@@ -0,0 +1,121 @@
+package de.plinzen.rttmanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Simulated backend of the tests which logs every request and can hold requests back, fail them or reject them.
+ */
+class ScriptedRttBackend extends SimulatedRttBackend {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+    private final Map<String, Integer> failures = new HashMap<>();
+    private final List<RttManagerCompat.RttListener> heldListeners = new ArrayList<>();
+    private final List<RttManagerCompat.RttParams[]> heldParams = new ArrayList<>();
+    private final Set<String> rejections = new HashSet<>();
+    private final List<RttManagerCompat.RttParams[]> requests = new ArrayList<>();
+    private boolean holding;
+
+    ScriptedRttBackend() {
+        super(1);
+    }
+
+    private static boolean contains(final Set<String> bssids, final RttManagerCompat.RttParams[] params) {
+        for (RttManagerCompat.RttParams param : params) {
+            if (bssids.contains(param.bssid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Requests containing the peer are answered with {@code onFailure} from within {@code startRanging}, like the
+     * platform rejecting a request.
+     */
+    synchronized void failOn(final String bssid, final int reason) {
+        failures.put(bssid, reason);
+    }
+
+    /**
+     * Requests containing the peer throw from {@code startRanging}.
+     */
+    synchronized void rejectOn(final String bssid) {
+        rejections.add(bssid);
+    }
+
+    /**
+     * Holds back the callbacks of the following requests until they are released.
+     */
+    synchronized void setHolding(final boolean holding) {
+        this.holding = holding;
+    }
+
+    synchronized List<RttManagerCompat.RttParams[]> getRequests() {
+        return new ArrayList<>(requests);
+    }
+
+    /**
+     * @return the listener of the held request with the given index, waits until it has been started
+     */
+    synchronized RttManagerCompat.RttListener awaitHeld(final int index) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (heldListeners.size() <= index) {
+            final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                fail("Request " + index + " has not been started.");
+            }
+            wait(remaining);
+        }
+        return heldListeners.get(index);
+    }
+
+    /**
+     * Delivers the results of a held request, also if it has been stopped in the meantime, like a late callback of
+     * the platform.
+     */
+    void release(final int index) {
+        final RttManagerCompat.RttParams[] params;
+        final RttManagerCompat.RttListener listener;
+        synchronized (this) {
+            params = heldParams.get(index);
+            listener = heldListeners.get(index);
+        }
+        super.startRanging(params, listener);
+    }
+
+    @Override
+    public void startRanging(final RttManagerCompat.RttParams[] params,
+            final RttManagerCompat.RttListener listener) {
+        Integer failure = null;
+        synchronized (this) {
+            requests.add(params.clone());
+            if (contains(rejections, params)) {
+                throw new IllegalStateException("Request rejected.");
+            }
+            for (RttManagerCompat.RttParams param : params) {
+                if (failures.containsKey(param.bssid)) {
+                    failure = failures.get(param.bssid);
+                }
+            }
+            if (failure == null && holding) {
+                heldParams.add(params);
+                heldListeners.add(listener);
+                notifyAll();
+                return;
+            }
+        }
+        if (failure != null) {
+            listener.onFailure(failure, "Request failed.");
+            return;
+        }
+        super.startRanging(params, listener);
+    }
+}
@@ -0,0 +1,109 @@
+package de.plinzen.rttmanager;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimulatedRttBackendTest {
+
+    private static final SimulatedRttBackend.NoiseModel NO_NOISE = new SimulatedRttBackend.NoiseModel() {
+        @Override
+        public int sampleError(final String bssid, final int trueDistance, final Random random) {
+            return 0;
+        }
+
+        @Override
+        public int standardDeviation(final String bssid, final int trueDistance) {
+            return 0;
+        }
+    };
+    private final SimulatedRttBackend backend = new SimulatedRttBackend(1);
+
+    static RttManagerCompat.RttParams[] params(final String... bssids) {
+        final RttManagerCompat.RttParams[] params = new RttManagerCompat.RttParams[bssids.length];
+        for (int i = 0; i < bssids.length; i++) {
+            params[i] = new RttManagerCompat.RttParams();
+            params[i].bssid = bssids[i];
+        }
+        return params;
+    }
+
+    @After
+    public void tearDown() {
+        backend.shutdown();
+    }
+
+    @Test
+    public void reportsTrueDistanceInPlatformUnits() throws InterruptedException {
+        backend.setNoiseModel(NO_NOISE);
+        backend.putPeer("a", 300);
+        final RecordingRttListener listener = new RecordingRttListener();
+        backend.startRanging(params("a"), listener);
+        listener.awaitCallbacks(1);
+
+        final RttManagerCompat.RttResult result = listener.getSuccesses().get(0)[0];
+        assertEquals(RttManagerCompat.RTT_STATUS_SUCCESS, result.status);
+        assertEquals(300, result.distance);
+        // 6 m round trip at 30 cm/ns are 20 ns, reported in 0.1 ns
+        assertEquals(200, result.rtt);
+        // -40 dB - 20 log10(3) = -49.5 dB, reported in 0.5 dB
+        assertEquals(-99, result.rssi);
+    }
+
+    @Test
+    public void unknownPeerDoesNotRespond() throws InterruptedException {
+        final RecordingRttListener listener = new RecordingRttListener();
+        backend.startRanging(params("unknown"), listener);
+        listener.awaitCallbacks(1);
+
+        assertEquals(RttManagerCompat.RTT_STATUS_FAIL_NO_RSP, listener.getSuccesses().get(0)[0].status);
+    }
+
+    @Test
+    public void sameSeedGivesSameResults() throws InterruptedException {
+        final SimulatedRttBackend other = new SimulatedRttBackend(1);
+        try {
+            for (SimulatedRttBackend simulated : new SimulatedRttBackend[]{backend, other}) {
+                simulated.putPeer("a", 500);
+                simulated.putPeer("b", 1500);
+                simulated.setStatusWeight(RttManagerCompat.RTT_STATUS_FAIL_BUSY_TRY_LATER, 1);
+            }
+            for (int request = 0; request < 20; request++) {
+                final RecordingRttListener first = new RecordingRttListener();
+                final RecordingRttListener second = new RecordingRttListener();
+                backend.startRanging(params("a", "b"), first);
+                other.startRanging(params("a", "b"), second);
+                first.awaitCallbacks(1);
+                second.awaitCallbacks(1);
+                for (int i = 0; i < 2; i++) {
+                    final RttManagerCompat.RttResult expected = first.getSuccesses().get(0)[i];
+                    final RttManagerCompat.RttResult actual = second.getSuccesses().get(0)[i];
+                    assertEquals(expected.status, actual.status);
+                    assertEquals(expected.distance, actual.distance);
+                    assertEquals(expected.retryAfterDuration, actual.retryAfterDuration);
+                }
+            }
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void stoppedRequestIsNotDelivered() throws InterruptedException {
+        backend.putPeer("a", 300);
+        backend.setCallbackLatency(100, TimeUnit.MILLISECONDS);
+        final RecordingRttListener stopped = new RecordingRttListener();
+        final RecordingRttListener running = new RecordingRttListener();
+        backend.startRanging(params("a"), stopped);
+        backend.startRanging(params("a"), running);
+        backend.stopRanging(stopped);
+        running.awaitCallbacks(1);
+
+        assertEquals(100, running.getSuccesses().get(0)[0].burstDuration);
+        assertEquals(0, stopped.getSuccesses().size());
+    }
+}
@@ -0,0 +1,128 @@
+package android.net.wifi;
+
+/**
+ * Compile-only mirror of the {@code @SystemApi} class {@code android.net.wifi.RttManager}. Only the members accessed
+ * directly by the rttmanager-compat library are declared here. Field names and types have to match the platform
+ * sources exactly, see https://android.googlesource.com/platform/frameworks/base/+/nougat-release/wifi/java/android
+ * /net/wifi/RttManager.java
+ */
+@SuppressWarnings("unused")
+public class RttManager {
+
+    public abstract static class ResponderCallback {
+        public ResponderCallback() {
+            throw new RuntimeException("Stub!");
+        }
+
+        public abstract void onResponderEnableFailure(int reason);
+
+        public abstract void onResponderEnabled(ResponderConfig config);
+    }
+
+    public static class ResponderConfig {
+        public int centerFreq0;
+        public int centerFreq1;
+        public int channelWidth;
+        public int frequency;
+        public String macAddress;
+        public int preamble;
+
+        public ResponderConfig() {
+            throw new RuntimeException("Stub!");
+        }
+    }
+
+    public static class RttCapabilities {
+        public int bwSupported;
+        public boolean lciSupported;
+        public boolean lcrSupported;
+        public int mcVersion;
+        public boolean oneSidedRttSupported;
+        public int preambleSupported;
+        public boolean responderSupported;
+        public boolean secureRttSupported;
+        public boolean supportedPeerType;
+        public boolean supportedType;
+        public boolean twoSided11McRttSupported;
+
+        public RttCapabilities() {
+            throw new RuntimeException("Stub!");
+        }
+    }
+
+    public interface RttListener {
+        void onAborted();
+
+        void onFailure(int reason, String description);
+
+        void onSuccess(RttResult[] results);
+    }
+
+    public static class RttParams {
+        public boolean LCIRequest;
+        public boolean LCRRequest;
+        public int bandwidth;
+        public String bssid;
+        public int burstTimeout;
+        public int centerFreq0;
+        public int centerFreq1;
+        public int channelWidth;
+        public int deviceType;
+        public int frequency;
+        public int interval;
+        public int numRetriesPerFTMR;
+        public int numRetriesPerMeasurementFrame;
+        public int numSamplesPerBurst;
+        public int num_retries;
+        public int num_samples;
+        public int numberBurst;
+        public int preamble;
+        public int requestType;
+        public boolean secure;
+
+        public RttParams() {
+            throw new RuntimeException("Stub!");
+        }
+    }
+
+    public static class RttResult {
+        public WifiInformationElement LCI;
+        public WifiInformationElement LCR;
+        public String bssid;
+        public int burstDuration;
+        public int burstNumber;
+        public int distance;
+        public int distanceSpread;
+        public int distanceStandardDeviation;
+        public int frameNumberPerBurstPeer;
+        public int measurementFrameNumber;
+        public int measurementType;
+        public int negotiatedBurstNum;
+        public int requestType;
+        public int retryAfterDuration;
+        public int rssi;
+        public int rssiSpread;
+        public long rtt;
+        public long rttSpread;
+        public long rttStandardDeviation;
+        public int rxRate;
+        public boolean secure;
+        public int status;
+        public int successMeasurementFrameNumber;
+        public long ts;
+        public int txRate;
+
+        public RttResult() {
+            throw new RuntimeException("Stub!");
+        }
+    }
+
+    public static class WifiInformationElement {
+        public byte[] data;
+        public byte id;
+
+        public WifiInformationElement() {
+            throw new RuntimeException("Stub!");
+        }
+    }
+}